@@ -0,0 +1,98 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spout.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import org.getspout.spout.netcache.ChunkNetCache;
+import org.getspout.spout.netcache.PartitionChunk;
+import org.getspout.spout.netcache.PartitionHash;
+
+/**
+ * ChunkNetCache.handle, with every partition already known to the client, and with a cache too small to ever hit
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChunkNetCacheBenchmark {
+	/**
+	 * Uncompressed size of a full 1.3.2 chunk column, 16 sections and the biome array
+	 */
+	public static final int CHUNK_SIZE = 16 * (4096 + 2048 * 3) + 256;
+	private static final int CHUNKS = 64;
+
+	@Param({"0", "1"})
+	public int hashId;
+
+	private byte[][] chunks;
+	private byte[] partition;
+	private ChunkNetCache warmCache;
+	private ChunkNetCache coldCache;
+	private int next = 0;
+
+	@Setup
+	public void setup() {
+		chunks = createChunks(CHUNKS, CHUNK_SIZE, 42L);
+		partition = new byte[PartitionChunk.PARTITION_SIZE];
+		PartitionHash hash = PartitionHash.getHash(hashId);
+
+		warmCache = new ChunkNetCache(65536);
+		warmCache.warmStart(hash, new long[0]);
+		warmCache.handle(chunks[0], partition);
+
+		coldCache = new ChunkNetCache(64);
+		coldCache.warmStart(hash, new long[0]);
+	}
+
+	@Benchmark
+	public byte[] handleHit() {
+		return warmCache.handle(chunks[0], partition);
+	}
+
+	@Benchmark
+	public byte[] handleMiss() {
+		next = (next + 1) % CHUNKS;
+		return coldCache.handle(chunks[next], partition);
+	}
+
+	/**
+	 * Creates chunk data where the upper half of each chunk is air, like most real chunks
+	 */
+	static byte[][] createChunks(int count, int size, long seed) {
+		Random random = new Random(seed);
+		byte[][] chunks = new byte[count][size];
+		for (byte[] chunk : chunks) {
+			for (int i = 0; i < size / 2; i++) {
+				chunk[i] = (byte) random.nextInt(8);
+			}
+		}
+		return chunks;
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spout.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.getspout.spoutapi.inventory.ItemMap;
+import org.getspout.spoutapi.io.store.IntMemoryStore;
+
+/**
+ * ItemMap.convertTo between a world map and its parent, where the translation is cached, and between two world maps, where it is not.
+ * Also converts the same ids as one array, as chunk palettes are converted.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ItemMapBenchmark {
+	private static final int KEYS = 2048;
+
+	private ItemMap root;
+	private ItemMap world;
+	private ItemMap otherWorld;
+	private int[] worldIds;
+	private short[] worldIdArray;
+	private short[] scratch;
+
+	@Setup
+	public void setup() {
+		root = new ItemMap(null, new IntMemoryStore(), null);
+		world = new ItemMap(root, new IntMemoryStore(), null);
+		otherWorld = new ItemMap(root, new IntMemoryStore(), null);
+		worldIds = new int[KEYS];
+		worldIdArray = new short[KEYS];
+		scratch = new short[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			worldIds[i] = world.register("benchmark:item" + i);
+			otherWorld.register("benchmark:item" + (KEYS - 1 - i));
+			world.convertTo(root, worldIds[i]);
+			worldIdArray[i] = (short) worldIds[i];
+		}
+	}
+
+	@Benchmark
+	public void convertToParent(Blackhole bh) {
+		for (int id : worldIds) {
+			bh.consume(world.convertTo(root, id));
+		}
+	}
+
+	@Benchmark
+	public short[] convertArrayToParent() {
+		System.arraycopy(worldIdArray, 0, scratch, 0, KEYS);
+		world.convertTo(root, scratch);
+		return scratch;
+	}
+
+	@Benchmark
+	public void convertToSibling(Blackhole bh) {
+		for (int id : worldIds) {
+			bh.consume(world.convertTo(otherWorld, id));
+		}
+	}
+}
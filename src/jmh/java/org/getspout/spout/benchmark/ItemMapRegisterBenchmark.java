@@ -0,0 +1,92 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spout.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import org.getspout.spoutapi.inventory.ItemMap;
+import org.getspout.spoutapi.io.store.IntJournalStore;
+
+/**
+ * Startup registration of custom items into an empty root item map, one key at a time as plugins do now, and as one batch.
+ * <p/>
+ * Each invocation starts from a new map backed by a journal in a temporary file, and ends with the map saved.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ItemMapRegisterBenchmark {
+	@Param({"5000"})
+	public int items;
+
+	private String[] keys;
+	private File file;
+	private ItemMap map;
+
+	@Setup(Level.Trial)
+	public void setupKeys() {
+		keys = new String[items];
+		for (int i = 0; i < items; i++) {
+			keys[i] = "BenchmarkPlugin.item" + i;
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void setup() throws IOException {
+		file = File.createTempFile("spout-itemmap", ".dat");
+		file.delete();
+		IntJournalStore store = new IntJournalStore(file);
+		store.load();
+		map = new ItemMap(null, store, null);
+	}
+
+	@TearDown(Level.Invocation)
+	public void tearDown() {
+		file.delete();
+		new File(file.getPath() + ".log").delete();
+	}
+
+	@Benchmark
+	public ItemMap registerEach() {
+		for (String key : keys) {
+			map.register(key);
+		}
+		map.save();
+		return map;
+	}
+
+	@Benchmark
+	public int[] registerBatch() {
+		return map.register(keys);
+	}
+}
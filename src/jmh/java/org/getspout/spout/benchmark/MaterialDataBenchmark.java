@@ -0,0 +1,107 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spout.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.getspout.spoutapi.material.MaterialData;
+
+/**
+ * MaterialData.getMaterial over the vanilla id range, with and without data values, and over custom ids
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MaterialDataBenchmark {
+	private int[] ids;
+	private short[] data;
+	private short[] customIds;
+
+	@Setup
+	public void setup() {
+		StandIns.install();
+		ids = new int[1024];
+		data = new short[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			//Spread the lookups over blocks and items, with wool and dye being the materials with subtypes
+			ids[i] = (i & 1) == 0 ? (i * 7) % 137 : 256 + (i * 13) % 130;
+			data[i] = (short) (i & 15);
+		}
+		//Half custom blocks and half custom items, registered once per JVM
+		customIds = new short[1024];
+		for (int i = 0; i < customIds.length; i++) {
+			int customId = 1024 + i;
+			customIds[i] = (short) customId;
+			if ((i & 1) == 0) {
+				if (MaterialData.getCustomBlock(customId) == null) {
+					MaterialData.addCustomBlock(StandIns.customBlock("Block " + customId, customId));
+				}
+			} else if (MaterialData.getCustomItem(customId) == null) {
+				MaterialData.addCustomItem(StandIns.customItem("Item " + customId, customId));
+			}
+		}
+		MaterialData.getMaterial(1);
+	}
+
+	@Benchmark
+	public void getMaterial(Blackhole bh) {
+		for (int id : ids) {
+			bh.consume(MaterialData.getMaterial(id));
+		}
+	}
+
+	@Benchmark
+	public void getMaterialWithData(Blackhole bh) {
+		for (int i = 0; i < ids.length; i++) {
+			bh.consume(MaterialData.getMaterial(ids[i], data[i]));
+		}
+	}
+
+	@Benchmark
+	public void getCustomMaterial(Blackhole bh) {
+		for (short customId : customIds) {
+			bh.consume(MaterialData.getMaterial(318, customId));
+		}
+	}
+
+	@Benchmark
+	public void getCustomBlockAndItem(Blackhole bh) {
+		for (short customId : customIds) {
+			bh.consume(MaterialData.getCustomBlock(customId));
+			bh.consume(MaterialData.getCustomItem(customId));
+		}
+	}
+
+	@Benchmark
+	public void getMaterialByName(Blackhole bh) {
+		bh.consume(MaterialData.getMaterial("stone"));
+		bh.consume(MaterialData.getMaterial("wool"));
+		bh.consume(MaterialData.getMaterial("diamond sword"));
+	}
+}
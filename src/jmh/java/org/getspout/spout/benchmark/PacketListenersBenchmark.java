@@ -0,0 +1,89 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spout.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import net.minecraft.server.Packet;
+import net.minecraft.server.Packet3Chat;
+
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import org.getspout.spout.packet.listener.PacketListeners;
+import org.getspout.spout.packet.standard.MCCraftPacket;
+import org.getspout.spoutapi.packet.listener.PacketListener;
+import org.getspout.spoutapi.packet.standard.MCPacket;
+
+/**
+ * PacketListeners.canSend, the check every outbound packet goes through, with a varying number of listeners
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PacketListenersBenchmark {
+	@Param({"0", "1", "4"})
+	public int listeners;
+
+	private Player player;
+	private Packet packet;
+	private int packetId;
+	private MCCraftPacket[] packetWrappers;
+
+	@Setup
+	public void setup() {
+		player = StandIns.player("Benchmark", 1);
+		packet = new Packet3Chat("Spout benchmark chat message");
+		packetId = packet.k();
+		packetWrappers = new MCCraftPacket[256];
+		PacketListeners.clearAllListeners();
+		for (int i = 0; i < listeners; i++) {
+			PacketListeners.addListener(packetId, new PacketListener() {
+				@Override
+				public boolean checkPacket(Player player, MCPacket packet) {
+					return packet.getId() >= 0;
+				}
+			});
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		PacketListeners.clearAllListeners();
+	}
+
+	@Benchmark
+	public boolean canSend() {
+		return PacketListeners.canSend(player, packet, packetWrappers, packetId);
+	}
+
+	@Benchmark
+	public boolean canSendUnlistened() {
+		return PacketListeners.canSend(player, packet, packetWrappers, 255 - packetId);
+	}
+}
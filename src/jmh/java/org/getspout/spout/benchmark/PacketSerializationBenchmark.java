@@ -0,0 +1,121 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spout.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.plugin.Plugin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import org.getspout.spout.packet.CustomPacket;
+import org.getspout.spoutapi.block.design.GenericBlockDesign;
+import org.getspout.spoutapi.gui.GenericLabel;
+import org.getspout.spoutapi.packet.PacketCacheFile;
+import org.getspout.spoutapi.packet.PacketCustomBlockDesign;
+import org.getspout.spoutapi.packet.PacketWidget;
+import org.getspout.spoutapi.packet.SpoutPacket;
+
+/**
+ * Writing Spout packets to the network stream, through CustomPacket, for the packets sent most often or in the largest volume
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PacketSerializationBenchmark {
+	private SpoutPacket widget;
+	private SpoutPacket blockDesign;
+	private SpoutPacket cacheFile;
+	private CustomPacket sharedCacheFile;
+	private ByteArrayOutputStream bytes;
+	private DataOutputStream output;
+
+	@Setup
+	public void setup() throws IOException {
+		StandIns.install();
+		Plugin plugin = StandIns.plugin("Benchmark");
+
+		GenericLabel label = new GenericLabel("Spout benchmark label");
+		widget = new PacketWidget(label, UUID.randomUUID());
+
+		GenericBlockDesign design = new GenericBlockDesign();
+		design.setQuadNumber(6);
+		for (int i = 0; i < 6; i++) {
+			design.setQuad(i, 0F, 0F, 0F, 0, 0, 0F, 1F, 0F, 0, 16, 1F, 1F, 0F, 16, 16, 1F, 0F, 0F, 16, 0, 256, 256);
+		}
+		design.setTexture(plugin, "http://www.spout.org/benchmark.png");
+		design.setBoundingBox(0F, 0F, 0F, 1F, 1F, 1F);
+		blockDesign = new PacketCustomBlockDesign((short) 1024, design, (byte) 0);
+
+		File file = File.createTempFile("spout-cache", ".png");
+		file.deleteOnExit();
+		byte[] data = new byte[64 * 1024];
+		new Random(3L).nextBytes(data);
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+		cacheFile = new PacketCacheFile("Benchmark", file);
+		sharedCacheFile = new CustomPacket(cacheFile, CustomPacket.serialize(cacheFile));
+
+		bytes = new ByteArrayOutputStream(128 * 1024);
+		output = new DataOutputStream(bytes);
+	}
+
+	@Benchmark
+	public int widget() throws IOException {
+		return write(new CustomPacket(widget));
+	}
+
+	@Benchmark
+	public int blockDesign() throws IOException {
+		return write(new CustomPacket(blockDesign));
+	}
+
+	@Benchmark
+	public int cacheFile() throws IOException {
+		return write(new CustomPacket(cacheFile));
+	}
+
+	@Benchmark
+	public int cacheFileShared() throws IOException {
+		return write(sharedCacheFile);
+	}
+
+	private int write(CustomPacket packet) throws IOException {
+		bytes.reset();
+		packet.a(output);
+		return bytes.size();
+	}
+}
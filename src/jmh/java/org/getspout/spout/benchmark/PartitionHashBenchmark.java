@@ -0,0 +1,67 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spout.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import org.getspout.spout.netcache.PartitionChunk;
+import org.getspout.spout.netcache.PartitionHash;
+
+/**
+ * Throughput of the partition hash functions, for a single partition and for a whole chunk
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PartitionHashBenchmark {
+	@Param({"2048", "164096"})
+	public int size;
+
+	private byte[] data;
+
+	@Setup
+	public void setup() {
+		data = ChunkNetCacheBenchmark.createChunks(1, size, 7L)[0];
+	}
+
+	@Benchmark
+	public long partitionChunkHash() {
+		return PartitionChunk.hash(data);
+	}
+
+	@Benchmark
+	public long legacy() {
+		return PartitionHash.LEGACY.hash(data);
+	}
+
+	@Benchmark
+	public long xxHash64() {
+		return PartitionHash.XXHASH64.hash(data);
+	}
+}
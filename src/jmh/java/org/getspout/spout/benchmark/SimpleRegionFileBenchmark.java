@@ -0,0 +1,111 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spout.benchmark;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import org.getspout.spoutapi.chunkstore.SimpleRegionFile;
+import org.getspout.spoutapi.chunkstore.SyncPolicy;
+
+/**
+ * Chunk reads and writes through SimpleRegionFile, in a temporary file holding a full region of 1024 chunks
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SimpleRegionFileBenchmark {
+	@Param({"1024", "16384", "131072"})
+	public int chunkSize;
+
+	private File file;
+	private SimpleRegionFile regionFile;
+	private byte[] data;
+	private byte[] readBuffer;
+	private int next = 0;
+
+	@Setup
+	public void setup() throws IOException {
+		//Headers are only written on close, so writes measure the write path rather than the disk
+		SimpleRegionFile.setSyncPolicy(SyncPolicy.CLOSE);
+		file = File.createTempFile("spout-region", ".dat");
+		file.delete();
+		regionFile = new SimpleRegionFile(file, 0, 0);
+		Random random = new Random(1L);
+		data = new byte[chunkSize];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) random.nextInt(16);
+		}
+		readBuffer = new byte[chunkSize];
+		for (int x = 0; x < 32; x++) {
+			for (int z = 0; z < 32; z++) {
+				write(x, z);
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		regionFile.close();
+		file.delete();
+		SimpleRegionFile.setSyncPolicy(SyncPolicy.BATCH);
+	}
+
+	@Benchmark
+	public void write() throws IOException {
+		next = (next + 1) & 1023;
+		write(next >> 5, next & 31);
+	}
+
+	@Benchmark
+	public byte[] read() throws IOException {
+		next = (next + 1) & 1023;
+		DataInputStream in = regionFile.getInputStream(next >> 5, next & 31);
+		try {
+			in.readFully(readBuffer);
+		} finally {
+			in.close();
+		}
+		return readBuffer;
+	}
+
+	private void write(int x, int z) throws IOException {
+		DataOutputStream out = regionFile.getOutputStream(x, z);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spout.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginDescriptionFile;
+
+import org.getspout.spoutapi.SpoutManager;
+import org.getspout.spoutapi.WorldManager;
+import org.getspout.spoutapi.inventory.ItemMap;
+import org.getspout.spoutapi.inventory.MaterialManager;
+import org.getspout.spoutapi.io.store.IntMemoryStore;
+import org.getspout.spoutapi.material.CustomBlock;
+import org.getspout.spoutapi.material.CustomItem;
+
+/**
+ * Plain Java stand-ins for the CraftBukkit types used by the benchmarks.
+ * <p/>
+ * Each stand-in is a proxy that answers a fixed set of methods, and returns a default value for everything else.
+ * No server is started, so the benchmarks only measure Spout code.
+ */
+public final class StandIns {
+	public static final int WORLD_HEIGHT = 256;
+	private static boolean installed = false;
+
+	private StandIns() {
+	}
+
+	/**
+	 * Installs a stand-in server, world manager and root item map, if they have not been installed yet
+	 */
+	public static synchronized void install() {
+		if (installed) {
+			return;
+		}
+		installed = true;
+
+		Map<String, Object> server = new HashMap<String, Object>();
+		server.put("getName", "StandIn");
+		server.put("getVersion", "StandIn");
+		server.put("getBukkitVersion", "StandIn");
+		server.put("getLogger", Logger.getLogger("StandIn"));
+		Bukkit.setServer(new StandInHandler(server) {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getWorld") && args != null && args.length == 1 && args[0] instanceof UUID) {
+					return world((UUID) args[0]);
+				}
+				return super.invoke(proxy, method, args);
+			}
+		}.create(Server.class));
+
+		Map<String, Object> worldManager = new HashMap<String, Object>();
+		worldManager.put("getWorldHeightBits", 8);
+		worldManager.put("getWorldXShiftBits", 12);
+		worldManager.put("getWorldZShiftBits", 8);
+		SpoutManager.getInstance().setWorldManager(new StandInHandler(worldManager).create(WorldManager.class));
+		SpoutManager.getInstance().setMaterialManager(new StandInHandler(new HashMap<String, Object>()).create(MaterialManager.class));
+
+		ItemMap.setRootMap(new ItemMap(null, new IntMemoryStore(), null));
+	}
+
+	public static World world(UUID uid) {
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("getUID", uid);
+		values.put("getName", "world");
+		values.put("getMaxHeight", WORLD_HEIGHT);
+		return new StandInHandler(values).create(World.class);
+	}
+
+	public static Player player(String name, int entityId) {
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("getName", name);
+		values.put("getEntityId", entityId);
+		values.put("isOnline", true);
+		return new StandInHandler(values).create(Player.class);
+	}
+
+	public static Plugin plugin(String name) {
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("getName", name);
+		values.put("getDescription", new PluginDescriptionFile(name, "1.0", "org.getspout.spout.benchmark." + name));
+		values.put("isEnabled", true);
+		return new StandInHandler(values).create(Plugin.class);
+	}
+
+	public static CustomItem customItem(String name, int customId) {
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("getName", name);
+		values.put("getNotchianName", name);
+		values.put("getCustomId", customId);
+		values.put("getRawId", 318);
+		values.put("getRawData", customId);
+		return new StandInHandler(values).create(CustomItem.class);
+	}
+
+	public static CustomBlock customBlock(String name, int customId) {
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("getName", name);
+		values.put("getNotchianName", name);
+		values.put("getCustomId", customId);
+		values.put("getRawId", 318);
+		values.put("getRawData", customId);
+		return new StandInHandler(values).create(CustomBlock.class);
+	}
+
+	private static class StandInHandler implements InvocationHandler {
+		private final Map<String, Object> values;
+
+		StandInHandler(Map<String, Object> values) {
+			this.values = values;
+		}
+
+		@SuppressWarnings("unchecked")
+		<T> T create(Class<T> type) {
+			return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.equals("equals")) {
+				return proxy == args[0];
+			} else if (name.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			} else if (name.equals("toString")) {
+				return "StandIn" + values;
+			}
+			Object value = values.get(name);
+			if (value != null) {
+				return value;
+			}
+			Class<?> type = method.getReturnType();
+			if (type == boolean.class) {
+				return false;
+			} else if (type == int.class) {
+				return 0;
+			} else if (type == long.class) {
+				return 0L;
+			} else if (type == short.class) {
+				return (short) 0;
+			} else if (type == byte.class) {
+				return (byte) 0;
+			} else if (type == float.class) {
+				return 0F;
+			} else if (type == double.class) {
+				return 0D;
+			} else if (type == char.class) {
+				return (char) 0;
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spout.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Location;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.getspout.spoutapi.io.SpoutInputStream;
+import org.getspout.spoutapi.io.SpoutOutputStream;
+
+/**
+ * Round trips through SpoutOutputStream and SpoutInputStream
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StreamBenchmark {
+	@Param({"64", "4096", "65536"})
+	public int payloadSize;
+
+	private byte[] payload;
+	private byte[] readBuffer;
+	private String text;
+	private UUID uuid;
+	private Location location;
+
+	@Setup
+	public void setup() {
+		StandIns.install();
+		payload = new byte[payloadSize];
+		for (int i = 0; i < payload.length; i++) {
+			payload[i] = (byte) (i * 31);
+		}
+		readBuffer = new byte[payloadSize];
+		text = "Spout benchmark label text, with some length to it";
+		uuid = UUID.randomUUID();
+		location = new Location(StandIns.world(UUID.randomUUID()), 123.5D, 64D, -987.25D, 90F, 45F);
+	}
+
+	@Benchmark
+	public void primitives(Blackhole bh) {
+		SpoutOutputStream out = new SpoutOutputStream();
+		try {
+			for (int i = 0; i < 64; i++) {
+				out.writeInt(i);
+				out.writeLong(i * 31L);
+				out.writeShort((short) i);
+				out.writeFloat(i * 0.5F);
+				out.writeDouble(i * 0.25D);
+				out.writeBoolean((i & 1) == 0);
+			}
+			SpoutInputStream in = new SpoutInputStream(ByteBuffer.wrap(out.toByteArray()));
+			for (int i = 0; i < 64; i++) {
+				bh.consume(in.readInt());
+				bh.consume(in.readLong());
+				bh.consume(in.readShort());
+				bh.consume(in.readFloat());
+				bh.consume(in.readDouble());
+				bh.consume(in.readBoolean());
+			}
+		} finally {
+			out.release();
+		}
+	}
+
+	@Benchmark
+	public void strings(Blackhole bh) {
+		SpoutOutputStream out = new SpoutOutputStream();
+		try {
+			for (int i = 0; i < 16; i++) {
+				out.writeString(text);
+				out.writeUUID(uuid);
+			}
+			SpoutInputStream in = new SpoutInputStream(ByteBuffer.wrap(out.toByteArray()));
+			for (int i = 0; i < 16; i++) {
+				bh.consume(in.readString());
+				bh.consume(in.readUUID());
+			}
+		} finally {
+			out.release();
+		}
+	}
+
+	@Benchmark
+	public void locations(Blackhole bh) {
+		SpoutOutputStream out = new SpoutOutputStream();
+		try {
+			for (int i = 0; i < 16; i++) {
+				out.writeLocation(location);
+			}
+			SpoutInputStream in = new SpoutInputStream(ByteBuffer.wrap(out.toByteArray()));
+			for (int i = 0; i < 16; i++) {
+				bh.consume(in.readLocation());
+			}
+		} finally {
+			out.release();
+		}
+	}
+
+	@Benchmark
+	public void bytes(Blackhole bh) {
+		SpoutOutputStream out = new SpoutOutputStream();
+		try {
+			out.writeInt(payload.length);
+			out.write(payload);
+			SpoutInputStream in = new SpoutInputStream(ByteBuffer.wrap(out.toByteArray()));
+			int length = in.readInt();
+			in.read(readBuffer, 0, length);
+			bh.consume(readBuffer);
+		} finally {
+			out.release();
+		}
+	}
+
+	@Benchmark
+	public void bytesPresized(Blackhole bh) {
+		SpoutOutputStream out = new SpoutOutputStream(payload.length + 4);
+		try {
+			out.writeInt(payload.length);
+			out.write(payload);
+			bh.consume(out.toByteArray());
+		} finally {
+			out.release();
+		}
+	}
+}
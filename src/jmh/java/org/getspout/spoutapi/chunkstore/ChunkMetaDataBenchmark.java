@@ -0,0 +1,131 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spoutapi.chunkstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import org.bukkit.World;
+
+import org.getspout.spout.benchmark.StandIns;
+import org.getspout.spoutapi.inventory.ItemMap;
+import org.getspout.spoutapi.io.store.IntMemoryStore;
+
+/**
+ * Encoding of ChunkMetaData as done by ChunkStore when chunks are saved and loaded, compared to the Java serialization used before version 5.
+ * <p/>
+ * Lives in the chunkstore package, as ChunkMetaData can only be created from there.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChunkMetaDataBenchmark {
+	/**
+	 * Percentage of the blocks in the chunk that are custom blocks
+	 */
+	@Param({"0", "5", "100"})
+	public int customPercent;
+
+	private World world;
+	private ItemMap worldItemMap;
+	private ChunkMetaData data;
+	private byte[] serialized;
+	private byte[] encoded;
+
+	@Setup
+	public void setup() throws IOException {
+		StandIns.install();
+		ItemMap serverItemMap = ItemMap.getRootMap();
+		worldItemMap = new ItemMap(serverItemMap, new IntMemoryStore(), null);
+		world = StandIns.world(UUID.randomUUID());
+		data = new ChunkMetaData(world, worldItemMap, 0, 0);
+
+		int[] customIds = new int[16];
+		for (int i = 0; i < customIds.length; i++) {
+			customIds[i] = serverItemMap.register("benchmark:block" + i);
+		}
+		if (customPercent > 0) {
+			short[] ids = new short[16 * 16 * StandIns.WORLD_HEIGHT];
+			for (int i = 0; i < ids.length; i++) {
+				if (i % 100 < customPercent) {
+					ids[i] = (short) customIds[i & 15];
+				}
+			}
+			data.setCustomBlockIds(ids);
+			data.setCustomBlockData(new byte[ids.length]);
+		}
+		for (int i = 0; i < 32; i++) {
+			data.putBlockData("benchmark", i & 15, i * 4, (i * 7) & 15, Integer.valueOf(i));
+		}
+		data.putChunkData("benchmark", "chunk data");
+		serialized = serialize();
+		encoded = encode();
+	}
+
+	@Benchmark
+	public byte[] encode() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		data.write(out);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	@Benchmark
+	public ChunkMetaData decode() throws IOException {
+		ChunkMetaData read = ChunkMetaData.read(new DataInputStream(new ByteArrayInputStream(encoded)), world, worldItemMap);
+		read.setWorldItemMap(worldItemMap);
+		return read;
+	}
+
+	@Benchmark
+	public byte[] serialize() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(data);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	@Benchmark
+	public ChunkMetaData deserialize() throws IOException, ClassNotFoundException {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized));
+		ChunkMetaData read = (ChunkMetaData) in.readObject();
+		in.close();
+		read.setWorldItemMap(worldItemMap);
+		return read;
+	}
+}
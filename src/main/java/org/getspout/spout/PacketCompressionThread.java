@@ -19,65 +19,209 @@
  */
 package org.getspout.spout;
 
+import java.util.ArrayDeque;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.getspout.spout.packet.SharedPacket;
+import org.getspout.spout.player.SpoutCraftPlayer;
 import org.getspout.spoutapi.packet.CompressiblePacket;
 import org.getspout.spoutapi.player.SpoutPlayer;
 
+/**
+ * Pool of compression workers.
+ *
+ * Each player is pinned to a single worker, so compressible packets for one player are sent in the order they were queued,
+ * while packets for different players are compressed in parallel.
+ *
+ * A caller that finds its worker's queue full spills the packet into the worker's unbounded overflow instead of waiting.
+ * Once a worker has spilled, new packets follow into the overflow until it is drained, so packets are still compressed in the order they were queued.
+ */
 public class PacketCompressionThread extends Thread {
-	private static PacketCompressionThread instance = null;
+	private static PacketCompressionThread[] workers = null;
 
-	private static final int QUEUE_CAPACITY = 1024 * 10;
-	private final LinkedBlockingDeque<QueuedPacket> queue = new LinkedBlockingDeque<QueuedPacket>(QUEUE_CAPACITY);
+	private static final AtomicLong packetsCompressed = new AtomicLong(0);
+	private static final AtomicLong compressionTime = new AtomicLong(0);
+	private static final AtomicLong queueTime = new AtomicLong(0);
+	private static final AtomicLong maxLatency = new AtomicLong(0);
+	private static final AtomicLong spilledPackets = new AtomicLong(0);
 
-	private PacketCompressionThread() {
-		super("Spout Packet Compression Thread");
+	private final LinkedBlockingDeque<QueuedPacket> queue;
+	//Packets queued after the queue filled up, all newer than the packets in the queue. Guarded by itself
+	private final ArrayDeque<QueuedPacket> overflow = new ArrayDeque<QueuedPacket>();
+
+	private PacketCompressionThread(int id, int capacity) {
+		super("Spout Packet Compression Thread " + id);
+		queue = new LinkedBlockingDeque<QueuedPacket>(capacity);
 	}
 
 	public static void startThread() {
-		instance = new PacketCompressionThread();
-		instance.start();
+		startThread(Runtime.getRuntime().availableProcessors(), 1024 * 10);
 	}
 
-	public static void endThread() {
-		instance.interrupt();
-		try {
-			instance.join();
-		} catch (InterruptedException ie) {
+	public static void startThread(int threads, int capacity) {
+		threads = Math.max(1, threads);
+		capacity = Math.max(1, capacity / threads);
+		PacketCompressionThread[] started = new PacketCompressionThread[threads];
+		for (int i = 0; i < threads; i++) {
+			started[i] = new PacketCompressionThread(i, capacity);
+			started[i].start();
 		}
-		instance = null;
+		workers = started;
 	}
 
-	public static PacketCompressionThread getInstance() {
-		return instance;
+	public static void endThread() {
+		PacketCompressionThread[] stopping = workers;
+		workers = null;
+		if (stopping == null) {
+			return;
+		}
+		for (PacketCompressionThread worker : stopping) {
+			worker.interrupt();
+		}
+		for (PacketCompressionThread worker : stopping) {
+			try {
+				worker.join();
+			} catch (InterruptedException ie) {
+			}
+		}
 	}
 
 	public static void add(CompressiblePacket packet, SpoutPlayer player) {
-		if (instance != null) {
-			instance.queue.add(new QueuedPacket(player, packet));
+		add(new SharedPacket(packet), player);
+	}
+
+	/**
+	 * Queues a shared packet for compression, the packet is only compressed by the first worker that reaches it
+	 * @param packet to compress
+	 * @param player to send the packet to once compressed
+	 */
+	public static void add(SharedPacket packet, SpoutPlayer player) {
+		PacketCompressionThread[] current = workers;
+		if (current != null) {
+			PacketCompressionThread worker = current[(player.getEntityId() & 0x7FFFFFFF) % current.length];
+			QueuedPacket queued = new QueuedPacket(player, packet);
+			synchronized (worker.overflow) {
+				if (worker.overflow.isEmpty() && worker.queue.offer(queued)) {
+					return;
+				}
+				//Queue is full, or packets have already spilled, keep them in order behind those
+				spilledPackets.incrementAndGet();
+				worker.overflow.addLast(queued);
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of packets waiting to be compressed, across all workers
+	 * @return queue depth
+	 */
+	public static int getQueueDepth() {
+		PacketCompressionThread[] current = workers;
+		int depth = 0;
+		if (current != null) {
+			for (PacketCompressionThread worker : current) {
+				depth += worker.queue.size();
+				synchronized (worker.overflow) {
+					depth += worker.overflow.size();
+				}
+			}
 		}
+		return depth;
+	}
+
+	public static int getWorkerCount() {
+		PacketCompressionThread[] current = workers;
+		return current == null ? 0 : current.length;
+	}
+
+	public static long getPacketsCompressed() {
+		return packetsCompressed.get();
+	}
+
+	/**
+	 * Gets the average time spent compressing a packet, in nanoseconds
+	 * @return average compression time
+	 */
+	public static long getAverageCompressionTime() {
+		long count = packetsCompressed.get();
+		return count == 0 ? 0 : compressionTime.get() / count;
+	}
+
+	/**
+	 * Gets the average time a packet waited in the queue before being compressed, in nanoseconds
+	 * @return average queue time
+	 */
+	public static long getAverageQueueTime() {
+		long count = packetsCompressed.get();
+		return count == 0 ? 0 : queueTime.get() / count;
+	}
+
+	/**
+	 * Gets the longest time between a packet being queued and sent, in nanoseconds
+	 * @return maximum latency
+	 */
+	public static long getMaxLatency() {
+		return maxLatency.get();
+	}
+
+	/**
+	 * Gets the number of packets that were spilled into a worker's overflow, because its queue was full
+	 * @return spilled packets
+	 */
+	public static long getSpilledPackets() {
+		return spilledPackets.get();
+	}
+
+	public static void resetStatistics() {
+		packetsCompressed.set(0);
+		compressionTime.set(0);
+		queueTime.set(0);
+		maxLatency.set(0);
+		spilledPackets.set(0);
 	}
 
-	@SuppressWarnings("deprecation")
 	public void run() {
 		while (!isInterrupted()) {
 			try {
-				QueuedPacket packet = queue.take();
-				packet.packet.compress();
-				packet.player.sendPacket(packet.packet);
+				QueuedPacket packet = queue.poll();
+				if (packet == null) {
+					synchronized (overflow) {
+						packet = overflow.pollFirst();
+					}
+				}
+				//Once the overflow is seen empty, new packets go to the queue, so this wakes up for them
+				compressAndSend(packet != null ? packet : queue.take());
 			} catch (InterruptedException e) {
 				break;
 			}
 		}
 	}
 
+	private static void compressAndSend(QueuedPacket packet) {
+		long start = System.nanoTime();
+		packet.packet.getWirePacket();
+		long end = System.nanoTime();
+		((SpoutCraftPlayer) packet.player).sendPacket(packet.packet);
+
+		packetsCompressed.incrementAndGet();
+		compressionTime.addAndGet(end - start);
+		queueTime.addAndGet(start - packet.queued);
+		long latency = end - packet.queued;
+		long max;
+		while (latency > (max = maxLatency.get()) && !maxLatency.compareAndSet(max, latency)) {
+		}
+	}
+
 	private static class QueuedPacket {
-		final CompressiblePacket packet;
+		final SharedPacket packet;
 		final SpoutPlayer player;
+		final long queued;
 
-		QueuedPacket(SpoutPlayer player, CompressiblePacket packet) {
+		QueuedPacket(SpoutPlayer player, SharedPacket packet) {
 			this.player = player;
 			this.packet = packet;
+			this.queued = System.nanoTime();
 		}
 	}
 }
@@ -0,0 +1,186 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spout;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bukkit.entity.Player;
+
+import org.getspout.spout.config.ConfigReader;
+import org.getspout.spout.player.SpoutCraftPlayer;
+
+/**
+ * Sends queued packets within a time budget per tick, shared by every flush in the tick.
+ * <p/>
+ * Each connection flushes its own queue when the server ticks the network, so packets queued by the world tick and replies to incoming packets go out in the same tick.
+ * A connection only takes its share of the budget there. The {@link ServerTickTask} then sends what is left at the start of the next tick,
+ * with connections taking turns sending a few packets each, so one flooded connection can not use up the budget alone.
+ * If the budget runs out, the next round starts with the connection whose turn was cut short.
+ * <p/>
+ * Called from the main thread only
+ */
+public final class PacketFlusher {
+	/**
+	 * Upper bounds of the flush time histogram buckets, in nanoseconds. The last bucket holds everything slower
+	 */
+	private static final long[] flushBuckets = {500000L, 1000000L, 2000000L, 5000000L, 10000000L, 20000000L, 50000000L};
+	private static final long[] flushHistogram = new long[flushBuckets.length + 1];
+	private static final int PACKETS_PER_TURN = 32;
+	private static long overflowTicks = 0;
+	private static boolean started = false;
+	private static long spent = 0;
+	private static boolean overflow = false;
+	private static int connections = 1;
+	private static int nextPlayer = 0;
+	//Connection whose turn was cut short when the budget ran out, it goes first in the next round
+	private static SpoutNetServerHandler resume = null;
+
+	private PacketFlusher() {
+	}
+
+	/**
+	 * Sends a connection's queued packets while the server ticks the network, within the connection's share of the budget
+	 * @param handler to flush
+	 */
+	public static void flush(SpoutNetServerHandler handler) {
+		long budget = ConfigReader.getPacketFlushBudget();
+		long share = budget / connections;
+		long start = System.nanoTime();
+		try {
+			while (true) {
+				long elapsed = System.nanoTime() - start;
+				if (budget > 0 && spent + elapsed >= budget) {
+					overflow = true;
+					if (resume == null) {
+						resume = handler;
+					}
+					return;
+				}
+				if (!handler.syncFlushPacketQueue(PACKETS_PER_TURN)) {
+					return;
+				}
+				if (budget > 0 && elapsed >= share) {
+					//The rest is sent by the next round, after the other connections had their share
+					return;
+				}
+			}
+		} finally {
+			spent += System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * Starts a new tick, and sends the packets left over from the last one with the rest of the budget.
+	 * <p/>
+	 * Called by the {@link ServerTickTask} once per tick
+	 * @param online players
+	 */
+	static void flushAll(Player[] online) {
+		if (started) {
+			recordFlushTime(spent);
+			if (overflow) {
+				overflowTicks++;
+			}
+		}
+		started = true;
+		spent = 0;
+		overflow = false;
+
+		long start = System.nanoTime();
+		long budget = ConfigReader.getPacketFlushBudget();
+		List<SpoutNetServerHandler> handlers = new ArrayList<SpoutNetServerHandler>(online.length);
+		for (Player player : online) {
+			if (player instanceof SpoutCraftPlayer) {
+				handlers.add(((SpoutCraftPlayer) player).getNetServerHandler());
+			}
+		}
+		int count = handlers.size();
+		connections = Math.max(1, count);
+		if (count > 0) {
+			boolean[] done = new boolean[count];
+			int remaining = count;
+			int first = resume != null && handlers.contains(resume) ? handlers.indexOf(resume) : nextPlayer % count;
+			resume = null;
+			boolean cut = false;
+			while (remaining > 0 && !cut) {
+				for (int i = 0; i < count; i++) {
+					int index = (first + i) % count;
+					if (done[index]) {
+						continue;
+					}
+					if (budget > 0 && System.nanoTime() - start >= budget) {
+						cut = true;
+						overflow = true;
+						resume = handlers.get(index);
+						break;
+					}
+					if (!handlers.get(index).syncFlushPacketQueue(PACKETS_PER_TURN)) {
+						done[index] = true;
+						remaining--;
+					}
+				}
+			}
+			if (!cut) {
+				nextPlayer = first + 1;
+			}
+		}
+		spent = System.nanoTime() - start;
+	}
+
+	private static void recordFlushTime(long nanos) {
+		int bucket = 0;
+		while (bucket < flushBuckets.length && nanos >= flushBuckets[bucket]) {
+			bucket++;
+		}
+		flushHistogram[bucket]++;
+	}
+
+	/**
+	 * Gets the upper bounds of the flush time histogram buckets, in nanoseconds
+	 * @return bucket bounds
+	 */
+	public static long[] getFlushBuckets() {
+		return flushBuckets.clone();
+	}
+
+	/**
+	 * Gets the number of ticks whose packet flushes together fell into each bucket, there is one more bucket than bounds
+	 * @return flush time histogram
+	 */
+	public static long[] getFlushHistogram() {
+		return flushHistogram.clone();
+	}
+
+	/**
+	 * Gets the number of ticks that ran out of flush time, and left packets for the next tick
+	 * @return overflow ticks
+	 */
+	public static long getOverflowTicks() {
+		return overflowTicks;
+	}
+
+	public static void resetFlushStatistics() {
+		for (int i = 0; i < flushHistogram.length; i++) {
+			flushHistogram[i] = 0;
+		}
+		overflowTicks = 0;
+	}
+}
@@ -37,7 +37,6 @@ import org.getspout.spoutapi.event.spout.SpoutcraftFailedEvent;
 import org.getspout.spoutapi.material.CustomBlock;
 import org.getspout.spoutapi.material.MaterialData;
 import org.getspout.spoutapi.packet.PacketAllowVisualCheats;
-import org.getspout.spoutapi.packet.PacketBlockData;
 import org.getspout.spoutapi.packet.PacketCustomBlockDesign;
 import org.getspout.spoutapi.packet.PacketServerPlugins;
 import org.getspout.spoutapi.player.PlayerInformation;
@@ -75,6 +74,7 @@ public class PlayerManager {
 	@SuppressWarnings("deprecation")
 	public void onSpoutcraftEnable(SpoutPlayer player) {
 		timer.remove(player.getName());
+		((SpoutCraftPlayer)player).getNetServerHandler().getChunkNetCache().onSpoutcraftEnable();
 		player.sendPacket(new PacketServerPlugins(Bukkit.getServer().getPluginManager().getPlugins()));
 		player.updateInventory();
 
@@ -94,7 +94,7 @@ public class PlayerManager {
 		}
 		player.updatePermissions();
 
-		player.sendPacket(new PacketBlockData(SpoutManager.getMaterialManager().getModifiedBlocks()));
+		((SpoutCraftPlayer)player).sendPacket(((SimpleMaterialManager)SpoutManager.getMaterialManager()).getModifiedBlocksPacket());
 		Bukkit.getServer().getPluginManager().callEvent(new SpoutCraftEnableEvent(player));
 		((SpoutCraftPlayer)player).updateWaypoints();
 	}
@@ -48,6 +48,9 @@ public class ServerTickTask implements Runnable {
 		ServerTickEvent event = new ServerTickEvent();
 		Bukkit.getServer().getPluginManager().callEvent(event);
 
+		//Do this last!
+		PacketFlusher.flushAll(online);
+
 		//if (counter % 20 == 0) {
 		//	for (World world : Bukkit.getServer().getWorlds()) {
 		//		Chunk[] chunks = world.getLoadedChunks();
@@ -35,6 +35,8 @@ import org.getspout.spout.item.mcitem.CustomItemFlint;
 import org.getspout.spout.item.mcitem.CustomItemPickaxe;
 import org.getspout.spout.item.mcitem.CustomItemSpade;
 import org.getspout.spout.keyboard.SimpleKeyBindingManager;
+import org.getspout.spout.netcache.CacheThread;
+import org.getspout.spout.netcache.ChunkCacheStore;
 import org.getspout.spout.packet.CustomPacket;
 import org.getspout.spout.packet.SimplePacketManager;
 import org.getspout.spout.player.SimpleBiomeManager;
@@ -46,9 +48,11 @@ import org.getspout.spout.sound.SimpleSoundManager;
 import org.getspout.spout.util.DeadlockMonitor;
 import org.getspout.spoutapi.SpoutManager;
 import org.getspout.spoutapi.chunkstore.SimpleChunkDataManager;
+import org.getspout.spoutapi.chunkstore.SimpleRegionFile;
 import org.getspout.spoutapi.inventory.ItemMap;
 import org.getspout.spoutapi.io.CRCStore;
-import org.getspout.spoutapi.io.store.FlatFileStore;
+import org.getspout.spoutapi.io.store.IntJournalStore;
+import org.getspout.spoutapi.io.store.JournalStore;
 import org.getspout.spoutapi.packet.PacketRenderDistance;
 import org.getspout.spoutapi.player.SpoutPlayer;
 
@@ -71,12 +75,13 @@ public class Spout extends JavaPlugin {
 	protected PluginListener pluginListener;
 	protected SpoutCustomBlockMonitor blockMonitor;
 	protected static Spout instance;
-	protected FlatFileStore<String> CRCConfig;
-	protected FlatFileStore<Integer> itemMapConfig;
+	protected JournalStore<String> CRCConfig;
+	protected JournalStore<Integer> itemMapConfig;
 	protected ItemMap serverItemMap;
 	protected final List<SpoutPlayer> playersOnline = new ArrayList<SpoutPlayer>();
 	protected Thread shutdownThread = null;
 	protected InventoryListener invListener;
+	protected ChunkCacheStore chunkCacheStore = null;
 	private boolean hardDisable = false;
 
 	public Spout() {
@@ -117,6 +122,9 @@ public class Spout extends JavaPlugin {
 				if (scp.isSpoutCraftEnabled()) {
 					scp.sendPacket(new PacketRenderDistance(true, true));
 				}
+				if (chunkCacheStore != null) {
+					chunkCacheStore.saveNow(scp.getName(), scp.getNetServerHandler().getChunkNetCache());
+				}
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
@@ -142,6 +150,7 @@ public class Spout extends JavaPlugin {
 
 		//end the thread
 		PacketCompressionThread.endThread();
+		CacheThread.endThreads();
 
 		Runtime.getRuntime().removeShutdownHook(shutdownThread);
 		super.onDisable();
@@ -185,6 +194,21 @@ public class Spout extends JavaPlugin {
 			}
 		}
 		if (!hardDisable) {
+			SimpleRegionFile.setSyncPolicy(ConfigReader.getChunkMetaDataSync());
+			SimpleRegionFile.setTimeout(ConfigReader.getChunkMetaDataIdleClose());
+			final SimpleChunkDataManager chunkDataManager = (SimpleChunkDataManager) SpoutManager.getChunkDataManager();
+			chunkDataManager.getPrefetcher().setCapacity(ConfigReader.getChunkMetaDataPrefetch());
+			chunkDataManager.getChunkStore().setMaxOpenFiles(ConfigReader.getChunkMetaDataOpenFiles());
+			Bukkit.getServer().getScheduler().scheduleAsyncRepeatingTask(this, new Runnable() {
+				@Override
+				public void run() {
+					chunkDataManager.getChunkStore().closeIdle();
+				}
+			}, 1200L, 1200L);
+			if (ConfigReader.isChunkDataCachePersist()) {
+				chunkCacheStore = new ChunkCacheStore(new File(getDataFolder(), "chunkcache"));
+			}
+
 			playerListener = new SpoutPlayerListener(this);
 			chunkListener = new SpoutWorldListener(this);
 			chunkMonitorListener = new SpoutWorldMonitorListener(this);
@@ -215,7 +239,8 @@ public class Spout extends JavaPlugin {
 			CustomItemFlint.replaceFlint();
 			CustomBlock.replaceBlocks();
 
-			PacketCompressionThread.startThread();
+			PacketCompressionThread.startThread(ConfigReader.getCompressionThreads(), ConfigReader.getCompressionQueueSize());
+			CacheThread.startThreads(ConfigReader.getChunkCacheThreads());
 
 			//Start counting ticks
 			Bukkit.getServer().getScheduler().scheduleSyncRepeatingTask(this, new ServerTickTask(), 0, 1);
@@ -239,12 +264,12 @@ public class Spout extends JavaPlugin {
 		//These are safe even if the build check fails
 		getCommand("spout").setExecutor(new SpoutCommand(this));
 
-		CRCConfig = new FlatFileStore<String>(new File(this.getDataFolder(), "CRCCache.txt"), String.class);
+		CRCConfig = new JournalStore<String>(new File(this.getDataFolder(), "CRCCache.dat"), String.class, new File(this.getDataFolder(), "CRCCache.txt"));
 		CRCConfig.load();
 
 		CRCStore.setConfigFile(CRCConfig);
 
-		itemMapConfig = new FlatFileStore<Integer>(new File(this.getDataFolder(), "itemMap.txt"), Integer.class);
+		itemMapConfig = new IntJournalStore(new File(this.getDataFolder(), "itemMap.dat"), new File(this.getDataFolder(), "itemMap.txt"));
 		if (!itemMapConfig.load()) {
 			System.out.println("[Spout] Unable to load global item map");
 		} else {
@@ -289,6 +314,14 @@ public class Spout extends JavaPlugin {
 		return instance;
 	}
 
+	/**
+	 * Gets the store used to persist chunk cache hashes between sessions
+	 * @return chunk cache store, or null if the chunk cache is not persisted
+	 */
+	public ChunkCacheStore getChunkCacheStore() {
+		return chunkCacheStore;
+	}
+
 	public void authenticate(Player player) {
 		if (ConfigReader.authenticateSpoutcraft()) {
 			Packet18ArmAnimation packet = new Packet18ArmAnimation();
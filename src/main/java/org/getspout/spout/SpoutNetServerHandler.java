@@ -20,7 +20,6 @@
 package org.getspout.spout;
 
 import java.lang.reflect.Field;
-import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import net.minecraft.server.EntityPlayer;
@@ -41,8 +40,10 @@ import net.minecraft.server.Packet3Chat;
 import org.bukkit.ChatColor;
 import org.bukkit.entity.LivingEntity;
 
+import org.getspout.spout.config.ConfigReader;
 import org.getspout.spout.netcache.CacheThread;
 import org.getspout.spout.netcache.ChunkNetCache;
+import org.getspout.spout.packet.PacketScheduler;
 import org.getspout.spout.packet.listener.PacketListeners;
 import org.getspout.spout.packet.standard.MCCraftPacket;
 import org.getspout.spout.player.SpoutCraftPlayer;
@@ -55,7 +56,7 @@ import org.getspout.spoutapi.player.SpoutPlayer;
 public class SpoutNetServerHandler extends NetServerHandler {
 	protected Field entityListField = null;
 	protected ItemStack lastOverrideDisplayStack = null;
-	private final ChunkNetCache chunkNetCache = new ChunkNetCache();
+	private final ChunkNetCache chunkNetCache = new ChunkNetCache(ConfigReader.getChunkDataCacheSize());
 
 	private MCCraftPacket[] packetWrappers = new MCCraftPacket[256];
 
@@ -91,11 +92,21 @@ public class SpoutNetServerHandler extends NetServerHandler {
 		return null;
 	}
 
+	public ChunkNetCache getChunkNetCache() {
+		return chunkNetCache;
+	}
+
+	public PacketScheduler getPacketScheduler() {
+		return scheduler;
+	}
+
 	private boolean allowReload = false;
 	
 	@Override
 	public void a(Packet250CustomPayload packet250custompayload) {
-		chunkNetCache.handleCustomPacket(packet250custompayload.tag, packet250custompayload.data);
+		if (chunkNetCache.handleCustomPacket(packet250custompayload.tag, packet250custompayload.data)) {
+			sendImmediatePacket(new Packet250CustomPayload("ChkCache:setHash", chunkNetCache.getHashSelectPayload()));
+		}
 		super.a(packet250custompayload);
 	}
 
@@ -177,13 +188,13 @@ public class SpoutNetServerHandler extends NetServerHandler {
 		}
 	}
 
-	private LinkedBlockingDeque<Packet> resyncQueue = new LinkedBlockingDeque<Packet>();
+	private final PacketScheduler scheduler = new PacketScheduler();
 
 	public void queueOutputPacket(Packet packet) {
 		if (packet == null) {
 			return;
 		}
-		resyncQueue.addLast(packet);
+		scheduler.add(packet);
 		if (processingKick.get()) {
 			this.syncFlushPacketQueue(new MCCraftPacket[256]);
 		}
@@ -194,13 +205,21 @@ public class SpoutNetServerHandler extends NetServerHandler {
 			return;
 		}
 
-		resyncQueue.addFirst(packet);
+		scheduler.addFirst(packet);
 	}
 
 	@Override
 	public void d() {
-		syncFlushPacketQueue();
+		if (!Spout.getInstance().isEnabled()) {
+			syncFlushPacketQueue(packetWrappers);
+			super.d();
+			return;
+		}
 		super.d();
+		//Sends what the world tick queued and the replies to the packets just handled, within this connection's share of the flush budget
+		if (!this.disconnected) {
+			PacketFlusher.flush(this);
+		}
 	}
 
 	AtomicBoolean processingKick = new AtomicBoolean(false);
@@ -217,16 +236,42 @@ public class SpoutNetServerHandler extends NetServerHandler {
 		processingKick.set(false);
 	}
 
+	/**
+	 * Sends the packets allowed by this tick's budgets, the rest are sent on later ticks.
+	 * <p/>
+	 * Called from the main thread only
+	 */
 	public void syncFlushPacketQueue() {
-		syncFlushPacketQueue(packetWrappers);
+		syncFlushPacketQueue(Integer.MAX_VALUE);
 	}
 
-	public void syncFlushPacketQueue(MCCraftPacket[] packetWrappers) {
-		while (!resyncQueue.isEmpty()) {
-			Packet p = resyncQueue.pollFirst();
-			if (p != null) {
-				syncedSendPacket(p, packetWrappers);
+	/**
+	 * Sends up to maxPackets of the packets allowed by this tick's budgets.
+	 * <p/>
+	 * Called from the main thread only
+	 * @param maxPackets to send
+	 * @return true if the limit was reached, and more packets may be sent this tick
+	 */
+	public boolean syncFlushPacketQueue(int maxPackets) {
+		scheduler.startTick(MinecraftServer.currentTick);
+		for (int i = 0; i < maxPackets; i++) {
+			Packet p = scheduler.poll(true);
+			if (p == null) {
+				return false;
 			}
+			syncedSendPacket(p, packetWrappers);
+		}
+		return true;
+	}
+
+	/**
+	 * Sends every queued packet, ignoring the budgets
+	 * @param packetWrappers to use for the packet listeners
+	 */
+	public void syncFlushPacketQueue(MCCraftPacket[] packetWrappers) {
+		Packet p;
+		while ((p = scheduler.poll(false)) != null) {
+			syncedSendPacket(p, packetWrappers);
 		}
 	}
 
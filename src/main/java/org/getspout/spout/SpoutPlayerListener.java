@@ -38,6 +38,7 @@ import org.bukkit.event.player.PlayerEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerKickEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
 import org.bukkit.event.player.PlayerPickupItemEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.player.PlayerTeleportEvent;
@@ -45,10 +46,12 @@ import org.bukkit.event.player.PlayerTeleportEvent.TeleportCause;
 import org.bukkit.inventory.ItemStack;
 
 import org.getspout.spout.inventory.SimpleMaterialManager;
+import org.getspout.spout.netcache.ChunkCacheStore;
 import org.getspout.spout.player.SimplePlayerManager;
 import org.getspout.spout.player.SpoutCraftPlayer;
 import org.getspout.spoutapi.SpoutManager;
 import org.getspout.spoutapi.block.SpoutBlock;
+import org.getspout.spoutapi.chunkstore.SimpleChunkDataManager;
 import org.getspout.spoutapi.inventory.SpoutEnchantment;
 import org.getspout.spoutapi.inventory.SpoutItemStack;
 import org.getspout.spoutapi.material.CustomBlock;
@@ -77,6 +80,21 @@ public class SpoutPlayerListener implements Listener {
 		synchronized(Spout.getInstance().playersOnline) {
 			Spout.getInstance().playersOnline.add((SpoutPlayer) event.getPlayer());
 		}
+		ChunkCacheStore store = Spout.getInstance().getChunkCacheStore();
+		if (store != null && event.getPlayer() instanceof SpoutCraftPlayer) {
+			store.load(Spout.getInstance(), event.getPlayer().getName(), ((SpoutCraftPlayer) event.getPlayer()).getNetServerHandler().getChunkNetCache());
+		}
+		prefetchChunks(event.getPlayer().getLocation());
+	}
+
+	@EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+	public void onPlayerMove(PlayerMoveEvent event) {
+		Location from = event.getFrom();
+		Location to = event.getTo();
+		//Only when the player enters a new chunk, this runs for every move
+		if (from.getWorld() != to.getWorld() || (from.getBlockX() >> 4) != (to.getBlockX() >> 4) || (from.getBlockZ() >> 4) != (to.getBlockZ() >> 4)) {
+			prefetchChunks(to);
+		}
 	}
 
 	@EventHandler
@@ -262,6 +280,10 @@ public class SpoutPlayerListener implements Listener {
 				}
 			}
 		}
+		ChunkCacheStore store = Spout.getInstance().getChunkCacheStore();
+		if (store != null && player instanceof SpoutCraftPlayer) {
+			store.save(Spout.getInstance(), player.getName(), ((SpoutCraftPlayer) player).getNetServerHandler().getChunkNetCache());
+		}
 	}
 	@EventHandler(priority = EventPriority.LOWEST)
 	public void onPlayerDrop(PlayerDropItemEvent e) {
@@ -289,6 +311,16 @@ public class SpoutPlayerListener implements Listener {
 		}
 		e.getItem().setItemStack(sis);
 	}
+
+	/**
+	 * Starts reading the chunk meta data of the chunks a player will load around a location
+	 * @param location of the player
+	 */
+	private void prefetchChunks(Location location) {
+		SimpleChunkDataManager dm = (SimpleChunkDataManager) SpoutManager.getChunkDataManager();
+		//One chunk further than the view distance, these are loaded next
+		dm.prefetch(location.getWorld(), location.getBlockX() >> 4, location.getBlockZ() >> 4, Bukkit.getServer().getViewDistance() + 1);
+	}
 }
 
 class PostTeleport implements Runnable {
@@ -315,4 +347,3 @@ class PostWorldTeleport implements Runnable {
 		player.updateWaypoints();
 	}
 }
-
@@ -34,6 +34,19 @@ import org.getspout.spoutapi.SpoutManager;
 import org.getspout.spoutapi.chunkstore.SimpleChunkDataManager;
 
 public class SpoutWorldListener implements Listener {
+	private static final Field chunkField;
+
+	static {
+		Field field = null;
+		try {
+			field = ChunkEvent.class.getDeclaredField("chunk");
+			field.setAccessible(true);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		chunkField = field;
+	}
+
 	public SpoutWorldListener(Spout plugin) {
 		Bukkit.getPluginManager().registerEvents(this, plugin);
 	}
@@ -42,12 +55,12 @@ public class SpoutWorldListener implements Listener {
 	public void onChunkLoad(ChunkLoadEvent event) {
 		if (SpoutCraftChunk.replaceBukkitChunk(event.getChunk())) {
 			//update the reference to the chunk in the event
-			try {
-				Field chunk = ChunkEvent.class.getDeclaredField("chunk");
-				chunk.setAccessible(true);
-				chunk.set(event, event.getChunk().getWorld().getChunkAt(event.getChunk().getX(), event.getChunk().getZ()));
-			} catch (Exception e) {
-				e.printStackTrace();
+			if (chunkField != null) {
+				try {
+					chunkField.set(event, event.getChunk().getWorld().getChunkAt(event.getChunk().getX(), event.getChunk().getZ()));
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
 			}
 
 			SimpleChunkDataManager dm = (SimpleChunkDataManager)SpoutManager.getChunkDataManager();
@@ -219,25 +219,12 @@ public class SpoutCraftChunk extends CraftChunk implements SpoutChunk {
 
 	@Override
 	public short getCustomBlockId(int x, int y, int z) {
-		short[] ids = getCustomBlockIds();
-		if (ids == null) {
-			return 0;
-		}
-		int index = ((x & 0xF) << xBitShifts) | ((z & 0xF) << zBitShifts) | (y & worldHeightMinusOne);
-		return ids[index];
+		return SpoutManager.getChunkDataManager().getCustomBlockId(getWorld(), (getX() << 4) | (x & 0xF), y, (getZ() << 4) | (z & 0xF));
 	}
 
 	@Override
 	public short setCustomBlockId(int x, int y, int z, short id) {
-		short[] ids = getCustomBlockIds();
-		if (ids == null) {
-			ids = new short[16*16*worldHeight];
-			setCustomBlockIds(ids);
-		}
-		int index = ((x & 0xF) << xBitShifts) | ((z & 0xF) << zBitShifts) | (y & worldHeightMinusOne);
-		short old = ids[index];
-		ids[index] = id;
-		return old;
+		return SpoutManager.getChunkDataManager().setCustomBlockId(getWorld(), (getX() << 4) | (x & 0xF), y, (getZ() << 4) | (z & 0xF), id);
 	}
 
 	@Override
@@ -261,25 +248,12 @@ public class SpoutCraftChunk extends CraftChunk implements SpoutChunk {
 
 	@Override
 	public byte getCustomBlockData(int x, int y, int z) {
-		byte[] data = getCustomBlockData();
-		if (data == null) {
-			return 0;
-		}
-		int index = ((x & 0xF) << xBitShifts) | ((z & 0xF) << zBitShifts) | (y & worldHeightMinusOne);
-		return data[index];
+		return SpoutManager.getChunkDataManager().getCustomBlockData(getWorld(), (getX() << 4) | (x & 0xF), y, (getZ() << 4) | (z & 0xF));
 	}
 
 	@Override
 	public byte setCustomBlockData(int x, int y, int z, byte data) {
-		byte[] dats = getCustomBlockData();
-		if (dats == null) {
-			dats = new byte[16*16*worldHeight];
-			setCustomBlockData(dats);
-		}
-		int index = ((x & 0xF) << xBitShifts) | ((z & 0xF) << zBitShifts) | (y & worldHeightMinusOne);
-		byte old = dats[index];
-		dats[index] = data;
-		return old;
+		return SpoutManager.getChunkDataManager().setCustomBlockData(getWorld(), (getX() << 4) | (x & 0xF), y, (getZ() << 4) | (z & 0xF), data);
 	}
 
 	@Override
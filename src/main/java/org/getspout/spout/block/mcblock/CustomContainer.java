@@ -80,10 +80,8 @@ public class CustomContainer extends BlockContainer implements CustomMCBlock {
 	}
 
 	private org.getspout.spoutapi.material.CustomBlock getCustomBlock(World world, int x, int y, int z) {
-		short[] customIds = SpoutManager.getChunkDataManager().getCustomBlockIds(world.getWorld(), x >> 4, z >> 4);
-		if (customIds != null) {
-			int index = getIndex(world, x, y, z);
-			short id = customIds[index];
+		short id = SpoutManager.getChunkDataManager().getCustomBlockId(world.getWorld(), x, y, z);
+		if (id != 0) {
 			return MaterialData.getCustomBlock(id);
 		}
 		return null;
@@ -19,19 +19,35 @@
  */
 package org.getspout.spout.command;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.bukkit.Bukkit;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.craftbukkit.CraftServer;
+import org.bukkit.World;
 import org.bukkit.entity.Player;
 
 import net.minecraft.server.MinecraftServer;
 import org.bukkit.ChatColor;
+import org.getspout.spout.PacketCompressionThread;
+import org.getspout.spout.PacketFlusher;
 import org.getspout.spout.Spout;
 import org.getspout.spout.config.ConfigReader;
+import org.getspout.spout.netcache.CacheThread;
+import org.getspout.spout.netcache.ChunkNetCache;
+import org.getspout.spout.packet.PacketPriority;
+import org.getspout.spout.packet.PacketScheduler;
 import org.getspout.spout.player.SpoutCraftPlayer;
 import org.getspout.spoutapi.SpoutManager;
+import org.getspout.spoutapi.chunkstore.ChunkMetaDataPrefetcher;
+import org.getspout.spoutapi.chunkstore.ChunkSaveQueue;
+import org.getspout.spoutapi.chunkstore.ChunkStore;
+import org.getspout.spoutapi.chunkstore.RegionFragmentation;
+import org.getspout.spoutapi.chunkstore.SimpleChunkDataManager;
 import org.getspout.spoutapi.player.SpoutPlayer;
 
 public class SpoutCommand implements CommandExecutor {
@@ -119,6 +135,88 @@ public class SpoutCommand implements CommandExecutor {
 			sender.sendMessage("Configuration for Spout has been reloaded.");
 			return true;
 		}
+		if (c.equals("stats")) {
+			if (args.length > 1) {
+				Player target = p.getServer().getPlayer(args[1]);
+				if (!(target instanceof SpoutCraftPlayer)) {
+					sender.sendMessage("[Spout] Unknown player: " + args[1]);
+					return true;
+				}
+				ChunkNetCache cache = ((SpoutCraftPlayer) target).getNetServerHandler().getChunkNetCache();
+				sender.sendMessage("[Spout] " + target.getName() + " chunk cache: " + cache.getHashCount() + " hashes, " + (cache.getMemoryUsage() / 1024) + "KB, evicted: " + cache.getEvictions() + ", partitions hit: " + cache.getPartitionsHit() + ", sent: " + cache.getPartitionsSent() + ", saved: " + (cache.getBytesSaved() / 1024) + "KB");
+				PacketScheduler scheduler = ((SpoutCraftPlayer) target).getNetServerHandler().getPacketScheduler();
+				for (PacketPriority priority : PacketPriority.values()) {
+					sender.sendMessage("[Spout] " + target.getName() + " " + priority.name().toLowerCase() + " packets: " + scheduler.getPacketsSent(priority) + "/" + scheduler.getPacketsQueued(priority) + " sent, " + (scheduler.getBytesSent(priority) / 1024) + "KB, waiting: " + scheduler.getQueuedPackets(priority) + ", deferred ticks: " + scheduler.getDeferredTicks(priority));
+				}
+				return true;
+			}
+			sender.sendMessage("[Spout] Compression workers: " + PacketCompressionThread.getWorkerCount() + ", queued: " + PacketCompressionThread.getQueueDepth() + ", spilled: " + PacketCompressionThread.getSpilledPackets());
+			sender.sendMessage("[Spout] Packets compressed: " + PacketCompressionThread.getPacketsCompressed() + ", avg compress: " + toMillis(PacketCompressionThread.getAverageCompressionTime()) + "ms, avg wait: " + toMillis(PacketCompressionThread.getAverageQueueTime()) + "ms, max latency: " + toMillis(PacketCompressionThread.getMaxLatency()) + "ms");
+			long cacheMemory = 0;
+			for (Player player : p.getServer().getOnlinePlayers()) {
+				if (player instanceof SpoutCraftPlayer) {
+					cacheMemory += ((SpoutCraftPlayer) player).getNetServerHandler().getChunkNetCache().getMemoryUsage();
+				}
+			}
+			sender.sendMessage("[Spout] Chunk cache workers: " + CacheThread.getWorkerCount() + ", queued: " + CacheThread.getQueueDepth() + ", memory: " + (cacheMemory / 1024) + "KB, partitions hit: " + ChunkNetCache.getTotalPartitionsHit() + ", sent: " + ChunkNetCache.getTotalPartitionsSent() + ", saved: " + (ChunkNetCache.getTotalBytesSaved() / 1024) + "KB");
+			for (PacketPriority priority : PacketPriority.values()) {
+				sender.sendMessage("[Spout] " + priority.name().toLowerCase() + " packets sent: " + PacketScheduler.getTotalPacketsSent(priority) + ", " + (PacketScheduler.getTotalBytesSent(priority) / 1024) + "KB, deferred ticks: " + PacketScheduler.getTotalDeferredTicks(priority));
+			}
+			ChunkSaveQueue saveQueue = ((SimpleChunkDataManager) SpoutManager.getChunkDataManager()).getSaveQueue();
+			sender.sendMessage("[Spout] Chunk meta data saves: " + saveQueue.getSaves() + ", coalesced: " + saveQueue.getCoalesced() + ", queued: " + saveQueue.getQueueDepth());
+			ChunkStore chunkStore = ((SimpleChunkDataManager) SpoutManager.getChunkDataManager()).getChunkStore();
+			sender.sendMessage("[Spout] Chunk meta data region files open: " + chunkStore.getOpenFiles() + "/" + chunkStore.getMaxOpenFiles() + ", opened: " + chunkStore.getOpenedFiles() + ", evicted: " + chunkStore.getEvictedFiles() + ", idle closed: " + chunkStore.getIdleClosedFiles());
+			ChunkMetaDataPrefetcher prefetcher = ((SimpleChunkDataManager) SpoutManager.getChunkDataManager()).getPrefetcher();
+			sender.sendMessage("[Spout] Chunk meta data prefetch hits: " + prefetcher.getHits() + ", misses: " + prefetcher.getMisses() + ", requested: " + prefetcher.getRequested() + ", dropped: " + prefetcher.getDropped() + ", evicted: " + prefetcher.getEvicted() + ", queued: " + prefetcher.getQueueDepth() + ", cached: " + prefetcher.getCacheSize() + ", avg prefetch: " + toMillis(prefetcher.getAveragePrefetchTime()) + "ms, avg miss: " + toMillis(prefetcher.getAverageMissTime()) + "ms");
+			long[] buckets = PacketFlusher.getFlushBuckets();
+			long[] histogram = PacketFlusher.getFlushHistogram();
+			StringBuilder flush = new StringBuilder("[Spout] Packet flush times:");
+			for (int i = 0; i < histogram.length; i++) {
+				flush.append(i < buckets.length ? " <" + toMillis(buckets[i]) : " >=" + toMillis(buckets[buckets.length - 1])).append("ms: ").append(histogram[i]);
+			}
+			flush.append(", over budget: ").append(PacketFlusher.getOverflowTicks());
+			sender.sendMessage(flush.toString());
+			return true;
+		}
+		if (c.equals("fragmentation")) {
+			final boolean compact = args.length > 1 && args[1].equals("compact");
+			final List<World> worlds = new ArrayList<World>(p.getServer().getWorlds());
+			if (args.length > (compact ? 2 : 1)) {
+				World world = p.getServer().getWorld(args[compact ? 2 : 1]);
+				if (world == null) {
+					sender.sendMessage("[Spout] Unknown world: " + args[compact ? 2 : 1]);
+					return true;
+				}
+				worlds.clear();
+				worlds.add(world);
+			}
+			final CommandSender target = sender;
+			//Reading the headers and compacting do disk I/O, keep it off the main thread
+			p.getServer().getScheduler().scheduleAsyncDelayedTask(p, new Runnable() {
+				@Override
+				public void run() {
+					SimpleChunkDataManager manager = (SimpleChunkDataManager) SpoutManager.getChunkDataManager();
+					for (World world : worlds) {
+						try {
+							long before = 0;
+							if (compact) {
+								before = manager.getFragmentation(world).getBytes();
+								manager.compact(world);
+							}
+							RegionFragmentation fragmentation = manager.getFragmentation(world);
+							String message = "[Spout] " + world.getName() + " meta data: " + fragmentation.getFiles() + " region files, " + (fragmentation.getBytes() / 1024) + "KB, " + fragmentation.getUsedSegments() + "/" + fragmentation.getSegments() + " segments used, " + String.format("%.1f", fragmentation.getFragmentation() * 100) + "% free";
+							if (compact) {
+								message += ", compacted from " + (before / 1024) + "KB";
+							}
+							sendMessage(target, message);
+						} catch (IOException e) {
+							sendMessage(target, "[Spout] Unable to read meta data for " + world.getName() + ", " + e.getMessage());
+						}
+					}
+				}
+			});
+			return true;
+		}
 		if (c.equals("verify") && args.length > 1) {
 			sender.sendMessage("[Spout] Temporarily setting the motd to: " + args[1]);
 			sender.sendMessage("[Spout] It will return to its original setting in ~5 mins");
@@ -140,4 +238,17 @@ public class SpoutCommand implements CommandExecutor {
 
 		return false;
 	}
+
+	private void sendMessage(final CommandSender target, final String message) {
+		p.getServer().getScheduler().scheduleSyncDelayedTask(p, new Runnable() {
+			@Override
+			public void run() {
+				target.sendMessage(message);
+			}
+		});
+	}
+
+	private static String toMillis(long nanos) {
+		return String.format("%.2f", nanos * 1E-6D);
+	}
 }
@@ -33,6 +33,8 @@ import org.bukkit.configuration.MemorySection;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.entity.Player;
 import org.getspout.spout.Spout;
+import org.getspout.spout.packet.PacketPriority;
+import org.getspout.spoutapi.chunkstore.SyncPolicy;
 import org.getspout.spoutapi.player.SpoutPlayer;
 
 public class ConfigReader {
@@ -53,6 +55,18 @@ public class ConfigReader {
 	private static boolean teleportSmoothing = true;
 	private static boolean authenticateSpoutcraft = true;
 	private static boolean runDeadlockMonitor = false;
+	private static int compressionThreads = 0;
+	private static int compressionQueueSize = 1024 * 10;
+	private static int chunkCacheThreads = 0;
+	private static int chunkCacheSize = 65536;
+	private static boolean chunkCachePersist = false;
+	private static int packetBudgetNormal = 0;
+	private static int packetBudgetBulk = 256 * 1024;
+	private static int packetFlushBudget = 10;
+	private static SyncPolicy chunkMetaDataSync = SyncPolicy.BATCH;
+	private static int chunkMetaDataPrefetch = 1024;
+	private static int chunkMetaDataOpenFiles = 256;
+	private static int chunkMetaDataIdleClose = 300;
 
 	private static HashMap<String, List<Waypoint> > waypoints = new HashMap<String, List<Waypoint>>();
 
@@ -77,6 +91,18 @@ public class ConfigReader {
 		teleportSmoothing = configuration.getBoolean("TeleportSmoothing", true);
 		authenticateSpoutcraft = configuration.getBoolean("AuthenticateSpoutcraft", true);
 		runDeadlockMonitor = configuration.getBoolean("DeadlockMonitor", false);
+		compressionThreads = configuration.getInt("CompressionThreads", 0);
+		compressionQueueSize = configuration.getInt("CompressionQueueSize", 1024 * 10);
+		chunkCacheThreads = configuration.getInt("ChunkDataCacheThreads", 0);
+		chunkCacheSize = configuration.getInt("ChunkDataCacheSize", 65536);
+		chunkCachePersist = configuration.getBoolean("ChunkDataCachePersist", false);
+		packetBudgetNormal = configuration.getInt("PacketBudgetNormal", 0);
+		packetBudgetBulk = configuration.getInt("PacketBudgetBulk", 256 * 1024);
+		packetFlushBudget = configuration.getInt("PacketFlushBudget", 10);
+		chunkMetaDataSync = SyncPolicy.getPolicy(configuration.getString("ChunkMetaDataSync"), SyncPolicy.BATCH);
+		chunkMetaDataPrefetch = configuration.getInt("ChunkMetaDataPrefetch", 1024);
+		chunkMetaDataOpenFiles = configuration.getInt("ChunkMetaDataOpenFiles", 256);
+		chunkMetaDataIdleClose = configuration.getInt("ChunkMetaDataIdleClose", 300);
 
 		loadWaypoints(configuration);
 
@@ -219,4 +245,104 @@ public class ConfigReader {
 	public static boolean runDeadlockMonitor() {
 		return runDeadlockMonitor;
 	}
+
+	/**
+	 * Gets the number of packet compression workers, a value of zero or less uses one worker per processor
+	 * @return compression threads
+	 */
+	public static int getCompressionThreads() {
+		if (compressionThreads <= 0) {
+			return Runtime.getRuntime().availableProcessors();
+		}
+		return compressionThreads;
+	}
+
+	public static int getCompressionQueueSize() {
+		return compressionQueueSize;
+	}
+
+	/**
+	 * Gets the number of chunk network cache workers, a value of zero or less uses one worker per processor
+	 * @return chunk cache threads
+	 */
+	public static int getChunkCacheThreads() {
+		if (chunkCacheThreads <= 0) {
+			return Runtime.getRuntime().availableProcessors();
+		}
+		return chunkCacheThreads;
+	}
+
+	/**
+	 * Gets the maximum number of partition hashes tracked per player, each hash stands for 2KB of chunk data
+	 * @return chunk cache size
+	 */
+	public static int getChunkDataCacheSize() {
+		return Math.max(1, chunkCacheSize);
+	}
+
+	/**
+	 * Whether the chunk cache hashes of each player are saved when they leave, and used to warm the cache when they return
+	 * @return true if the chunk cache is persisted
+	 */
+	public static boolean isChunkDataCachePersist() {
+		return chunkDataCache && chunkCachePersist;
+	}
+
+	/**
+	 * Gets the number of bytes each player may be sent per tick from a class of packets, realtime packets are never limited.
+	 * <p/>
+	 * Map chunks are bulk packets, normal packets are not limited by default
+	 * @param priority of the packets
+	 * @return budget in bytes, or 0 for no limit
+	 */
+	public static int getPacketBudget(PacketPriority priority) {
+		switch (priority) {
+			case NORMAL:
+				return Math.max(0, packetBudgetNormal);
+			case BULK:
+				return Math.max(0, packetBudgetBulk);
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * Gets the time the main thread may spend sending queued packets each tick, packets left over are sent on the next tick
+	 * @return flush budget in nanoseconds, or 0 for no limit
+	 */
+	public static long getPacketFlushBudget() {
+		return Math.max(0, packetFlushBudget) * 1000000L;
+	}
+
+	/**
+	 * Gets when chunk meta data region files are forced to disk, one of write, batch or close
+	 * @return sync policy
+	 */
+	public static SyncPolicy getChunkMetaDataSync() {
+		return chunkMetaDataSync;
+	}
+
+	/**
+	 * Gets the number of chunks whose meta data may be read ahead of players, 0 disables prefetching
+	 * @return prefetch capacity in chunks
+	 */
+	public static int getChunkMetaDataPrefetch() {
+		return Math.max(0, chunkMetaDataPrefetch);
+	}
+
+	/**
+	 * Gets the number of chunk meta data region files kept open, the least recently used are closed first
+	 * @return open files
+	 */
+	public static int getChunkMetaDataOpenFiles() {
+		return Math.max(1, chunkMetaDataOpenFiles);
+	}
+
+	/**
+	 * Gets how long a chunk meta data region file may go unused before it is closed
+	 * @return idle time in milliseconds
+	 */
+	public static long getChunkMetaDataIdleClose() {
+		return Math.max(1, chunkMetaDataIdleClose) * 1000L;
+	}
 }
@@ -20,7 +20,9 @@
 package org.getspout.spout.inventory;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import gnu.trove.iterator.TIntByteIterator;
@@ -35,6 +37,8 @@ import org.bukkit.entity.Player;
 
 import net.minecraft.server.Block;
 import org.getspout.spout.block.mcblock.CustomMCBlock;
+import org.getspout.spout.packet.SharedPacket;
+import org.getspout.spout.packet.SimplePacketManager;
 import org.getspout.spout.player.SpoutCraftPlayer;
 import org.getspout.spoutapi.SpoutManager;
 import org.getspout.spoutapi.inventory.MaterialManager;
@@ -57,6 +61,7 @@ public abstract class AbstractBlockManager implements MaterialManager {
 	protected final TIntByteHashMap originalOpacity = new TIntByteHashMap();
 	protected final TIntIntHashMap originalLight = new TIntIntHashMap();
 	protected Set<org.getspout.spoutapi.material.Block> cachedBlockData = null;
+	protected SharedPacket cachedBlockDataPacket = null;
 
 	@Override
 	public void reset() {
@@ -332,17 +337,36 @@ public abstract class AbstractBlockManager implements MaterialManager {
 		return modified;
 	}
 
+	/**
+	 * Gets a packet with the attributes of all modified blocks.
+	 * <p/>
+	 * The packet is only serialized once, and is reused for every player until a block is modified again.
+	 * @return modified blocks packet
+	 */
+	public SharedPacket getModifiedBlocksPacket() {
+		SharedPacket packet = cachedBlockDataPacket;
+		if (packet == null) {
+			packet = new SharedPacket(new PacketBlockData(getModifiedBlocks()));
+			cachedBlockDataPacket = packet;
+		}
+		return packet;
+	}
+
 	private void updateBlockAttributes(int id, short data) {
 		org.getspout.spoutapi.material.Block block = MaterialData.getBlock(id, data);
 		if (block != null) {
 			cachedBlockData = null;
+			cachedBlockDataPacket = null;
 			HashSet<org.getspout.spoutapi.material.Block> toUpdate = new HashSet<org.getspout.spoutapi.material.Block>(1);
 			toUpdate.add(block);
 			SpoutPacket updatePacket = new PacketBlockData(toUpdate);
+			List<SpoutPlayer> recipients = new ArrayList<SpoutPlayer>();
 			for (SpoutPlayer player : SpoutManager.getOnlinePlayers()) {
-				if (player.isSpoutCraftEnabled())
-					player.sendPacket(updatePacket);
+				if (player.isSpoutCraftEnabled()) {
+					recipients.add(player);
+				}
 			}
+			((SimplePacketManager) SpoutManager.getPacketManager()).sendPacket(new SharedPacket(updatePacket), recipients);
 		}
 	}
 }
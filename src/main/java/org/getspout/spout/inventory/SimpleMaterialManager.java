@@ -25,6 +25,7 @@ import gnu.trove.map.hash.TIntObjectHashMap;
 
 import java.io.File;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
@@ -38,6 +39,8 @@ import org.bukkit.inventory.Recipe;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.getspout.spout.block.SpoutCraftBlock;
+import org.getspout.spout.packet.SharedPacket;
+import org.getspout.spout.packet.SimplePacketManager;
 import org.getspout.spout.player.SpoutCraftPlayer;
 import org.getspout.spoutapi.SpoutManager;
 import org.getspout.spoutapi.block.SpoutChunk;
@@ -45,7 +48,7 @@ import org.getspout.spoutapi.inventory.ItemMap;
 import org.getspout.spoutapi.inventory.MaterialManager;
 import org.getspout.spoutapi.inventory.SpoutShapedRecipe;
 import org.getspout.spoutapi.inventory.SpoutShapelessRecipe;
-import org.getspout.spoutapi.io.store.FlatFileStore;
+import org.getspout.spoutapi.io.store.IntJournalStore;
 import org.getspout.spoutapi.material.CustomBlock;
 import org.getspout.spoutapi.material.CustomItem;
 import org.getspout.spoutapi.material.Material;
@@ -104,6 +107,19 @@ public class SimpleMaterialManager extends AbstractBlockManager implements Mater
 		return id;
 	}
 
+	@Override
+	public int[] registerCustomItemNames(Plugin plugin, String[] keys) {
+		int[] ids = ItemMap.getRootMap().register(keys);
+
+		for (int id : ids) {
+			if (id != 0) {
+				itemPlugin.put(id, plugin.getDescription().getName());
+			}
+		}
+
+		return ids;
+	}
+
 	@Override
 	public boolean removeBlockOverride(Block block) {
 		SpoutCraftBlock scb = (SpoutCraftBlock) block;
@@ -243,35 +259,31 @@ public class SimpleMaterialManager extends AbstractBlockManager implements Mater
 
 		protected void sendPacket() {
 			List<Player> players = world.getPlayers();
+			List<Player> recipients = new ArrayList<Player>(players.size());
+			for (Player player : players) {
+				if (player instanceof SpoutCraftPlayer && ((SpoutCraftPlayer) player).isSpoutCraftEnabled()) {
+					recipients.add(player);
+				}
+			}
+			if (recipients.isEmpty()) {
+				return;
+			}
+			SimplePacketManager packetManager = (SimplePacketManager) SpoutManager.getPacketManager();
 			if (xCoords.size() > 6) {
 				SpoutPacket packet;
 				if (xCoords.size() > 128) {
 					int chunkX = xCoords.get(0) >> 4;
 					int chunkZ = zCoords.get(0) >> 4;
-					packet = new PacketCustomBlockChunkOverride(SpoutManager.getChunkDataManager().getCustomBlockIds(world, chunkX, chunkZ), SpoutManager.getChunkDataManager().getCustomBlockData(world, chunkX, chunkZ),chunkX, chunkZ);
+					packet = new PacketCustomBlockChunkOverride(SpoutManager.getChunkDataManager().copyCustomBlockIds(world, chunkX, chunkZ), SpoutManager.getChunkDataManager().copyCustomBlockData(world, chunkX, chunkZ),chunkX, chunkZ);
 				} else {
 					packet = new PacketCustomMultiBlockOverride(xCoords, yCoords, zCoords, typeIds, data);
 				}
 
-				for (Player player : players) {
-					if (player instanceof SpoutCraftPlayer) {
-						SpoutCraftPlayer spc = (SpoutCraftPlayer) player;
-						if (spc.isSpoutCraftEnabled()) {
-							spc.sendPacket(packet);
-						}
-					}
-				}
+				packetManager.sendPacket(new SharedPacket(packet), recipients);
 			} else {
 				for (int i = 0; i < xCoords.size(); i++) {
 					SpoutPacket packet = new PacketCustomBlockOverride(xCoords.get(i), yCoords.get(i), zCoords.get(i), typeIds.get(i), data.get(i));
-					for (Player player : players) {
-						if (player instanceof SpoutCraftPlayer) {
-							SpoutCraftPlayer spc = (SpoutCraftPlayer) player;
-							if (spc.isSpoutCraftEnabled()) {
-								spc.sendPacket(packet);
-							}
-						}
-					}
+					packetManager.sendPacket(new SharedPacket(packet), recipients);
 				}
 			}
 		}
@@ -285,7 +297,8 @@ public class SimpleMaterialManager extends AbstractBlockManager implements Mater
 		ItemMap.getRootMap().rename(fullOldKey, fullNewKey);
 		
 		for (File worldFolder : Bukkit.getWorldContainer().listFiles()) {
-			if ((new File(worldFolder, "spout_meta/worldItemMap.txt")).exists()) {
+			File dir = new File(worldFolder, "spout_meta");
+			if (new File(dir, "worldItemMap.dat").exists() || new File(dir, "worldItemMap.dat.log").exists() || new File(dir, "worldItemMap.txt").exists()) {
 				World world = Bukkit.getWorld(worldFolder.getName());
 				if (world != null) {
 					ItemMap worldItemMap = SpoutManager.getChunkDataManager().getItemMap(world);
@@ -294,7 +307,7 @@ public class SimpleMaterialManager extends AbstractBlockManager implements Mater
 						continue;
 					}
 				}
-				FlatFileStore<Integer> fs = new FlatFileStore<Integer>(new File(worldFolder, "spout_meta/worldItemMap.txt"), Integer.class);
+				IntJournalStore fs = new IntJournalStore(new File(dir, "worldItemMap.dat"), new File(dir, "worldItemMap.txt"));
 				fs.load();
 				ItemMap worldItemMap = new ItemMap(ItemMap.getRootMap(), fs, null);
 				worldItemMap.rename(fullOldKey, fullNewKey);
@@ -19,80 +19,142 @@
  */
 package org.getspout.spout.netcache;
 
-import java.util.Set;
 import java.util.concurrent.LinkedBlockingQueue;
 
-import net.minecraft.server.EntityPlayer;
 import net.minecraft.server.Packet;
 import net.minecraft.server.Packet51MapChunk;
 
 import org.getspout.spout.SpoutNetServerHandler;
 
+/**
+ * Pool of workers that apply the chunk network cache to outgoing map chunk packets.
+ * <p/>
+ * Every connection is pinned to one worker, so packets for a connection stay in order while different connections are processed in parallel.
+ * Once the workers are stopped, packets are processed on the caller's thread.
+ */
 public class CacheThread extends Thread {
+	private static volatile CacheThread[] workers = null;
 
-	private static final CacheThread instance;
-	
-	private static LinkedBlockingQueue<QueueEntry> queue = new  LinkedBlockingQueue<QueueEntry>();
-	
-	static {
-		instance = new CacheThread();
-	}
+	private final LinkedBlockingQueue<QueueEntry> queue = new LinkedBlockingQueue<QueueEntry>();
+	//Set, and the queue drained, while holding the queue's monitor, so nothing is added after the drain
+	private boolean stopped = false;
+	private final byte[] partition = new byte[PartitionChunk.PARTITION_SIZE];
 
-	private CacheThread() {
-		super("SpoutPlugin Cache Thread");
+	private CacheThread(int id) {
+		super("SpoutPlugin Cache Thread " + id);
 		setDaemon(true);
-		start();
 	}
-	
-	public static CacheThread getInstance() {
-		return instance;
+
+	public static void startThreads(int threads) {
+		threads = Math.max(1, threads);
+		CacheThread[] started = new CacheThread[threads];
+		for (int i = 0; i < threads; i++) {
+			started[i] = new CacheThread(i);
+			started[i].start();
+		}
+		workers = started;
 	}
-	
+
+	public static void endThreads() {
+		CacheThread[] stopping = workers;
+		if (stopping == null) {
+			return;
+		}
+		for (CacheThread worker : stopping) {
+			worker.interrupt();
+		}
+		//Packets sent until a worker is marked stopped are still queued on it, and drained below in order
+		for (CacheThread worker : stopping) {
+			try {
+				worker.join();
+			} catch (InterruptedException ie) {
+			}
+			//Anything left over still has to reach the client, before packets sent after this
+			synchronized (worker.queue) {
+				worker.stopped = true;
+				QueueEntry entry;
+				while ((entry = worker.queue.poll()) != null) {
+					process(entry, worker.partition);
+				}
+			}
+		}
+		workers = null;
+	}
+
 	public void run() {
 		while (!isInterrupted()) {
 			try {
-				QueueEntry entry = queue.take();
-				
-				if (entry.getPacket() instanceof Packet51MapChunk) {
-					Packet51MapChunk p = (Packet51MapChunk) entry.getPacket();
-					p.inflatedBuffer = entry.getChunkNetCache().handle(p.inflatedBuffer);
-				}
-				entry.getNSH().queueOutputPacket(entry.getPacket());
+				process(queue.take(), partition);
 			} catch (InterruptedException ie) {
-				ie.printStackTrace();
 				break;
 			}
 		}
 	}
-	
+
+	private static void process(QueueEntry entry, byte[] partition) {
+		if (entry.getPacket() instanceof Packet51MapChunk) {
+			Packet51MapChunk p = (Packet51MapChunk) entry.getPacket();
+			p.inflatedBuffer = entry.getChunkNetCache().handle(p.inflatedBuffer, partition);
+		}
+		entry.getNSH().queueOutputPacket(entry.getPacket());
+	}
+
 	public static void sendPacket(SpoutNetServerHandler nsh, Packet packet, ChunkNetCache chunkNetCache) {
-		queue.add(new QueueEntry(nsh, packet, chunkNetCache));
+		QueueEntry entry = new QueueEntry(nsh, packet, chunkNetCache);
+		CacheThread[] current = workers;
+		if (current != null) {
+			CacheThread worker = current[(System.identityHashCode(nsh) & 0x7FFFFFFF) % current.length];
+			synchronized (worker.queue) {
+				if (!worker.stopped) {
+					worker.queue.add(entry);
+					return;
+				}
+			}
+		}
+		process(entry, new byte[PartitionChunk.PARTITION_SIZE]);
 	}
-	
+
+	/**
+	 * Gets the number of packets waiting to be processed, across all workers
+	 * @return queue depth
+	 */
+	public static int getQueueDepth() {
+		CacheThread[] current = workers;
+		int depth = 0;
+		if (current != null) {
+			for (CacheThread worker : current) {
+				depth += worker.queue.size();
+			}
+		}
+		return depth;
+	}
+
+	public static int getWorkerCount() {
+		CacheThread[] current = workers;
+		return current == null ? 0 : current.length;
+	}
+
 	private static class QueueEntry {
-		
 		private final SpoutNetServerHandler nsh;
 		private final Packet packet;
 		private final ChunkNetCache chunkNetCache;
-		
+
 		public QueueEntry(SpoutNetServerHandler nsh, Packet packet, ChunkNetCache chunkNetCache) {
 			this.nsh = nsh;
 			this.packet = packet;
 			this.chunkNetCache = chunkNetCache;
 		}
-		
+
 		public SpoutNetServerHandler getNSH() {
 			return nsh;
 		}
-		
+
 		public Packet getPacket() {
 			return packet;
 		}
-		
+
 		public ChunkNetCache getChunkNetCache() {
 			return chunkNetCache;
 		}
-		
 	}
-	
 }
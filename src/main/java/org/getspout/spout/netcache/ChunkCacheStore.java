@@ -0,0 +1,161 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spout.netcache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Stores the partition hashes known to each player's client between sessions.
+ * <p/>
+ * Each player has one file, holding a header, the hash function id and the hashes as raw longs.
+ * Files are read and written off the main thread.
+ */
+public class ChunkCacheStore {
+	private static final int MAGIC_NUMBER = 0x53434348;
+	private static final int VERSION = 1;
+
+	private final File directory;
+
+	public ChunkCacheStore(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Loads the stored hashes for a player into their cache, in a separate thread
+	 * @param plugin to schedule the load with
+	 * @param playerName to load
+	 * @param cache to warm
+	 */
+	public void load(Plugin plugin, final String playerName, final ChunkNetCache cache) {
+		Bukkit.getScheduler().scheduleAsyncDelayedTask(plugin, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					read(getFile(playerName), cache);
+				} catch (IOException e) {
+					System.out.println("[Spout] Unable to load chunk cache for " + playerName + ", " + e.getMessage());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Saves the hashes of a player's cache, in a separate thread
+	 * @param plugin to schedule the save with
+	 * @param playerName to save
+	 * @param cache to save
+	 */
+	public void save(Plugin plugin, final String playerName, ChunkNetCache cache) {
+		if (!cache.isCacheEnabled()) {
+			return;
+		}
+		final int hashId = cache.getPartitionHash().getId();
+		final long[] hashes = cache.getHashes();
+		Bukkit.getScheduler().scheduleAsyncDelayedTask(plugin, new Runnable() {
+			@Override
+			public void run() {
+				write(playerName, hashId, hashes);
+			}
+		});
+	}
+
+	/**
+	 * Saves the hashes of a player's cache in the current thread
+	 * @param playerName to save
+	 * @param cache to save
+	 */
+	public void saveNow(String playerName, ChunkNetCache cache) {
+		if (cache.isCacheEnabled()) {
+			write(playerName, cache.getPartitionHash().getId(), cache.getHashes());
+		}
+	}
+
+	private void write(String playerName, int hashId, long[] hashes) {
+		directory.mkdirs();
+		File file = getFile(playerName);
+		File temp = new File(directory, file.getName() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 8192));
+			out.writeInt(MAGIC_NUMBER);
+			out.writeInt(VERSION);
+			out.writeInt(hashId);
+			out.writeInt(hashes.length);
+			for (long hash : hashes) {
+				out.writeLong(hash);
+			}
+			out.close();
+			out = null;
+			if (file.exists() && !file.delete()) {
+				throw new IOException("Unable to replace " + file.getName());
+			}
+			if (!temp.renameTo(file)) {
+				throw new IOException("Unable to rename " + temp.getName());
+			}
+		} catch (IOException e) {
+			System.out.println("[Spout] Unable to save chunk cache for " + playerName + ", " + e.getMessage());
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException ignore) {
+				}
+			}
+		}
+	}
+
+	private static void read(File file, ChunkNetCache cache) throws IOException {
+		if (!file.exists()) {
+			return;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 8192));
+		try {
+			if (in.readInt() != MAGIC_NUMBER || in.readInt() != VERSION) {
+				return;
+			}
+			PartitionHash hash = PartitionHash.getHash(in.readInt());
+			if (hash == null) {
+				return;
+			}
+			int count = in.readInt();
+			long[] hashes = new long[count];
+			for (int i = 0; i < count; i++) {
+				hashes[i] = in.readLong();
+			}
+			cache.warmStart(hash, hashes);
+		} finally {
+			in.close();
+		}
+	}
+
+	private File getFile(String playerName) {
+		return new File(directory, playerName.toLowerCase() + ".bin");
+	}
+}
@@ -22,22 +22,33 @@ package org.getspout.spout.netcache;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-
-import com.google.common.collect.Sets;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ChunkNetCache {
-	
-	private final byte[] partition = new byte[2048];
-	private final Set<Long> hashSet;
+	private static final AtomicLong totalPartitionsHit = new AtomicLong(0);
+	private static final AtomicLong totalPartitionsSent = new AtomicLong(0);
+
+	private final ClockLongSet hashSet;
+	private final AtomicLong partitionsHit = new AtomicLong(0);
+	private final AtomicLong partitionsSent = new AtomicLong(0);
 	private volatile boolean cacheEnabled = false;
+	private volatile PartitionHash partitionHash = PartitionHash.LEGACY;
+	private boolean warmStarted = false;
+	private boolean clientConfirmed = false;
+	private boolean clientHashesReceived = false;
+
+	/**
+	 * A setHash payload starting with a long whose upper 48 bits match this value selects the partition hash function.
+	 * The lower 16 bits hold the id of the function. Older clients never send it, and keep using the legacy hash.
+	 */
+	public static final long HASH_SELECT_MAGIC = 0x5350484153480000L;
+	private static final long HASH_SELECT_MASK = 0xFFFFFFFFFFFF0000L;
 	
-	public ChunkNetCache() {
-		this(Sets.newSetFromMap(new ConcurrentHashMap<Long, Boolean>()));
+	public ChunkNetCache(int capacity) {
+		this(new ClockLongSet(capacity));
 	}
 	
-	public ChunkNetCache(Set<Long> hashSet) {
+	public ChunkNetCache(ClockLongSet hashSet) {
 		this.hashSet = hashSet;
 	}
 	
@@ -45,23 +56,124 @@ public class ChunkNetCache {
 		return cacheEnabled;
 	}
 	
-	public void handleCustomPacket(String channel, byte[] array) {
+	/**
+	 * Handles a custom payload sent by the client.
+	 * <p/>
+	 * If the payload asks for a hash function, the client must be sent the result of {@link #getHashSelectPayload()}, so it knows which function is in use.
+	 * A hash function can only be chosen by the first setHash payload, later requests keep the current function.
+	 * A client that does not ask for one in its first payload uses the legacy hash.
+	 * The first setHash payload also replaces any hashes stored by {@link #warmStart(PartitionHash, long[])}, as the client may no longer have them.
+	 * @param channel of the payload
+	 * @param array payload data
+	 * @return true if the client asked for a hash function
+	 */
+	public synchronized boolean handleCustomPacket(String channel, byte[] array) {
+		boolean selectRequested = false;
 		if (channel.equals("ChkCache:setHash")) {
-			cacheEnabled = true;
+			//The first payload is authoritative, even if the cache was already enabled by a warm start
+			boolean firstPayload = !clientHashesReceived;
+			if (firstPayload) {
+				clientHashesReceived = true;
+				if (warmStarted) {
+					//The client may have lost or evicted the stored partitions, and may use another hash function
+					hashSet.clear();
+					partitionHash = PartitionHash.LEGACY;
+				}
+			}
 			if (array != null) {
 				DataInputStream din = new DataInputStream(new ByteArrayInputStream(array));
 				try {
+					boolean first = true;
 					while (true) {
 						long hash = din.readLong();
-						this.hashSet.add(hash);
+						if (first && (hash & HASH_SELECT_MASK) == HASH_SELECT_MAGIC) {
+							selectRequested = true;
+							PartitionHash selected = PartitionHash.getHash((int) (hash & 0xFFFF));
+							if (firstPayload && selected != null) {
+								partitionHash = selected;
+							}
+						} else {
+							this.hashSet.add(hash);
+						}
+						first = false;
 					}
 				} catch (IOException ee) {
 				}
 			}
+			cacheEnabled = true;
+		}
+		return selectRequested;
+	}
+
+	/**
+	 * Gets the payload that tells the client which hash function is in use
+	 * @return hash select payload
+	 */
+	public byte[] getHashSelectPayload() {
+		long value = HASH_SELECT_MAGIC | partitionHash.getId();
+		byte[] payload = new byte[8];
+		PartitionChunk.setHash(payload, 0, value, 0);
+		return payload;
+	}
+
+	public PartitionHash getPartitionHash() {
+		return partitionHash;
+	}
+
+	/**
+	 * Seeds the cache with hashes stored at the end of the player's previous session.
+	 * <p/>
+	 * The cache is enabled once the client is confirmed to be running Spoutcraft, without waiting for its setHash payload.
+	 * If the client has already sent its hashes, the stored hashes are ignored.
+	 * Otherwise they are replaced by the client's hashes once those arrive.
+	 * @param hash function the stored hashes were computed with
+	 * @param hashes stored hashes
+	 */
+	public synchronized void warmStart(PartitionHash hash, long[] hashes) {
+		if (cacheEnabled || clientHashesReceived) {
+			return;
+		}
+		partitionHash = hash;
+		for (long h : hashes) {
+			hashSet.add(h);
+		}
+		warmStarted = true;
+		if (clientConfirmed) {
+			cacheEnabled = true;
 		}
 	}
 
+	/**
+	 * Called once the client is confirmed to be running Spoutcraft
+	 */
+	public synchronized void onSpoutcraftEnable() {
+		clientConfirmed = true;
+		if (warmStarted) {
+			cacheEnabled = true;
+		}
+	}
+
+	/**
+	 * Gets a copy of the partition hashes currently tracked for this connection
+	 * @return tracked hashes
+	 */
+	public long[] getHashes() {
+		return hashSet.toArray();
+	}
+
 	public byte[] handle(byte[] inflatedBuffer) {
+		return handle(inflatedBuffer, new byte[PartitionChunk.PARTITION_SIZE]);
+	}
+
+	/**
+	 * Replaces partitions the client already has with their hashes.
+	 * <p/>
+	 * Calls for one connection must not run concurrently.
+	 * @param inflatedBuffer uncompressed chunk data
+	 * @param partition scratch buffer of PARTITION_SIZE bytes, owned by the caller
+	 * @return cached chunk data
+	 */
+	public byte[] handle(byte[] inflatedBuffer, byte[] partition) {
 		
 		int dataLength = inflatedBuffer.length;
 		int segments = dataLength >> 11;
@@ -72,22 +184,91 @@ public class ChunkNetCache {
 		int newLength = dataLength + (segments << 3) + 8 + 4 + 1;
 		
 		byte[] newBuffer = new byte[newLength];
-		
+
+		PartitionHash partitionHash = this.partitionHash;
+		int hits = 0;
 		for (int i = 0; i < segments; i++) {
 			PartitionChunk.copyFromChunkData(inflatedBuffer, i, partition, inflatedBuffer.length);
-			long hash = PartitionChunk.hash(partition);
+			long hash = partitionHash.hash(partition);
 			if (hashSet.add(hash)) {
 				PartitionChunk.copyToChunkData(newBuffer, i, partition, dataLength);
 			} else {
 				PartitionChunk.setHash(newBuffer, i, hash, dataLength);
+				hits++;
 			}
 		}
-		long crc = PartitionChunk.hash(inflatedBuffer);
+		long crc = partitionHash.hash(inflatedBuffer);
 		PartitionChunk.setHash(newBuffer, 0, crc, newLength - 13);
 		PartitionChunk.setInt(newBuffer, 0, dataLength, newLength - 5);
+
+		partitionsHit.addAndGet(hits);
+		partitionsSent.addAndGet(segments - hits);
+		totalPartitionsHit.addAndGet(hits);
+		totalPartitionsSent.addAndGet(segments - hits);
 		
 		return newBuffer;
 		
 	}
-	
+
+	/**
+	 * Gets the number of partitions that were replaced by a hash, because the client already had them
+	 * @return partitions hit
+	 */
+	public long getPartitionsHit() {
+		return partitionsHit.get();
+	}
+
+	/**
+	 * Gets the number of partitions that were sent in full
+	 * @return partitions sent
+	 */
+	public long getPartitionsSent() {
+		return partitionsSent.get();
+	}
+
+	/**
+	 * Gets an estimate of the number of bytes saved by the cache for this connection
+	 * @return bytes saved
+	 */
+	public long getBytesSaved() {
+		return partitionsHit.get() * (PartitionChunk.PARTITION_SIZE - 8);
+	}
+
+	/**
+	 * Gets the number of partition hashes currently tracked for this connection
+	 * @return tracked hashes
+	 */
+	public int getHashCount() {
+		return hashSet.size();
+	}
+
+	/**
+	 * Gets the approximate memory used to track partition hashes for this connection, in bytes
+	 * @return memory usage
+	 */
+	public long getMemoryUsage() {
+		return hashSet.getMemoryUsage();
+	}
+
+	/**
+	 * Gets the number of hashes dropped because the cache was full.
+	 * <p/>
+	 * Partitions with evicted hashes are sent in full again the next time they are needed.
+	 * @return evictions
+	 */
+	public long getEvictions() {
+		return hashSet.getEvictions();
+	}
+
+	public static long getTotalPartitionsHit() {
+		return totalPartitionsHit.get();
+	}
+
+	public static long getTotalPartitionsSent() {
+		return totalPartitionsSent.get();
+	}
+
+	public static long getTotalBytesSaved() {
+		return totalPartitionsHit.get() * (PartitionChunk.PARTITION_SIZE - 8);
+	}
 }
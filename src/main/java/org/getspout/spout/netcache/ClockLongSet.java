@@ -0,0 +1,211 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spout.netcache;
+
+/**
+ * A set of primitive longs with a fixed maximum size.
+ * <p/>
+ * Values are kept in an open addressing table that grows as needed, up to the capacity.
+ * Once full, older values are evicted using the clock algorithm, values that were looked up since the last sweep are kept.
+ * <p/>
+ * All methods are thread safe.
+ */
+public class ClockLongSet {
+	private static final int MIN_TABLE_SIZE = 1024;
+
+	private final int capacity;
+	private final int maxTableSize;
+	private long[] keys;
+	private byte[] state;
+	private int mask;
+	private int size = 0;
+	private int hand = 0;
+	private long evictions = 0;
+
+	private static final byte EMPTY = 0;
+	private static final byte USED = 1;
+	private static final byte REFERENCED = 2;
+
+	public ClockLongSet(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive");
+		}
+		this.capacity = capacity;
+		this.maxTableSize = tableSizeFor(capacity);
+		allocate(Math.min(MIN_TABLE_SIZE, maxTableSize));
+	}
+
+	/**
+	 * Adds a value to the set, evicting an older value if the set is full.
+	 * <p/>
+	 * If the value is already present it is marked as recently used.
+	 * @param value to add
+	 * @return true if the value was not already present
+	 */
+	public synchronized boolean add(long value) {
+		int slot = find(value);
+		if (state[slot] != EMPTY) {
+			state[slot] = REFERENCED;
+			return false;
+		}
+		if (size >= capacity) {
+			evict();
+			slot = find(value);
+		} else if (size + 1 > (keys.length >> 2) * 3 && keys.length < maxTableSize) {
+			allocate(keys.length << 1);
+			slot = find(value);
+		}
+		keys[slot] = value;
+		state[slot] = USED;
+		size++;
+		return true;
+	}
+
+	public synchronized boolean contains(long value) {
+		return state[find(value)] != EMPTY;
+	}
+
+	public synchronized boolean remove(long value) {
+		int slot = find(value);
+		if (state[slot] == EMPTY) {
+			return false;
+		}
+		removeAt(slot);
+		return true;
+	}
+
+	public synchronized void clear() {
+		allocate(Math.min(MIN_TABLE_SIZE, maxTableSize));
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Gets the number of values that have been evicted to make space for new ones
+	 * @return evictions
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Gets the approximate number of bytes used by the table
+	 * @return memory usage
+	 */
+	public synchronized long getMemoryUsage() {
+		return keys.length * 9L;
+	}
+
+	/**
+	 * Copies the values in the set into a new array
+	 * @return values
+	 */
+	public synchronized long[] toArray() {
+		long[] values = new long[size];
+		int j = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (state[i] != EMPTY) {
+				values[j++] = keys[i];
+			}
+		}
+		return values;
+	}
+
+	private int find(long value) {
+		int slot = slot(value);
+		while (state[slot] != EMPTY && keys[slot] != value) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private int slot(long value) {
+		long h = value * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	private void evict() {
+		while (true) {
+			hand = (hand + 1) & mask;
+			if (state[hand] == REFERENCED) {
+				state[hand] = USED;
+			} else if (state[hand] == USED) {
+				removeAt(hand);
+				evictions++;
+				return;
+			}
+		}
+	}
+
+	private void removeAt(int i) {
+		int j = i;
+		while (true) {
+			state[i] = EMPTY;
+			int k;
+			do {
+				j = (j + 1) & mask;
+				if (state[j] == EMPTY) {
+					size--;
+					return;
+				}
+				k = slot(keys[j]);
+				//Entries whose home slot lies cyclically within (i, j] can stay where they are
+			} while (i <= j ? (i < k && k <= j) : (i < k || k <= j));
+			keys[i] = keys[j];
+			state[i] = state[j];
+			i = j;
+		}
+	}
+
+	private void allocate(int tableSize) {
+		long[] oldKeys = keys;
+		byte[] oldState = state;
+		keys = new long[tableSize];
+		state = new byte[tableSize];
+		mask = tableSize - 1;
+		size = 0;
+		hand = 0;
+		if (oldKeys != null && tableSize > oldKeys.length) {
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldState[i] != EMPTY) {
+					int slot = find(oldKeys[i]);
+					keys[slot] = oldKeys[i];
+					state[slot] = oldState[i];
+					size++;
+				}
+			}
+		}
+	}
+
+	private static int tableSizeFor(int capacity) {
+		long required = ((long) capacity * 4) / 3 + 1;
+		int size = MIN_TABLE_SIZE;
+		while (size < required && size < (1 << 30)) {
+			size <<= 1;
+		}
+		return size;
+	}
+}
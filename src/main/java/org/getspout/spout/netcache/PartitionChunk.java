@@ -19,38 +19,35 @@
  */
 package org.getspout.spout.netcache;
 
+import java.util.Arrays;
+
 public class PartitionChunk {
-	
+	public static final int PARTITION_SIZE = 2048;
+
 	static public void copyToChunkData(byte[] chunkData, int blockNum, byte[] partition, int dataLength) {
-		
 		int j = blockNum << 11;
-		
-		boolean clear = partition == null;
-		
-		if (clear) {
-			for (int i = 0; i < 2048 && j < dataLength; i++) {
-				chunkData[j++] = 0;
-			}
+		int length = Math.min(PARTITION_SIZE, dataLength - j);
+		if (length <= 0) {
+			return;
+		}
+
+		if (partition == null) {
+			Arrays.fill(chunkData, j, j + length, (byte) 0);
 		} else {
-			for (int i = 0; i < 2048 && j < dataLength; i++) {
-				chunkData[j++] = partition[i];
-			}
+			System.arraycopy(partition, 0, chunkData, j, length);
 		}
 	}
 
 	static public void copyFromChunkData(byte[] chunkData, int blockNum, byte[] partition, int dataLength) {
-
 		int j = blockNum << 11;
+		int length = Math.max(0, Math.min(PARTITION_SIZE, dataLength - j));
 
-		int i = 0;
-		for (i = 0; i < 2048 && j < dataLength; i++) {
-			partition[i] = chunkData[j++];
-		}
-		for (; i < 2048; i++) {
-			partition[i] = 0;
+		System.arraycopy(chunkData, j, partition, 0, length);
+		if (length < PARTITION_SIZE) {
+			Arrays.fill(partition, length, PARTITION_SIZE, (byte) 0);
 		}
 	}
-	
+
 	static public long getHash(byte[] chunkData, int blockNum, int base) {
 		int p = blockNum * 8 + base;
 		long hash = 0;
@@ -100,11 +97,6 @@ public class PartitionChunk {
 	}
 	
 	public static long hash(final byte[] a, final int off, final int len) {
-		long h = 1;
-		int end = off + len;
-		for (int i = off; i < end; i++) {
-			h += (h << 5) + (long) a[i];
-		}
-		return h;
+		return PartitionHash.LEGACY.hash(a, off, len);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,172 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spout.netcache;
+
+/**
+ * Hash function used to identify chunk partitions in the network cache.
+ * <p/>
+ * The client and server must use the same function, so a function other than {@link #LEGACY} is only used once the client has asked for it.
+ */
+public abstract class PartitionHash {
+	/**
+	 * The original hash, supported by every client
+	 */
+	public static final PartitionHash LEGACY = new LegacyHash();
+	/**
+	 * 64 bit xxHash, reads 8 bytes at a time
+	 */
+	public static final PartitionHash XXHASH64 = new XXHash64();
+
+	private static final PartitionHash[] lookup = {LEGACY, XXHASH64};
+
+	private final int id;
+
+	protected PartitionHash(int id) {
+		this.id = id;
+	}
+
+	/**
+	 * Gets the id used to negotiate this function with the client
+	 * @return id
+	 */
+	public int getId() {
+		return id;
+	}
+
+	public long hash(byte[] a) {
+		return hash(a, 0, a.length);
+	}
+
+	public abstract long hash(byte[] a, int off, int len);
+
+	/**
+	 * Gets the hash function with the given id
+	 * @param id of the function
+	 * @return hash function, or null if the id is unknown
+	 */
+	public static PartitionHash getHash(int id) {
+		if (id < 0 || id >= lookup.length) {
+			return null;
+		}
+		return lookup[id];
+	}
+
+	private static class LegacyHash extends PartitionHash {
+		LegacyHash() {
+			super(0);
+		}
+
+		@Override
+		public long hash(byte[] a, int off, int len) {
+			long h = 1;
+			int end = off + len;
+			for (int i = off; i < end; i++) {
+				h += (h << 5) + (long) a[i];
+			}
+			return h;
+		}
+	}
+
+	private static class XXHash64 extends PartitionHash {
+		private static final long PRIME1 = 0x9E3779B185EBCA87L;
+		private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+		private static final long PRIME3 = 0x165667B19E3779F9L;
+		private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+		private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+		XXHash64() {
+			super(1);
+		}
+
+		@Override
+		public long hash(byte[] a, int off, int len) {
+			int end = off + len;
+			int p = off;
+			long h;
+
+			if (len >= 32) {
+				long v1 = PRIME1 + PRIME2;
+				long v2 = PRIME2;
+				long v3 = 0;
+				long v4 = -PRIME1;
+				int limit = end - 32;
+				do {
+					v1 = round(v1, getLong(a, p));
+					v2 = round(v2, getLong(a, p + 8));
+					v3 = round(v3, getLong(a, p + 16));
+					v4 = round(v4, getLong(a, p + 24));
+					p += 32;
+				} while (p <= limit);
+				h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+				h = mergeRound(h, v1);
+				h = mergeRound(h, v2);
+				h = mergeRound(h, v3);
+				h = mergeRound(h, v4);
+			} else {
+				h = PRIME5;
+			}
+
+			h += len;
+
+			while (p + 8 <= end) {
+				h ^= round(0, getLong(a, p));
+				h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+				p += 8;
+			}
+			if (p + 4 <= end) {
+				h ^= (getInt(a, p) & 0xFFFFFFFFL) * PRIME1;
+				h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+				p += 4;
+			}
+			while (p < end) {
+				h ^= (a[p] & 0xFFL) * PRIME5;
+				h = Long.rotateLeft(h, 11) * PRIME1;
+				p++;
+			}
+
+			h ^= h >>> 33;
+			h *= PRIME2;
+			h ^= h >>> 29;
+			h *= PRIME3;
+			h ^= h >>> 32;
+			return h;
+		}
+
+		private static long round(long acc, long input) {
+			acc += input * PRIME2;
+			acc = Long.rotateLeft(acc, 31);
+			return acc * PRIME1;
+		}
+
+		private static long mergeRound(long acc, long val) {
+			acc ^= round(0, val);
+			return acc * PRIME1 + PRIME4;
+		}
+
+		private static long getLong(byte[] a, int p) {
+			return (a[p] & 0xFFL) | (a[p + 1] & 0xFFL) << 8 | (a[p + 2] & 0xFFL) << 16 | (a[p + 3] & 0xFFL) << 24
+					| (a[p + 4] & 0xFFL) << 32 | (a[p + 5] & 0xFFL) << 40 | (a[p + 6] & 0xFFL) << 48 | (a[p + 7] & 0xFFL) << 56;
+		}
+
+		private static int getInt(byte[] a, int p) {
+			return (a[p] & 0xFF) | (a[p + 1] & 0xFF) << 8 | (a[p + 2] & 0xFF) << 16 | (a[p + 3] & 0xFF) << 24;
+		}
+	}
+}
@@ -40,6 +40,7 @@ import org.getspout.spoutapi.player.SpoutPlayer;
 
 public class CustomPacket extends Packet {
 	public SpoutPacket packet;
+	private byte[] payload = null;
 	private boolean success = false;
 	private static final int[] nags;
 	private static final int NAG_MSG_AMT = 0;
@@ -59,8 +60,23 @@ public class CustomPacket extends Packet {
 		this.packet = packet;
 	}
 
+	/**
+	 * Creates a packet with already serialized contents.
+	 * <p/>
+	 * The payload is written as is, so the same instance can safely be queued for many players.
+	 * @param packet that was serialized
+	 * @param payload serialized data of the packet
+	 */
+	public CustomPacket(SpoutPacket packet, byte[] payload) {
+		this.packet = packet;
+		this.payload = payload;
+	}
+
 	@Override
 	public int a() {
+		if (payload != null) {
+			return payload.length + 8;
+		}
 		return 8;
 	}
 
@@ -108,7 +124,6 @@ public class CustomPacket extends Packet {
 		}
 	}
 
-	SpoutOutputStream stream = new SpoutOutputStream();
 	@Override
 	public void a(DataOutputStream output) throws IOException {
 		if (packet == null) {
@@ -121,14 +136,38 @@ public class CustomPacket extends Packet {
 		output.writeShort(packet.getPacketType().getId());
 		output.writeShort(packet.getVersion());
 
-		stream.getRawBuffer().clear();
-		packet.writeData(stream);
-		ByteBuffer buffer = stream.getRawBuffer();
-		byte[] data = new byte[buffer.capacity() - buffer.remaining()];
-		System.arraycopy(buffer.array(), 0, data, 0, data.length);
+		if (payload != null) {
+			output.writeInt(payload.length);
+			output.write(payload, 0, payload.length);
+			return;
+		}
+
+		//Serialize into a pooled buffer, leaving space for the length, so the data is only copied once, into the network stream
+		SpoutOutputStream stream = new SpoutOutputStream();
+		try {
+			int lengthPosition = stream.reserveInt();
+			packet.writeData(stream);
+			stream.setInt(lengthPosition, stream.getPosition() - 4);
+			stream.writeTo(output);
+		} finally {
+			stream.release();
+		}
+	}
 
-		output.writeInt(data.length);
-		output.write(data, 0, data.length);
+	/**
+	 * Serializes the packet contents, without the packet header
+	 * @param packet to serialize
+	 * @return serialized data
+	 * @throws IOException
+	 */
+	public static byte[] serialize(SpoutPacket packet) throws IOException {
+		SpoutOutputStream stream = new SpoutOutputStream();
+		try {
+			packet.writeData(stream);
+			return stream.toByteArray();
+		} finally {
+			stream.release();
+		}
 	}
 
 	@Override
@@ -0,0 +1,86 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spout.packet;
+
+import net.minecraft.server.Packet;
+import net.minecraft.server.Packet0KeepAlive;
+import net.minecraft.server.Packet51MapChunk;
+
+import org.getspout.spoutapi.packet.PacketCacheFile;
+import org.getspout.spoutapi.packet.PacketPreCacheCompleted;
+import org.getspout.spoutapi.packet.SpoutPacket;
+
+/**
+ * The classes outbound packets are scheduled in.
+ * <p/>
+ * Each class has its own queue, and is drained in proportion to its weight.
+ * Packets in different classes can overtake each other, except that packets referring to the same chunk are always sent in the order they were queued,
+ * see {@link PacketScheduler}. Chunks are bulk packets, so a burst of chunks does not hold back movement and chat.
+ */
+public enum PacketPriority {
+	/**
+	 * Keep alive packets, and packets sent with {@link org.getspout.spout.SpoutNetServerHandler#sendImmediatePacket(Packet)}
+	 */
+	REALTIME(8),
+	/**
+	 * All other packets, in the order they were queued
+	 */
+	NORMAL(4),
+	/**
+	 * Map chunks, and cached file transfers which the client asked for
+	 */
+	BULK(1);
+
+	private final int weight;
+
+	private PacketPriority(int weight) {
+		this.weight = weight;
+	}
+
+	/**
+	 * Gets the number of packets this class may send each time its turn comes up
+	 * @return weight
+	 */
+	public int getWeight() {
+		return weight;
+	}
+
+	/**
+	 * Gets the class a packet is scheduled in
+	 * @param packet to classify
+	 * @return priority of the packet
+	 */
+	public static PacketPriority getPriority(Packet packet) {
+		if (packet instanceof Packet0KeepAlive) {
+			return REALTIME;
+		}
+		if (packet instanceof Packet51MapChunk) {
+			return BULK;
+		}
+		if (packet instanceof CustomPacket) {
+			SpoutPacket spoutPacket = ((CustomPacket) packet).packet;
+			//The completed packet follows the files, so it stays in the same class
+			if (spoutPacket instanceof PacketCacheFile || spoutPacket instanceof PacketPreCacheCompleted) {
+				return BULK;
+			}
+		}
+		return NORMAL;
+	}
+}
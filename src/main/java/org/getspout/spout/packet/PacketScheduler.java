@@ -0,0 +1,338 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spout.packet;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import net.minecraft.server.Packet;
+import net.minecraft.server.Packet130UpdateSign;
+import net.minecraft.server.Packet132TileEntityData;
+import net.minecraft.server.Packet20NamedEntitySpawn;
+import net.minecraft.server.Packet21PickupSpawn;
+import net.minecraft.server.Packet23VehicleSpawn;
+import net.minecraft.server.Packet24MobSpawn;
+import net.minecraft.server.Packet25EntityPainting;
+import net.minecraft.server.Packet26AddExpOrb;
+import net.minecraft.server.Packet51MapChunk;
+import net.minecraft.server.Packet52MultiBlockChange;
+import net.minecraft.server.Packet53BlockChange;
+import net.minecraft.server.Packet54PlayNoteBlock;
+
+import org.getspout.spout.config.ConfigReader;
+
+/**
+ * Schedules the outbound packets of one connection.
+ * <p/>
+ * Packets are queued by {@link PacketPriority} from any thread. Each tick the main thread drains the queues in weighted round robin order,
+ * until every queue is empty or has used up its byte budget for the tick. Packets left over are sent on later ticks, in order.
+ * <p/>
+ * Map chunks are bulk packets, while block changes and entity spawns are normal packets. A packet that refers to a chunk is held
+ * until every packet for the same chunk queued before it in the other class has been sent, so a block change or entity never reaches
+ * the client ahead of its chunk, and a chunk never overwrites a later change. A held packet holds back the rest of its class.
+ */
+public class PacketScheduler {
+	private static final PacketPriority[] priorities = PacketPriority.values();
+	private static final int NORMAL = PacketPriority.NORMAL.ordinal();
+	private static final int BULK = PacketPriority.BULK.ordinal();
+	private static final long NO_CHUNK = Long.MIN_VALUE;
+	private static final AtomicLong[] totalPacketsSent = new AtomicLong[priorities.length];
+	private static final AtomicLong[] totalBytesSent = new AtomicLong[priorities.length];
+	private static final AtomicLong[] totalDeferredTicks = new AtomicLong[priorities.length];
+
+	static {
+		for (int i = 0; i < priorities.length; i++) {
+			totalPacketsSent[i] = new AtomicLong(0);
+			totalBytesSent[i] = new AtomicLong(0);
+			totalDeferredTicks[i] = new AtomicLong(0);
+		}
+	}
+
+	private final ClassQueue[] queues = new ClassQueue[priorities.length];
+	private int current = 0;
+	private int credit = 0;
+	private int lastTick = -1;
+	//Queued packets that refer to a chunk, by chunk. Guarded by itself
+	private final TLongObjectHashMap<ChunkOrder> chunkOrder = new TLongObjectHashMap<ChunkOrder>();
+	private long sequence = 0;
+
+	public PacketScheduler() {
+		for (int i = 0; i < priorities.length; i++) {
+			queues[i] = new ClassQueue(ConfigReader.getPacketBudget(priorities[i]));
+		}
+	}
+
+	/**
+	 * Queues a packet behind all other packets of the same class
+	 * @param packet to queue
+	 */
+	public void add(Packet packet) {
+		int index = PacketPriority.getPriority(packet).ordinal();
+		long chunk = index == NORMAL || index == BULK ? getChunk(packet) : NO_CHUNK;
+		if (chunk == NO_CHUNK) {
+			queues[index].add(packet, false);
+			return;
+		}
+		synchronized (chunkOrder) {
+			ChunkOrder order = chunkOrder.get(chunk);
+			if (order == null) {
+				order = new ChunkOrder();
+				chunkOrder.put(chunk, order);
+			}
+			order.getQueued(index).addLast(sequence++);
+			queues[index].add(packet, false);
+		}
+	}
+
+	/**
+	 * Queues a realtime packet ahead of all other packets
+	 * @param packet to queue
+	 */
+	public void addFirst(Packet packet) {
+		queues[PacketPriority.REALTIME.ordinal()].add(packet, true);
+	}
+
+	public boolean isEmpty() {
+		for (ClassQueue queue : queues) {
+			if (!queue.packets.isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Starts a new tick, resetting the byte budgets of all classes.
+	 * <p/>
+	 * The queues may be flushed more than once per tick, the budgets are only reset the first time.
+	 * Called from the main thread only
+	 * @param tick current server tick
+	 */
+	public void startTick(int tick) {
+		if (tick == lastTick) {
+			return;
+		}
+		lastTick = tick;
+		for (int i = 0; i < queues.length; i++) {
+			if (queues[i].deferred) {
+				queues[i].deferredTicks.incrementAndGet();
+				totalDeferredTicks[i].incrementAndGet();
+			}
+			queues[i].bytesThisTick = 0;
+			queues[i].deferred = false;
+		}
+		current = 0;
+		credit = priorities[0].getWeight();
+	}
+
+	/**
+	 * Gets the next packet to send.
+	 * <p/>
+	 * Called from the main thread only
+	 * @param budgeted false to ignore the byte budgets, when the connection is being flushed
+	 * @return next packet, or null if nothing more can be sent this tick
+	 */
+	public Packet poll(boolean budgeted) {
+		for (int scanned = 0; scanned <= queues.length; scanned++) {
+			ClassQueue queue = queues[current];
+			if (credit > 0 && !queue.packets.isEmpty()) {
+				if (budgeted && queue.isExhausted()) {
+					queue.deferred = true;
+				} else {
+					Packet packet = pollFirst(current);
+					if (packet != null) {
+						credit--;
+						queue.sent(packet, current);
+						return packet;
+					}
+				}
+			}
+			current = (current + 1) % queues.length;
+			credit = priorities[current].getWeight();
+		}
+		return null;
+	}
+
+	/**
+	 * Takes the first packet of a class, unless it has to wait for a packet in the other class
+	 * @param index of the class
+	 * @return packet, or null if the class is empty or its first packet is held
+	 */
+	private Packet pollFirst(int index) {
+		LinkedBlockingDeque<Packet> packets = queues[index].packets;
+		Packet head = packets.peekFirst();
+		if (head == null) {
+			return null;
+		}
+		long chunk = index == NORMAL || index == BULK ? getChunk(head) : NO_CHUNK;
+		if (chunk == NO_CHUNK) {
+			return packets.pollFirst();
+		}
+		synchronized (chunkOrder) {
+			ChunkOrder order = chunkOrder.get(chunk);
+			ArrayDeque<Long> queued = order.getQueued(index);
+			Long other = order.getQueued(index == NORMAL ? BULK : NORMAL).peekFirst();
+			if (other != null && other < queued.peekFirst()) {
+				return null;
+			}
+			queued.pollFirst();
+			if (order.normal.isEmpty() && order.bulk.isEmpty()) {
+				chunkOrder.remove(chunk);
+			}
+			return packets.pollFirst();
+		}
+	}
+
+	/**
+	 * Gets the chunk a packet refers to, for packets that must stay in order with that chunk's map chunk packets
+	 * @param packet to check
+	 * @return chunk key, or NO_CHUNK
+	 */
+	private static long getChunk(Packet packet) {
+		if (packet instanceof Packet51MapChunk) {
+			return key(((Packet51MapChunk) packet).a, ((Packet51MapChunk) packet).b);
+		} else if (packet instanceof Packet53BlockChange) {
+			return key(((Packet53BlockChange) packet).a >> 4, ((Packet53BlockChange) packet).c >> 4);
+		} else if (packet instanceof Packet52MultiBlockChange) {
+			return key(((Packet52MultiBlockChange) packet).a, ((Packet52MultiBlockChange) packet).b);
+		} else if (packet instanceof Packet130UpdateSign) {
+			return key(((Packet130UpdateSign) packet).x >> 4, ((Packet130UpdateSign) packet).z >> 4);
+		} else if (packet instanceof Packet132TileEntityData) {
+			return key(((Packet132TileEntityData) packet).a >> 4, ((Packet132TileEntityData) packet).c >> 4);
+		} else if (packet instanceof Packet54PlayNoteBlock) {
+			return key(((Packet54PlayNoteBlock) packet).a >> 4, ((Packet54PlayNoteBlock) packet).c >> 4);
+		} else if (packet instanceof Packet20NamedEntitySpawn) {
+			//Entity positions are in 1/32 blocks
+			return key(((Packet20NamedEntitySpawn) packet).c >> 9, ((Packet20NamedEntitySpawn) packet).e >> 9);
+		} else if (packet instanceof Packet24MobSpawn) {
+			return key(((Packet24MobSpawn) packet).c >> 9, ((Packet24MobSpawn) packet).e >> 9);
+		} else if (packet instanceof Packet23VehicleSpawn) {
+			return key(((Packet23VehicleSpawn) packet).b >> 9, ((Packet23VehicleSpawn) packet).d >> 9);
+		} else if (packet instanceof Packet21PickupSpawn) {
+			return key(((Packet21PickupSpawn) packet).b >> 9, ((Packet21PickupSpawn) packet).d >> 9);
+		} else if (packet instanceof Packet26AddExpOrb) {
+			return key(((Packet26AddExpOrb) packet).b >> 9, ((Packet26AddExpOrb) packet).d >> 9);
+		} else if (packet instanceof Packet25EntityPainting) {
+			return key(((Packet25EntityPainting) packet).b >> 4, ((Packet25EntityPainting) packet).d >> 4);
+		}
+		return NO_CHUNK;
+	}
+
+	private static long key(int x, int z) {
+		return (((long) x) << 32) | (((long) z) & 0xFFFFFFFFL);
+	}
+
+	public int getQueuedPackets(PacketPriority priority) {
+		return queues[priority.ordinal()].packets.size();
+	}
+
+	public long getPacketsQueued(PacketPriority priority) {
+		return queues[priority.ordinal()].packetsQueued.get();
+	}
+
+	public long getPacketsSent(PacketPriority priority) {
+		return queues[priority.ordinal()].packetsSent.get();
+	}
+
+	public long getBytesSent(PacketPriority priority) {
+		return queues[priority.ordinal()].bytesSent.get();
+	}
+
+	/**
+	 * Gets the number of ticks that ended with packets of this class still waiting, because its budget was used up
+	 * @param priority class
+	 * @return deferred ticks
+	 */
+	public long getDeferredTicks(PacketPriority priority) {
+		return queues[priority.ordinal()].deferredTicks.get();
+	}
+
+	public static long getTotalPacketsSent(PacketPriority priority) {
+		return totalPacketsSent[priority.ordinal()].get();
+	}
+
+	public static long getTotalBytesSent(PacketPriority priority) {
+		return totalBytesSent[priority.ordinal()].get();
+	}
+
+	public static long getTotalDeferredTicks(PacketPriority priority) {
+		return totalDeferredTicks[priority.ordinal()].get();
+	}
+
+	/**
+	 * Sequence numbers of the queued packets that refer to one chunk, for each class
+	 */
+	private static class ChunkOrder {
+		private final ArrayDeque<Long> normal = new ArrayDeque<Long>(2);
+		private final ArrayDeque<Long> bulk = new ArrayDeque<Long>(2);
+
+		ArrayDeque<Long> getQueued(int index) {
+			return index == NORMAL ? normal : bulk;
+		}
+	}
+
+	private static class ClassQueue {
+		private final LinkedBlockingDeque<Packet> packets = new LinkedBlockingDeque<Packet>();
+		private final int budget;
+		private final AtomicLong packetsQueued = new AtomicLong(0);
+		private final AtomicLong packetsSent = new AtomicLong(0);
+		private final AtomicLong bytesSent = new AtomicLong(0);
+		private final AtomicLong deferredTicks = new AtomicLong(0);
+		private int bytesThisTick = 0;
+		private boolean deferred = false;
+
+		ClassQueue(int budget) {
+			this.budget = budget;
+		}
+
+		void add(Packet packet, boolean first) {
+			if (first) {
+				packets.addFirst(packet);
+			} else {
+				packets.addLast(packet);
+			}
+			packetsQueued.incrementAndGet();
+		}
+
+		/**
+		 * A packet is always sent if the budget is not used up yet, so a packet larger than the budget is never stuck
+		 */
+		boolean isExhausted() {
+			return budget > 0 && bytesThisTick >= budget;
+		}
+
+		void sent(Packet packet, int index) {
+			int size;
+			try {
+				size = packet.a() + 1;
+			} catch (Exception e) {
+				size = 1;
+			}
+			bytesThisTick += size;
+			packetsSent.incrementAndGet();
+			bytesSent.addAndGet(size);
+			totalPacketsSent[index].incrementAndGet();
+			totalBytesSent[index].addAndGet(size);
+		}
+	}
+}
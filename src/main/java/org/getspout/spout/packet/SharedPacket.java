@@ -0,0 +1,80 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spout.packet;
+
+import java.io.IOException;
+
+import org.getspout.spoutapi.packet.CompressiblePacket;
+import org.getspout.spoutapi.packet.SpoutPacket;
+
+/**
+ * Wraps a packet that is sent to more than one player.
+ * <p/>
+ * The packet is compressed and serialized the first time it is needed, and the resulting CustomPacket is shared between all recipients.
+ * The wrapped packet must not be modified once it has been shared.
+ */
+public class SharedPacket {
+	private final SpoutPacket packet;
+	private volatile CustomPacket wirePacket = null;
+
+	public SharedPacket(SpoutPacket packet) {
+		this.packet = packet;
+	}
+
+	public SpoutPacket getPacket() {
+		return packet;
+	}
+
+	/**
+	 * True if the packet still has to be compressed before it can be sent
+	 * @return needs compression
+	 */
+	@SuppressWarnings("deprecation")
+	public boolean needsCompression() {
+		return wirePacket == null && packet instanceof CompressiblePacket && !((CompressiblePacket) packet).isCompressed();
+	}
+
+	/**
+	 * Gets the serialized packet, compressing and serializing the wrapped packet if this has not been done yet
+	 * @return wire packet
+	 */
+	@SuppressWarnings("deprecation")
+	public CustomPacket getWirePacket() {
+		CustomPacket wire = wirePacket;
+		if (wire == null) {
+			//Lock on the packet, the same instance may be shared by several wrappers
+			synchronized (packet) {
+				wire = wirePacket;
+				if (wire == null) {
+					if (packet instanceof CompressiblePacket) {
+						((CompressiblePacket) packet).compress();
+					}
+					try {
+						wire = new CustomPacket(packet, CustomPacket.serialize(packet));
+					} catch (IOException e) {
+						throw new RuntimeException("Unable to serialize packet " + packet.getPacketType(), e);
+					}
+					wirePacket = wire;
+				}
+			}
+		}
+		return wire;
+	}
+}
@@ -19,11 +19,19 @@
  */
 package org.getspout.spout.packet;
 
+import java.util.Collection;
+
+import org.bukkit.entity.Player;
+
 import org.getspout.spout.packet.listener.PacketListeners;
 import org.getspout.spout.packet.standard.MCCraftPacket;
+import org.getspout.spout.player.SpoutCraftPlayer;
+import org.getspout.spoutapi.SpoutManager;
 import org.getspout.spoutapi.packet.PacketManager;
+import org.getspout.spoutapi.packet.SpoutPacket;
 import org.getspout.spoutapi.packet.listener.PacketListener;
 import org.getspout.spoutapi.packet.standard.MCPacket;
+import org.getspout.spoutapi.player.SpoutPlayer;
 
 public class SimplePacketManager implements PacketManager {
 	public void addListener(int packetId, PacketListener listener) {
@@ -49,4 +57,17 @@ public class SimplePacketManager implements PacketManager {
 	public void clearAllListeners() {
 		PacketListeners.clearAllListeners();
 	}
+
+	public void sendPacket(SpoutPacket packet, Collection<? extends Player> players) {
+		sendPacket(new SharedPacket(packet), players);
+	}
+
+	public void sendPacket(SharedPacket packet, Collection<? extends Player> players) {
+		for (Player player : players) {
+			SpoutPlayer spoutPlayer = SpoutManager.getPlayer(player);
+			if (spoutPlayer instanceof SpoutCraftPlayer) {
+				((SpoutCraftPlayer) spoutPlayer).sendPacket(packet);
+			}
+		}
+	}
 }
@@ -100,6 +100,17 @@ public class SimpleFileManager implements FileManager {
 		}
 	}
 
+	private static List<SpoutPlayer> getSpoutcraftPlayers() {
+		SpoutPlayer[] online = SpoutManager.getOnlinePlayers();
+		List<SpoutPlayer> players = new ArrayList<SpoutPlayer>(online.length);
+		for (SpoutPlayer player : online) {
+			if (player.isSpoutCraftEnabled()) {
+				players.add(player);
+			}
+		}
+		return players;
+	}
+
 	private class URLCheckJoin extends Thread {
 		private final List<Thread> threads;
 		private final SpoutPlayer player;
@@ -271,11 +282,7 @@ public class SimpleFileManager implements FileManager {
 				e.printStackTrace();
 			}
 			if (crc !=-1) {
-				for (SpoutPlayer player : SpoutManager.getOnlinePlayers()) {
-					if (player.isSpoutCraftEnabled()) {
-						player.sendPacket(new PacketPreCacheFile(plugin.getDescription().getName(), file.getPath(), crc, false));
-					}
-				}
+				SpoutManager.getPacketManager().sendPacket(new PacketPreCacheFile(plugin.getDescription().getName(), file.getPath(), crc, false), getSpoutcraftPlayers());
 			}
 			return true;
 		}
@@ -296,11 +303,7 @@ public class SimpleFileManager implements FileManager {
 				}
 
 				public void run() {
-					for (SpoutPlayer player : SpoutManager.getOnlinePlayers()) {
-						if (player.isSpoutCraftEnabled()) {
-							player.sendPacket(new PacketPreCacheFile(plugin.getDescription().getName(), fileUrl, CRC, true));
-						}
-					}
+					SpoutManager.getPacketManager().sendPacket(new PacketPreCacheFile(plugin.getDescription().getName(), fileUrl, CRC, true), getSpoutcraftPlayers());
 				}
 			});
 			urlCheck.start();
@@ -73,6 +73,7 @@ import org.getspout.spout.config.Waypoint;
 import org.getspout.spout.inventory.SpoutCraftInventoryPlayer;
 import org.getspout.spout.inventory.SpoutCraftingInventory;
 import org.getspout.spout.packet.CustomPacket;
+import org.getspout.spout.packet.SharedPacket;
 import org.getspout.spout.packet.standard.MCCraftPacket;
 import org.getspout.spoutapi.SpoutManager;
 import org.getspout.spoutapi.event.permission.PlayerPermissionEvent;
@@ -838,6 +839,22 @@ public class SpoutCraftPlayer extends CraftPlayer implements SpoutPlayer {
 		}
 	}
 
+	/**
+	 * Sends a packet whose serialized form is shared with other players
+	 * @param packet to send
+	 */
+	public void sendPacket(SharedPacket packet) {
+		if (!isSpoutCraftEnabled()) {
+			if (queued != null) {
+				queued.add(packet.getPacket());
+			}
+		} else if (packet.needsCompression()) {
+			PacketCompressionThread.add(packet, this);
+		} else {
+			getNetServerHandler().sendPacket(packet.getWirePacket());
+		}
+	}
+
 	@Override
 	public void sendPacket(MCPacket packet) {
 		if (!(packet instanceof MCCraftPacket)) {
@@ -1199,9 +1216,6 @@ public class SpoutCraftPlayer extends CraftPlayer implements SpoutPlayer {
 			prevMode = getGameMode();
 			mainScreen.toggleSurvivalHUD(!getGameMode().equals(GameMode.CREATIVE));
 		}
-
-		//Do this last!
-		getNetServerHandler().syncFlushPacketQueue();
 	}
 
 	public void doPostPlayerChangeWorld() {
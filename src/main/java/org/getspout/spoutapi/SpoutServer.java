@@ -21,6 +21,8 @@ package org.getspout.spoutapi;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -59,6 +61,7 @@ import org.bukkit.plugin.ServicesManager;
 import org.bukkit.plugin.messaging.Messenger;
 import org.bukkit.scheduler.BukkitScheduler;
 
+import org.getspout.spoutapi.packet.SpoutPacket;
 import org.getspout.spoutapi.player.EntitySkinType;
 import org.getspout.spoutapi.player.SpoutPlayer;
 
@@ -147,6 +150,27 @@ public class SpoutServer implements Server {
 		}
 	}
 
+	/**
+	 * Sends a packet to every online player.
+	 * <p/>
+	 * The packet is compressed and serialized once for all players, and must not be modified afterwards.
+	 * @param packet to send
+	 */
+	public void broadcastPacket(SpoutPacket packet) {
+		broadcastPacket(packet, Arrays.asList(getOnlinePlayers()));
+	}
+
+	/**
+	 * Sends a packet to the given players.
+	 * <p/>
+	 * The packet is compressed and serialized once for all players, and must not be modified afterwards.
+	 * @param packet to send
+	 * @param players to send the packet to
+	 */
+	public void broadcastPacket(SpoutPacket packet, Collection<? extends Player> players) {
+		SpoutManager.getPacketManager().sendPacket(packet, players);
+	}
+
 	@Override
 	public boolean addRecipe(Recipe recipe) {
 		return server.addRecipe(recipe);
@@ -134,5 +134,67 @@ public interface ChunkDataManager {
 
 	public void setCustomBlockData(World world, int x, int z, byte[] rots);
 
+	/**
+	 * Gets a copy of the custom block ids for the chunk at (x, z)
+	 * <p/>
+	 * Unlike {@link #getCustomBlockIds(World, int, int)}, the chunk does not have to keep a full array of its ids.
+	 * @param world the world
+	 * @param x     the X chunk coordinate
+	 * @param z     the Z chunk coordinate
+	 * @return copy of the custom block ids, or null if there are none
+	 */
+	public short[] copyCustomBlockIds(World world, int x, int z);
+
+	/**
+	 * Gets a copy of the custom block data for the chunk at (x, z)
+	 * @param world the world
+	 * @param x     the X chunk coordinate
+	 * @param z     the Z chunk coordinate
+	 * @return copy of the custom block data, or null if there is none
+	 */
+	public byte[] copyCustomBlockData(World world, int x, int z);
+
+	/**
+	 * Gets the custom block id of the block at (x, y, z)
+	 * @param world the world
+	 * @param x     the X block coordinate
+	 * @param y     the Y block coordinate
+	 * @param z     the Z block coordinate
+	 * @return custom block id, or 0 if there is none
+	 */
+	public short getCustomBlockId(World world, int x, int y, int z);
+
+	/**
+	 * Sets the custom block id of the block at (x, y, z)
+	 * @param world the world
+	 * @param x     the X block coordinate
+	 * @param y     the Y block coordinate
+	 * @param z     the Z block coordinate
+	 * @param id    the custom block id
+	 * @return the old custom block id
+	 */
+	public short setCustomBlockId(World world, int x, int y, int z, short id);
+
+	/**
+	 * Gets the custom block data of the block at (x, y, z)
+	 * @param world the world
+	 * @param x     the X block coordinate
+	 * @param y     the Y block coordinate
+	 * @param z     the Z block coordinate
+	 * @return custom block data, or 0 if there is none
+	 */
+	public byte getCustomBlockData(World world, int x, int y, int z);
+
+	/**
+	 * Sets the custom block data of the block at (x, y, z)
+	 * @param world the world
+	 * @param x     the X block coordinate
+	 * @param y     the Y block coordinate
+	 * @param z     the Z block coordinate
+	 * @param data  the custom block data
+	 * @return the old custom block data
+	 */
+	public byte setCustomBlockData(World world, int x, int y, int z, byte data);
+
 	public ItemMap getItemMap(World world);
 }
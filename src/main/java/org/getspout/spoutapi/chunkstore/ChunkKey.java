@@ -0,0 +1,55 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spoutapi.chunkstore;
+
+import java.util.UUID;
+
+/**
+ * Identifies a chunk, or a region, in a world
+ */
+class ChunkKey {
+	private final UUID world;
+	private final int x;
+	private final int z;
+
+	ChunkKey(UUID world, int x, int z) {
+		this.world = world;
+		this.x = x;
+		this.z = z;
+	}
+
+	UUID getWorld() {
+		return world;
+	}
+
+	@Override
+	public int hashCode() {
+		return world.hashCode() ^ (x * 31 + z) * 0x9E3779B1;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof ChunkKey)) {
+			return false;
+		}
+		ChunkKey other = (ChunkKey) o;
+		return x == other.x && z == other.z && world.equals(other.world);
+	}
+}
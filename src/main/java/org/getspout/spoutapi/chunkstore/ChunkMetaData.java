@@ -19,18 +19,28 @@
  */
 package org.getspout.spoutapi.chunkstore;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OptionalDataException;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map.Entry;
 import java.util.UUID;
 
 import gnu.trove.iterator.TIntObjectIterator;
+import gnu.trove.iterator.TObjectIntIterator;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import org.bukkit.World;
 
 import org.getspout.spoutapi.Spout;
+import org.getspout.spoutapi.SpoutManager;
 import org.getspout.spoutapi.SpoutWorld;
+import org.getspout.spoutapi.WorldManager;
 import org.getspout.spoutapi.chunkstore.Utils.SerializedData;
 import org.getspout.spoutapi.inventory.ItemMap;
 import org.getspout.spoutapi.inventory.MaterialManager;
@@ -48,14 +58,18 @@ public class ChunkMetaData implements Serializable {
 	private UUID worldUid;
 	//Storage for objects saved to this chunk
 	private HashMap<String, Serializable> chunkData;
-	//storage for custom block id's
+	//storage for custom block id's, only kept as an array once a caller asks for the array
 	private short[] customBlockIds = null;
-	//storage for custom block rotations's
+	//storage for custom block rotations's, only kept as an array once a caller asks for the array
 	private byte[] customBlockData = null;
 	//storage for local block data
 	private TByteShortByteKeyedObjectHashMap<HashMap<String, Serializable>> blockData;
-	private static final int CURRENT_VERSION = 4;
-	private static final int MAGIC_NUMBER = 0xEA5EDEBB;
+	//Version 5 and later are written by write(DataOutputStream), not Java serialization
+	private static final int CURRENT_VERSION = 5;
+	private static final int SERIALIZED_VERSION = 4;
+	static final int MAGIC_NUMBER = 0xEA5EDEBB;
+	//World of the chunk being deserialized on this thread, readObject can not be given it any other way
+	private static final ThreadLocal<World> deserializingWorld = new ThreadLocal<World>();
 	transient private boolean dirty = false;
 	//quais-final, need to be set in serialization
 	transient private int worldHeight;
@@ -65,27 +79,83 @@ public class ChunkMetaData implements Serializable {
 	transient private ItemMap worldItemMap;
 	transient private ItemMap serverItemMap;
 	transient private boolean conversionNeeded;
+	transient private boolean snapshot = false;
+	transient private TObjectIntHashMap<String> keyIds;
+	transient private PalettedBlockStore customBlockIdStore = null;
+	transient private PalettedBlockStore customBlockDataStore = null;
 
-	ChunkMetaData(UUID worldId, ItemMap worldItemMap, int cx, int cz) {
+	/**
+	 * Creates empty chunk data.
+	 * <p/>
+	 * The world is not looked up by its id, so chunk data can be created off the main thread.
+	 * @param world of the chunk
+	 * @param worldItemMap of the world
+	 * @param cx coordinate of the chunk
+	 * @param cz coordinate of the chunk
+	 */
+	ChunkMetaData(World world, ItemMap worldItemMap, int cx, int cz) {
 		blockData = new TByteShortByteKeyedObjectHashMap<HashMap<String, Serializable>>(100);
 		chunkData = new HashMap<String, Serializable>();
 
 		this.cx = cx;
 		this.cz = cz;
-		this.worldUid = worldId;
+		this.worldUid = world.getUID();
 
-		SpoutWorld world = Spout.getServer().getWorld(this.worldUid);
-
-		this.worldHeight = world != null ? world.getMaxHeight() : 128;
-		this.xBitShifts = world != null ? world.getXBitShifts() : 11;
-		this.zBitShifts = world != null ? world.getZBitShifts() : 7;
-		worldHeightMinusOne = worldHeight - 1;
+		setDimensions(world);
 
 		this.worldItemMap = worldItemMap;
 		this.serverItemMap = ItemMap.getRootMap();
 		conversionNeeded = false;
 	}
 
+	private ChunkMetaData(ChunkMetaData source) {
+		cx = source.cx;
+		cz = source.cz;
+		worldUid = source.worldUid;
+		worldHeight = source.worldHeight;
+		worldHeightMinusOne = source.worldHeightMinusOne;
+		xBitShifts = source.xBitShifts;
+		zBitShifts = source.zBitShifts;
+		worldItemMap = source.worldItemMap;
+		serverItemMap = source.serverItemMap;
+		dirty = true;
+		snapshot = true;
+
+		chunkData = new HashMap<String, Serializable>(source.chunkData);
+		blockData = new TByteShortByteKeyedObjectHashMap<HashMap<String, Serializable>>(Math.max(100, source.blockData.size()));
+		TIntObjectIterator<HashMap<String, Serializable>> i = source.blockData.iterator();
+		while (i.hasNext()) {
+			i.advance();
+			int key = i.key();
+			HashMap<String, Serializable> map = i.value();
+			blockData.put(TByteShortByteKeyedMap.getXFromKey(key), TByteShortByteKeyedMap.getYFromKey(key), TByteShortByteKeyedMap.getZFromKey(key), map != null ? new HashMap<String, Serializable>(map) : null);
+		}
+		if (source.hasCustomBlockIds()) {
+			customBlockIdStore = source.toWorldIds();
+		}
+		PalettedBlockStore sourceData = source.getCustomBlockDataStore();
+		if (sourceData != null) {
+			customBlockDataStore = sourceData == source.customBlockDataStore ? sourceData.copy() : sourceData;
+		}
+		keyIds = source.internKeys();
+	}
+
+	/**
+	 * Creates a copy of this chunk's data that can be serialized off the main thread.
+	 * <p/>
+	 * Custom block ids are converted to world ids, and data keys are registered with the world item map, while the copy is taken, as item maps may only be used from the main thread.
+	 * The block and chunk data maps are copied, but the objects stored in them are shared.
+	 * @return snapshot of this chunk's data
+	 */
+	ChunkMetaData snapshot() {
+		ChunkMetaData copy = new ChunkMetaData(this);
+		if (copy.customBlockIdStore != null || !copy.keyIds.isEmpty()) {
+			worldItemMap.save();
+			serverItemMap.save();
+		}
+		return copy;
+	}
+
 	/**
 	 * True if this chunk's data has been altered and needs to be serialized into storage
 	 * @return dirty
@@ -146,6 +216,12 @@ public class ChunkMetaData implements Serializable {
 			} catch (IOException e) {
 				return null;
 			}
+		} else if (serial instanceof ValueCodecs.CodecData) {
+			serial = ValueCodecs.resolve((ValueCodecs.CodecData) serial);
+			if (serial instanceof ValueCodecs.CodecData) {
+				return null;
+			}
+			chunkData.put(id, serial);
 		}
 		return serial;
 	}
@@ -161,9 +237,15 @@ public class ChunkMetaData implements Serializable {
 	 * <p/>
 	 * If the contents of the array are altered, setDirty(true) must be used so that the updated contents will be saved.
 	 * Alternatively, use setCustomBlockIds(array) when you are finished manipulating the array and it will set the dirty flag for you.
+	 * <p/>
+	 * Custom block ids are stored in paletted sections until this is called, after which this chunk keeps the full array. Use {@link #getCustomBlockId(int, int, int)} where possible.
 	 * @return array of block id data for this chunk
 	 */
 	public short[] getCustomBlockIds() {
+		if (customBlockIds == null && customBlockIdStore != null) {
+			customBlockIds = customBlockIdStore.toDense(xBitShifts, zBitShifts);
+			customBlockIdStore = null;
+		}
 		return customBlockIds;
 	}
 
@@ -175,29 +257,161 @@ public class ChunkMetaData implements Serializable {
 	 */
 	public void setCustomBlockIds(short[] ids) {
 		customBlockIds = ids;
+		customBlockIdStore = null;
 		setDirty(true);
 	}
 
+	/**
+	 * Gets a copy of the block id data for this chunk, without keeping the full array for this chunk
+	 * @return copy of the block id data, or null if there is none
+	 */
+	public short[] copyCustomBlockIds() {
+		if (customBlockIds != null) {
+			return customBlockIds.clone();
+		}
+		return customBlockIdStore != null ? customBlockIdStore.toDense(xBitShifts, zBitShifts) : null;
+	}
+
+	/**
+	 * Gets the custom block id of a block in this chunk
+	 * @param x coordinate of the block
+	 * @param y coordinate of the block
+	 * @param z coordinate of the block
+	 * @return custom block id, or 0 if there is none
+	 */
+	public short getCustomBlockId(int x, int y, int z) {
+		if (customBlockIds != null) {
+			return customBlockIds[((x & 0xF) << xBitShifts) | ((z & 0xF) << zBitShifts) | (y & worldHeightMinusOne)];
+		}
+		return customBlockIdStore != null ? customBlockIdStore.get(x, y, z) : 0;
+	}
+
+	/**
+	 * Sets the custom block id of a block in this chunk
+	 * @param x coordinate of the block
+	 * @param y coordinate of the block
+	 * @param z coordinate of the block
+	 * @param id to set
+	 * @return the old custom block id
+	 */
+	public short setCustomBlockId(int x, int y, int z, short id) {
+		short old;
+		if (customBlockIds != null) {
+			int key = ((x & 0xF) << xBitShifts) | ((z & 0xF) << zBitShifts) | (y & worldHeightMinusOne);
+			old = customBlockIds[key];
+			customBlockIds[key] = id;
+		} else {
+			if (customBlockIdStore == null) {
+				if (id == 0) {
+					return 0;
+				}
+				customBlockIdStore = new PalettedBlockStore(worldHeight);
+			}
+			old = customBlockIdStore.set(x, y, z, id);
+		}
+		if (old != id) {
+			dirty = true;
+		}
+		return old;
+	}
+
+	/**
+	 * Checks if any custom block ids have been set for this chunk
+	 * @return true if there are custom block ids
+	 */
+	public boolean hasCustomBlockIds() {
+		return customBlockIds != null || customBlockIdStore != null;
+	}
+
+	/**
+	 * Returns the array that is backing the custom block data for this chunk.
+	 * <p/>
+	 * Custom block data is stored in paletted sections until this is called, after which this chunk keeps the full array. Use {@link #getCustomBlockData(int, int, int)} where possible.
+	 * @return array of custom block data for this chunk
+	 */
 	public byte[] getCustomBlockData() {
+		if (customBlockData == null && customBlockDataStore != null) {
+			customBlockData = customBlockDataStore.toDenseBytes(xBitShifts, zBitShifts);
+			customBlockDataStore = null;
+		}
 		return customBlockData;
 	}
 
 	public void setCustomBlockData(byte[] rots) {
 		customBlockData = rots;
+		customBlockDataStore = null;
 		setDirty(true);
 	}
 
+	/**
+	 * Gets a copy of the custom block data for this chunk, without keeping the full array for this chunk
+	 * @return copy of the custom block data, or null if there is none
+	 */
+	public byte[] copyCustomBlockData() {
+		if (customBlockData != null) {
+			return customBlockData.clone();
+		}
+		return customBlockDataStore != null ? customBlockDataStore.toDenseBytes(xBitShifts, zBitShifts) : null;
+	}
+
+	/**
+	 * Gets the custom block data of a block in this chunk
+	 * @param x coordinate of the block
+	 * @param y coordinate of the block
+	 * @param z coordinate of the block
+	 * @return custom block data, or 0 if there is none
+	 */
+	public byte getCustomBlockData(int x, int y, int z) {
+		if (customBlockData != null) {
+			return customBlockData[((x & 0xF) << xBitShifts) | ((z & 0xF) << zBitShifts) | (y & worldHeightMinusOne)];
+		}
+		return customBlockDataStore != null ? (byte) customBlockDataStore.get(x, y, z) : 0;
+	}
+
+	/**
+	 * Sets the custom block data of a block in this chunk
+	 * @param x coordinate of the block
+	 * @param y coordinate of the block
+	 * @param z coordinate of the block
+	 * @param data to set
+	 * @return the old custom block data
+	 */
+	public byte setCustomBlockData(int x, int y, int z, byte data) {
+		byte old;
+		if (customBlockData != null) {
+			int key = ((x & 0xF) << xBitShifts) | ((z & 0xF) << zBitShifts) | (y & worldHeightMinusOne);
+			old = customBlockData[key];
+			customBlockData[key] = data;
+		} else {
+			if (customBlockDataStore == null) {
+				if (data == 0) {
+					return 0;
+				}
+				customBlockDataStore = new PalettedBlockStore(worldHeight);
+			}
+			old = (byte) customBlockDataStore.set(x, y, z, data);
+		}
+		if (old != data) {
+			dirty = true;
+		}
+		return old;
+	}
+
+	/**
+	 * Gets the custom block data as paletted sections, without changing how this chunk stores it
+	 */
+	private PalettedBlockStore getCustomBlockDataStore() {
+		if (customBlockData != null) {
+			return PalettedBlockStore.fromDense(customBlockData, worldHeight, xBitShifts, zBitShifts);
+		}
+		return customBlockDataStore;
+	}
+
 	public Serializable removeBlockData(String id, int x, int y, int z) {
 
 		if (id.equals(MaterialManager.blockIdString)) {
-			if (customBlockIds != null) {
-				int key = ((x & 0xF) << xBitShifts) | ((z & 0xF) << zBitShifts) | (y & worldHeightMinusOne);
-				short old = customBlockIds[key];
-				if (old != 0) {
-					dirty = true;
-					customBlockIds[key] = 0;
-				}
-				return old;
+			if (hasCustomBlockIds()) {
+				return setCustomBlockId(x, y, z, (short) 0);
 			}
 		} else {
 			HashMap<String, Serializable> localBlockData = blockData.get(x, y, z);
@@ -217,9 +431,8 @@ public class ChunkMetaData implements Serializable {
 
 	public Serializable getBlockData(String id, int x, int y, int z) {
 		if (id.equals(MaterialManager.blockIdString)) {
-			if (customBlockIds != null) {
-				int key = ((x & 0xF) << xBitShifts) | ((z & 0xF) << zBitShifts) | (y & worldHeightMinusOne);
-				return customBlockIds[key];
+			if (hasCustomBlockIds()) {
+				return getCustomBlockId(x, y, z);
 			}
 		} else {
 			HashMap<String, Serializable> localBlockData = blockData.get(x, y, z);
@@ -233,6 +446,12 @@ public class ChunkMetaData implements Serializable {
 					} catch (ClassNotFoundException e) {
 					} catch (IOException e) {
 					}
+				} else if (serial instanceof ValueCodecs.CodecData) {
+					serial = ValueCodecs.resolve((ValueCodecs.CodecData) serial);
+					if (serial instanceof ValueCodecs.CodecData) {
+						return null;
+					}
+					localBlockData.put(id, serial);
 				}
 
 				return serial;
@@ -244,11 +463,7 @@ public class ChunkMetaData implements Serializable {
 	public Serializable putBlockData(String id, int x, int y, int z, Serializable o) {
 
 		if (id.equals(MaterialManager.blockIdString)) {
-			if (customBlockIds == null) {
-				customBlockIds = new short[16 * 16 * worldHeight];
-			}
-			int key = ((x & 0xF) << xBitShifts) | ((z & 0xF) << zBitShifts) | (y & worldHeightMinusOne);
-			customBlockIds[key] = ((Integer) o).shortValue();
+			setCustomBlockId(x, y, z, ((Integer) o).shortValue());
 			dirty = true;
 		} else {
 			HashMap<String, Serializable> localBlockData = blockData.get(x, y, z);
@@ -263,25 +478,266 @@ public class ChunkMetaData implements Serializable {
 		return o;
 	}
 
-	private void writeObject(ObjectOutputStream out) throws IOException {
+	/**
+	 * Writes this chunk's data in the current format.
+	 * <p/>
+	 * Data keys, and the names of the codecs used for values, are written as ids in the world item map, and block positions are delta encoded.
+	 * Only non-zero custom block ids and data are written. Values are written by {@link ValueCodecs}.
+	 * @param out to write to
+	 * @throws IOException
+	 */
+	void write(DataOutputStream out) throws IOException {
+		//Snapshots have their keys registered already
+		TObjectIntHashMap<String> ids = snapshot ? keyIds : internKeys();
+
 		out.writeInt(MAGIC_NUMBER);
 		out.writeInt(CURRENT_VERSION);
+		out.writeLong(worldUid.getMostSignificantBits());
+		out.writeLong(worldUid.getLeastSignificantBits());
+		out.writeInt(cx);
+		out.writeInt(cz);
+
+		TObjectIntHashMap<String> index = new TObjectIntHashMap<String>(Math.max(10, ids.size()));
+		ValueCodecs.writeVarInt(out, ids.size());
+		TObjectIntIterator<String> k = ids.iterator();
+		while (k.hasNext()) {
+			k.advance();
+			index.put(k.key(), index.size());
+			ValueCodecs.writeVarInt(out, k.value());
+		}
+
+		//Snapshots hold world ids already
+		PalettedBlockStore worldIds = snapshot ? customBlockIdStore : (hasCustomBlockIds() ? toWorldIds() : null);
+		if (worldIds != null) {
+			out.writeBoolean(true);
+			writeSparse(out, worldIds, false);
+			if (!snapshot) {
+				worldItemMap.save();
+				serverItemMap.save();
+			}
+		} else {
+			out.writeBoolean(false);
+		}
+
+		PalettedBlockStore blockDataStore = snapshot ? customBlockDataStore : getCustomBlockDataStore();
+		if (blockDataStore != null) {
+			out.writeBoolean(true);
+			writeSparse(out, blockDataStore, true);
+		} else {
+			out.writeBoolean(false);
+		}
+
+		writeValues(out, chunkData, index);
+
+		long[] positions = new long[blockData.size()];
+		int p = 0;
+		TIntObjectIterator<HashMap<String, Serializable>> i = blockData.iterator();
+		while (i.hasNext()) {
+			i.advance();
+			int key = i.key();
+			positions[p++] = toPosition(TByteShortByteKeyedMap.getXFromKey(key), TByteShortByteKeyedMap.getYFromKey(key), TByteShortByteKeyedMap.getZFromKey(key));
+		}
+		Arrays.sort(positions);
+		ValueCodecs.writeVarInt(out, positions.length);
+		long last = 0;
+		for (long position : positions) {
+			ValueCodecs.writeVarLong(out, position - last);
+			last = position;
+			writeValues(out, blockData.get((byte) (position >> 8), (short) (position >> 16), (byte) position), index);
+		}
+		if (!snapshot && !ids.isEmpty()) {
+			worldItemMap.save();
+		}
+	}
+
+	/**
+	 * Reads chunk data written by {@link #write(DataOutputStream)}.
+	 * <p/>
+	 * Custom block ids are converted to server ids when the world item map is set.
+	 * @param in to read from
+	 * @param world the data was written for
+	 * @param worldItemMap the data keys were registered with
+	 * @return chunk data
+	 * @throws IOException
+	 */
+	static ChunkMetaData read(DataInputStream in, World world, ItemMap worldItemMap) throws IOException {
+		if (in.readInt() != MAGIC_NUMBER) {
+			throw new IOException("Not chunk meta data");
+		}
+		int version = in.readInt();
+		if (version != CURRENT_VERSION) {
+			throw new IOException("Unknown chunk meta data version " + version);
+		}
+		long msb = in.readLong();
+		long lsb = in.readLong();
+		int cx = in.readInt();
+		int cz = in.readInt();
+		ChunkMetaData data = new ChunkMetaData(world, worldItemMap, cx, cz);
+		//Kept as stored, callers check it against the world they asked for
+		data.worldUid = new UUID(msb, lsb);
+
+		String[] keys = new String[ValueCodecs.readLength(in)];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = worldItemMap.getName(ValueCodecs.readVarInt(in));
+		}
+
+		if (in.readBoolean()) {
+			data.customBlockIdStore = data.readSparse(in, false);
+			data.conversionNeeded = true;
+		}
+
+		if (in.readBoolean()) {
+			data.customBlockDataStore = data.readSparse(in, true);
+		}
+
+		HashMap<String, Serializable> chunkData = readValues(in, keys);
+		if (chunkData != null) {
+			data.chunkData = chunkData;
+		}
+
+		int count = ValueCodecs.readLength(in);
+		long position = 0;
+		for (int i = 0; i < count; i++) {
+			position += ValueCodecs.readVarLong(in);
+			data.blockData.put((byte) (position >> 8), (short) (position >> 16), (byte) position, readValues(in, keys));
+		}
+		return data;
+	}
+
+	/**
+	 * Writes the non-zero blocks of a store, in the order of the full array, as the distance from the previous block and the value
+	 */
+	private void writeSparse(DataOutputStream out, PalettedBlockStore store, boolean bytes) throws IOException {
+		ValueCodecs.writeVarInt(out, store.count());
+		int last = -1;
+		for (int x = 0; x < 16; x++) {
+			for (int z = 0; z < 16; z++) {
+				for (int s = 0; s < store.getSections(); s++) {
+					if (store.isEmpty(s)) {
+						continue;
+					}
+					for (int y = s << 4; y < (s + 1) << 4; y++) {
+						short value = store.get(x, y, z);
+						if (value != 0) {
+							int index = (x << xBitShifts) | (z << zBitShifts) | y;
+							ValueCodecs.writeVarInt(out, index - last);
+							if (bytes) {
+								out.writeByte(value);
+							} else {
+								ValueCodecs.writeVarInt(out, value & 0xFFFF);
+							}
+							last = index;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private PalettedBlockStore readSparse(DataInputStream in, boolean bytes) throws IOException {
+		PalettedBlockStore store = new PalettedBlockStore(worldHeight);
+		int length = 16 * 16 * worldHeight;
+		int count = ValueCodecs.readLength(in);
+		for (int i = 0, index = -1; i < count; i++) {
+			index += ValueCodecs.readVarInt(in);
+			short value = bytes ? in.readByte() : (short) ValueCodecs.readVarInt(in);
+			if (index >= 0 && index < length) {
+				store.set((index >> xBitShifts) & 0xF, index & worldHeightMinusOne, (index >> zBitShifts) & 0xF, value);
+			}
+		}
+		return store;
+	}
+
+	/**
+	 * Gets the position of a block, ordered by y so most positions are small numbers
+	 */
+	private static long toPosition(byte x, short y, byte z) {
+		return ((long) (y & 0xFFFF) << 16) | ((x & 0xFF) << 8) | (z & 0xFF);
+	}
+
+	private static void writeValues(DataOutputStream out, HashMap<String, Serializable> map, TObjectIntHashMap<String> index) throws IOException {
+		if (map == null) {
+			ValueCodecs.writeVarInt(out, 0);
+			return;
+		}
+		ValueCodecs.writeVarInt(out, map.size() + 1);
+		for (Entry<String, Serializable> entry : map.entrySet()) {
+			ValueCodecs.writeVarInt(out, index.get(entry.getKey()));
+			ValueCodecs.write(out, entry.getValue(), index);
+		}
+	}
+
+	private static HashMap<String, Serializable> readValues(DataInputStream in, String[] keys) throws IOException {
+		int size = ValueCodecs.readVarInt(in) - 1;
+		if (size < 0) {
+			return null;
+		}
+		HashMap<String, Serializable> map = new HashMap<String, Serializable>();
+		for (int i = 0; i < size; i++) {
+			String key = ValueCodecs.readKey(in, keys);
+			Serializable value = ValueCodecs.read(in, keys);
+			//Keys missing from the world item map can not be recovered
+			if (key != null) {
+				map.put(key, value);
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * Registers every data key, and the name of every value codec used, with the world item map
+	 * @return world item map id of each key
+	 */
+	private TObjectIntHashMap<String> internKeys() {
+		TObjectIntHashMap<String> ids = new TObjectIntHashMap<String>();
+		internKeys(chunkData, ids);
+		TIntObjectIterator<HashMap<String, Serializable>> i = blockData.iterator();
+		while (i.hasNext()) {
+			i.advance();
+			internKeys(i.value(), ids);
+		}
+		return ids;
+	}
+
+	private void internKeys(HashMap<String, Serializable> map, TObjectIntHashMap<String> ids) {
+		if (map == null) {
+			return;
+		}
+		for (Entry<String, Serializable> entry : map.entrySet()) {
+			intern(entry.getKey(), ids);
+			String codec = ValueCodecs.getCodecName(entry.getValue());
+			if (codec != null) {
+				intern(codec, ids);
+			}
+		}
+	}
+
+	private void intern(String key, TObjectIntHashMap<String> ids) {
+		if (!ids.containsKey(key)) {
+			ids.put(key, worldItemMap.register(key));
+		}
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.writeInt(MAGIC_NUMBER);
+		out.writeInt(SERIALIZED_VERSION);
 
 		out.writeLong(worldUid.getLeastSignificantBits());
 		out.writeLong(worldUid.getMostSignificantBits());
 		out.writeInt(cx);
 		out.writeInt(cz);
-		if (customBlockIds != null) {
+		PalettedBlockStore worldIdStore = snapshot ? customBlockIdStore : (hasCustomBlockIds() ? toWorldIds() : null);
+		if (worldIdStore != null) {
 			out.writeBoolean(true);
+			//Snapshots hold world ids already
+			short[] worldIds = worldIdStore.toDense(xBitShifts, zBitShifts);
 			for (int i = 0; i < (16 * 16 * worldHeight); i++) {
-				Integer worldId = worldItemMap.convertFrom(this.serverItemMap, customBlockIds[i]);
-				if (worldId == null) {
-					worldId = 0;
-				}
-				out.writeShort(worldId);
+				out.writeShort(worldIds[i]);
+			}
+			if (!snapshot) {
+				worldItemMap.save();
+				serverItemMap.save();
 			}
-			worldItemMap.save();
-			serverItemMap.save();
 		} else {
 			out.writeBoolean(false);
 		}
@@ -300,9 +756,10 @@ public class ChunkMetaData implements Serializable {
 				writeMap(out, i.value());
 			}
 		}
-		if (customBlockData != null) {
+		PalettedBlockStore blockDataStore = snapshot ? customBlockDataStore : getCustomBlockDataStore();
+		if (blockDataStore != null) {
 			out.writeBoolean(true);
-			out.write(customBlockData);
+			out.write(blockDataStore.toDenseBytes(xBitShifts, zBitShifts));
 		} else {
 			out.writeBoolean(false);
 		}
@@ -329,12 +786,17 @@ public class ChunkMetaData implements Serializable {
 		boolean customBlockIdsExist = in.readBoolean();
 
 		//Constructor is not invoked, need to set these fields
-		SpoutWorld world = Spout.getServer().getWorld(this.worldUid);
+		World world = deserializingWorld.get();
+		if (world != null) {
+			setDimensions(world);
+		} else {
+			SpoutWorld spoutWorld = Spout.getServer().getWorld(this.worldUid);
 
-		this.worldHeight = world.getMaxHeight();
-		this.xBitShifts = world.getXBitShifts();
-		this.zBitShifts = world.getZBitShifts();
-		worldHeightMinusOne = worldHeight - 1;
+			this.worldHeight = spoutWorld.getMaxHeight();
+			this.xBitShifts = spoutWorld.getXBitShifts();
+			this.zBitShifts = spoutWorld.getZBitShifts();
+			worldHeightMinusOne = worldHeight - 1;
+		}
 
 		if (customBlockIdsExist) {
 			if (fileVersionNumber >= 2) {
@@ -373,11 +835,45 @@ public class ChunkMetaData implements Serializable {
 			if(hasRotations) in.readFully(customBlockData);
 		}
 
+		if (customBlockIds != null) {
+			customBlockIdStore = PalettedBlockStore.fromDense(customBlockIds, worldHeight, xBitShifts, zBitShifts);
+			customBlockIds = null;
+		}
+		if (customBlockData != null) {
+			customBlockDataStore = PalettedBlockStore.fromDense(customBlockData, worldHeight, xBitShifts, zBitShifts);
+			customBlockData = null;
+		}
+
 		if (fileVersionNumber < CURRENT_VERSION) {
 			dirty = true;
 		}
 	}
 
+	private void setDimensions(World world) {
+		WorldManager worldManager = SpoutManager.getWorldManager();
+		worldHeight = world.getMaxHeight();
+		xBitShifts = worldManager.getWorldXShiftBits(world);
+		zBitShifts = worldManager.getWorldZShiftBits(world);
+		worldHeightMinusOne = worldHeight - 1;
+	}
+
+	/**
+	 * Deserializes chunk data written with Java serialization, without looking up its world by id
+	 * @param in to read from
+	 * @param world the data was written for
+	 * @return the object read
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	static Object readObject(ObjectInputStream in, World world) throws IOException, ClassNotFoundException {
+		deserializingWorld.set(world);
+		try {
+			return in.readObject();
+		} finally {
+			deserializingWorld.remove();
+		}
+	}
+
 	public void setWorldItemMap(ItemMap worldItemMap) {
 		this.serverItemMap = ItemMap.getRootMap();
 		this.worldItemMap = worldItemMap;
@@ -387,20 +883,31 @@ public class ChunkMetaData implements Serializable {
 	}
 
 	private void convertIds(ItemMap worldItemMap) {
-		int length = customBlockIds.length;
-		for (int i = 0; i < length; i++) {
-
-			Integer globalId = worldItemMap.convertTo(serverItemMap, customBlockIds[i]);
-
-			if (globalId == null) {
-				System.out.println("Custom id " + customBlockIds[i] + " does not exist in custom item map, replacing with 0");
-				globalId = 0;
-			}
-			customBlockIds[i] = (short) (int) globalId;
+		if (customBlockIds != null) {
+			customBlockIdStore = PalettedBlockStore.fromDense(customBlockIds, worldHeight, xBitShifts, zBitShifts);
+			customBlockIds = null;
+		}
+		int lost = customBlockIdStore.convert(worldItemMap, serverItemMap);
+		if (lost > 0) {
+			System.out.println(lost + " custom ids in chunk " + cx + ", " + cz + " do not exist in custom item map, replacing with 0");
 		}
 		conversionNeeded = false;
 	}
 
+	/**
+	 * Gets the custom block ids converted from server ids to world ids, leaving this chunk's ids unchanged
+	 */
+	private PalettedBlockStore toWorldIds() {
+		PalettedBlockStore worldIds;
+		if (customBlockIds != null) {
+			worldIds = PalettedBlockStore.fromDense(customBlockIds, worldHeight, xBitShifts, zBitShifts);
+		} else {
+			worldIds = customBlockIdStore.copy();
+		}
+		worldIds.convert(serverItemMap, worldItemMap);
+		return worldIds;
+	}
+
 	private void writeMap(ObjectOutputStream out, HashMap<String, Serializable> map) throws IOException {
 		if (map == null) {
 			out.writeBoolean(false);
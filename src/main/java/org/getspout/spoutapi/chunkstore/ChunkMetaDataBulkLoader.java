@@ -0,0 +1,184 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spoutapi.chunkstore;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+
+import org.bukkit.Chunk;
+import org.bukkit.World;
+
+import org.getspout.spoutapi.inventory.ItemMap;
+
+/**
+ * Loads the chunk meta data of many chunks at once, when a world is loaded.
+ * <p/>
+ * Chunks are grouped by region file, and each region file is read once, in file order, in the calling thread.
+ * Decoding is spread over a pool of threads, and overlaps with reading the next region file.
+ */
+class ChunkMetaDataBulkLoader {
+	private static final int DECODE_BATCH = 32;
+	private final ChunkStore store;
+
+	ChunkMetaDataBulkLoader(ChunkStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Reads and decodes the data of chunks in a world.
+	 * <p/>
+	 * The ids of the decoded data are not converted yet, see {@link ChunkMetaData#setWorldItemMap(ItemMap)}.
+	 * Chunks that have no stored data are added to the empty set, by {@link ChunkMetaDataRegistry#key(int, int)}.
+	 * Chunks whose data could not be read or decoded are in neither, and are left to be read one at a time.
+	 * @param world of the chunks
+	 * @param chunks to load
+	 * @param worldItemMap of the world
+	 * @param empty set to add the chunks with no stored data to
+	 * @return decoded data
+	 */
+	List<ChunkMetaData> load(World world, List<Chunk> chunks, ItemMap worldItemMap, TLongHashSet empty) {
+		TLongObjectHashMap<BitSet> regions = new TLongObjectHashMap<BitSet>();
+		for (Chunk c : chunks) {
+			long region = ChunkMetaDataRegistry.key(c.getX() >> 5, c.getZ() >> 5);
+			BitSet indexes = regions.get(region);
+			if (indexes == null) {
+				indexes = new BitSet(1024);
+				regions.put(region, indexes);
+			}
+			indexes.set(((c.getX() & 0x1F) << 5) | (c.getZ() & 0x1F));
+		}
+
+		List<ChunkMetaData> loaded = new ArrayList<ChunkMetaData>(chunks.size());
+		if (regions.isEmpty()) {
+			return loaded;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Spout Chunk Load Thread");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			List<Future<List<ChunkMetaData>>> decodes = new ArrayList<Future<List<ChunkMetaData>>>();
+			TLongObjectIterator<BitSet> i = regions.iterator();
+			while (i.hasNext()) {
+				i.advance();
+				int rx = (int) (i.key() >> 32);
+				int rz = (int) i.key();
+				byte[][] data;
+				try {
+					data = store.readRegion(world, rx, rz, i.value());
+				} catch (Exception e) {
+					//Left to be read one chunk at a time when they are used
+					System.out.println("[Spout] Unable to read chunk meta data region " + rx + ", " + rz + ", " + e.getMessage());
+					continue;
+				}
+				BitSet indexes = i.value();
+				int[] batch = new int[DECODE_BATCH];
+				int count = 0;
+				for (int index = indexes.nextSetBit(0); index >= 0; index = indexes.nextSetBit(index + 1)) {
+					if (data == null || data[index] == null) {
+						//No region file, or no record in it
+						empty.add(ChunkMetaDataRegistry.key((rx << 5) | (index >> 5), (rz << 5) | (index & 0x1F)));
+						continue;
+					}
+					batch[count++] = index;
+					if (count == DECODE_BATCH) {
+						decodes.add(pool.submit(new Decode(world, rx, rz, data, batch, count, worldItemMap)));
+						batch = new int[DECODE_BATCH];
+						count = 0;
+					}
+				}
+				if (count > 0) {
+					decodes.add(pool.submit(new Decode(world, rx, rz, data, batch, count, worldItemMap)));
+				}
+			}
+			for (Future<List<ChunkMetaData>> decode : decodes) {
+				try {
+					loaded.addAll(decode.get());
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+				}
+			}
+		} catch (InterruptedException e) {
+			//Whatever was not decoded is read one chunk at a time when it is used
+			Thread.currentThread().interrupt();
+		} finally {
+			pool.shutdownNow();
+		}
+		return loaded;
+	}
+
+	private class Decode implements Callable<List<ChunkMetaData>> {
+		private final World world;
+		private final int rx;
+		private final int rz;
+		private final byte[][] data;
+		private final int[] indexes;
+		private final int count;
+		private final ItemMap worldItemMap;
+
+		Decode(World world, int rx, int rz, byte[][] data, int[] indexes, int count, ItemMap worldItemMap) {
+			this.world = world;
+			this.rx = rx;
+			this.rz = rz;
+			this.data = data;
+			this.indexes = indexes;
+			this.count = count;
+			this.worldItemMap = worldItemMap;
+		}
+
+		@Override
+		public List<ChunkMetaData> call() {
+			List<ChunkMetaData> decoded = new ArrayList<ChunkMetaData>(count);
+			for (int i = 0; i < count; i++) {
+				int x = (rx << 5) | (indexes[i] >> 5);
+				int z = (rz << 5) | (indexes[i] & 0x1F);
+				try {
+					ChunkMetaData md = store.decode(data[indexes[i]], world, x, z, worldItemMap);
+					if (md == null) {
+						continue;
+					}
+					if (!md.getWorldUID().equals(world.getUID()) || md.getChunkX() != x || md.getChunkZ() != z) {
+						System.out.println("[Spout] Chunk meta data for " + x + ", " + z + " is stored for " + md.getWorldUID() + " " + md.getChunkX() + ", " + md.getChunkZ() + ", ignoring it");
+						continue;
+					}
+					decoded.add(md);
+				} catch (Exception e) {
+					System.out.println("[Spout] Unable to decode chunk meta data for " + x + ", " + z + ", " + e.getMessage());
+				}
+			}
+			return decoded;
+		}
+	}
+}
@@ -0,0 +1,360 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spoutapi.chunkstore;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.World;
+
+/**
+ * Reads chunk meta data in a separate thread, before the chunks are loaded.
+ * <p/>
+ * Chunks around players are requested as they move, and read into a bounded cache.
+ * When a chunk is then loaded, its data is taken from the cache instead of being read on the main thread.
+ * Requests are dropped oldest first once too many are queued, and cached data that is never used is evicted oldest first.
+ * <p/>
+ * Data is cached as read from disk, before its ids are converted to server ids, so item maps are only changed from the main thread.
+ */
+public class ChunkMetaDataPrefetcher {
+	private static final Object NONE = new Object();
+	private final Source source;
+	private final LinkedHashMap<ChunkKey, Request> queued = new LinkedHashMap<ChunkKey, Request>();
+	private final LinkedHashMap<ChunkKey, Object> cache = new LinkedHashMap<ChunkKey, Object>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ChunkKey, Object> eldest) {
+			if (size() > capacity) {
+				evicted++;
+				return true;
+			}
+			return false;
+		}
+	};
+	private Request running = null;
+	private Thread thread = null;
+	private int capacity = 0;
+	private long requested = 0;
+	private long dropped = 0;
+	private long evicted = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long prefetchTime = 0;
+	private long prefetched = 0;
+	private long missTime = 0;
+
+	interface Source {
+		/**
+		 * Checks if a chunk's data is already loaded, so there is no need to read it
+		 * @return true if loaded
+		 */
+		public boolean isLoaded(World world, int x, int z);
+
+		/**
+		 * Reads a chunk's data from disk, without converting its ids
+		 * @return data, or null if the chunk has none
+		 */
+		public ChunkMetaData read(World world, int x, int z) throws IOException;
+	}
+
+	ChunkMetaDataPrefetcher(Source source) {
+		this.source = source;
+	}
+
+	/**
+	 * Sets the number of chunks that may be queued or cached, 0 disables prefetching
+	 * @param capacity in chunks
+	 */
+	public void setCapacity(int capacity) {
+		synchronized (this) {
+			this.capacity = Math.max(0, capacity);
+		}
+		if (capacity <= 0) {
+			shutdown();
+		}
+	}
+
+	/**
+	 * Checks if prefetching is enabled
+	 * @return true if enabled
+	 */
+	public synchronized boolean isEnabled() {
+		return capacity > 0;
+	}
+
+	/**
+	 * Queues a chunk to be read, unless it is already queued, being read or cached
+	 * @param world of the chunk
+	 * @param x coordinate of the chunk
+	 * @param z coordinate of the chunk
+	 */
+	public synchronized void request(World world, int x, int z) {
+		if (capacity == 0) {
+			return;
+		}
+		ChunkKey key = new ChunkKey(world.getUID(), x, z);
+		if (queued.containsKey(key) || cache.containsKey(key) || (running != null && running.key.equals(key))) {
+			return;
+		}
+		requested++;
+		if (queued.size() >= capacity) {
+			//The oldest request is the furthest behind the player
+			Iterator<Request> i = queued.values().iterator();
+			i.next();
+			i.remove();
+			dropped++;
+		}
+		queued.put(key, new Request(key, world, x, z));
+		if (thread == null) {
+			thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					readLoop();
+				}
+			}, "Spout Chunk Prefetch Thread");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Gets the data of a chunk from the cache, or reads it in the calling thread if it was not prefetched.
+	 * <p/>
+	 * If the chunk is being read by the prefetch thread, this waits for that read instead.
+	 * @param world of the chunk
+	 * @param x coordinate of the chunk
+	 * @param z coordinate of the chunk
+	 * @return data, or null if the chunk has none
+	 * @throws IOException
+	 */
+	ChunkMetaData read(World world, int x, int z) throws IOException {
+		ChunkKey key = new ChunkKey(world.getUID(), x, z);
+		synchronized (this) {
+			while (running != null && running.key.equals(key)) {
+				waitUninterruptibly();
+			}
+			Object cached = cache.remove(key);
+			if (cached != null) {
+				hits++;
+				return cached == NONE ? null : (ChunkMetaData) cached;
+			}
+			queued.remove(key);
+			misses++;
+		}
+		long start = System.nanoTime();
+		try {
+			return source.read(world, x, z);
+		} finally {
+			long time = System.nanoTime() - start;
+			synchronized (this) {
+				missTime += time;
+			}
+		}
+	}
+
+	/**
+	 * Discards everything queued or cached for a world, used when its loaded data is saved and cleared
+	 * @param world to discard
+	 */
+	synchronized void invalidate(UUID world) {
+		Iterator<ChunkKey> i = queued.keySet().iterator();
+		while (i.hasNext()) {
+			if (i.next().getWorld().equals(world)) {
+				i.remove();
+			}
+		}
+		i = cache.keySet().iterator();
+		while (i.hasNext()) {
+			if (i.next().getWorld().equals(world)) {
+				i.remove();
+			}
+		}
+		if (running != null && running.key.getWorld().equals(world)) {
+			running.cancelled = true;
+		}
+	}
+
+	/**
+	 * Discards everything queued or cached, and stops the prefetch thread.
+	 * <p/>
+	 * The thread is started again by the next request.
+	 */
+	public void shutdown() {
+		Thread stopping;
+		synchronized (this) {
+			queued.clear();
+			cache.clear();
+			if (running != null) {
+				running.cancelled = true;
+			}
+			stopping = thread;
+			thread = null;
+			notifyAll();
+		}
+		if (stopping != null && stopping != Thread.currentThread()) {
+			try {
+				stopping.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of chunks requested since startup, not counting chunks that were already queued or cached
+	 * @return requests
+	 */
+	public synchronized long getRequested() {
+		return requested;
+	}
+
+	/**
+	 * Gets the number of requests dropped before they were read, because too many were queued
+	 * @return dropped requests
+	 */
+	public synchronized long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * Gets the number of prefetched chunks evicted from the cache before they were loaded
+	 * @return evicted chunks
+	 */
+	public synchronized long getEvicted() {
+		return evicted;
+	}
+
+	/**
+	 * Gets the number of chunk loads that used prefetched data
+	 * @return hits
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Gets the number of chunk loads that had to read their data in the loading thread
+	 * @return misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Gets the number of requests waiting to be read
+	 * @return queued requests
+	 */
+	public synchronized int getQueueDepth() {
+		return queued.size();
+	}
+
+	/**
+	 * Gets the number of prefetched chunks waiting to be loaded
+	 * @return cached chunks
+	 */
+	public synchronized int getCacheSize() {
+		return cache.size();
+	}
+
+	/**
+	 * Gets the average time taken to read a chunk in the prefetch thread
+	 * @return read time in nanoseconds
+	 */
+	public synchronized long getAveragePrefetchTime() {
+		return prefetched == 0 ? 0 : prefetchTime / prefetched;
+	}
+
+	/**
+	 * Gets the average time a chunk load spent reading data that was not prefetched
+	 * @return read time in nanoseconds
+	 */
+	public synchronized long getAverageMissTime() {
+		return misses == 0 ? 0 : missTime / misses;
+	}
+
+	private void readLoop() {
+		Thread current = Thread.currentThread();
+		while (true) {
+			Request request;
+			synchronized (this) {
+				while (queued.isEmpty() && thread == current) {
+					waitUninterruptibly();
+				}
+				if (thread != current) {
+					return;
+				}
+				Iterator<Request> i = queued.values().iterator();
+				request = i.next();
+				i.remove();
+				running = request;
+			}
+			Object result = null;
+			long start = System.nanoTime();
+			try {
+				//The chunk may have been loaded since it was requested, the cached copy would then go stale
+				if (!source.isLoaded(request.world, request.x, request.z)) {
+					ChunkMetaData md = source.read(request.world, request.x, request.z);
+					result = md == null ? NONE : md;
+				}
+			} catch (Exception e) {
+				System.out.println("[Spout] Unable to prefetch chunk meta data for " + request.x + ", " + request.z + ", " + e.getMessage());
+			} finally {
+				long time = System.nanoTime() - start;
+				synchronized (this) {
+					if (result != null && !request.cancelled) {
+						cache.put(request.key, result);
+						prefetched++;
+						prefetchTime += time;
+					}
+					running = null;
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	private void waitUninterruptibly() {
+		try {
+			wait();
+		} catch (InterruptedException ignore) {
+			//The prefetch thread always finishes its current read
+		}
+	}
+
+	private static class Request {
+		private final ChunkKey key;
+		private final World world;
+		private final int x;
+		private final int z;
+		private boolean cancelled = false;
+
+		Request(ChunkKey key, World world, int x, int z) {
+			this.key = key;
+			this.world = world;
+			this.x = x;
+			this.z = z;
+		}
+	}
+}
@@ -0,0 +1,254 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spoutapi.chunkstore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import org.bukkit.World;
+
+/**
+ * The chunk meta data loaded for one world.
+ * <p/>
+ * Chunks are spread over lock stripes, so lookups from different threads rarely contend.
+ * A chunk being read from disk is represented by a {@link Load} while the read runs outside the lock, and other threads asking for the same chunk wait for that read instead of starting their own.
+ */
+class ChunkMetaDataRegistry {
+	private static final int STRIPES = 16;
+	private final TLongObjectHashMap<Object>[] stripes;
+	private final Loader loader;
+
+	interface Loader {
+		/**
+		 * Reads a chunk's data from disk
+		 * @return data, or null if the chunk has none
+		 */
+		public ChunkMetaData read(World world, int x, int z) throws IOException;
+
+		/**
+		 * Creates empty data for a chunk
+		 * @return data
+		 */
+		public ChunkMetaData create(World world, int x, int z);
+	}
+
+	@SuppressWarnings("unchecked")
+	ChunkMetaDataRegistry(Loader loader) {
+		this.loader = loader;
+		stripes = new TLongObjectHashMap[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new TLongObjectHashMap<Object>();
+		}
+	}
+
+	/**
+	 * Gets the data of a chunk, reading it from disk if needed
+	 * @param world of the chunk
+	 * @param x coordinate of the chunk
+	 * @param z coordinate of the chunk
+	 * @param load true to read the data if it is not loaded
+	 * @param create true to create empty data if the chunk has none
+	 * @return data, or null if it is not loaded, or could not be read or created
+	 */
+	ChunkMetaData get(World world, int x, int z, boolean load, boolean create) {
+		long key = key(x, z);
+		TLongObjectHashMap<Object> stripe = getStripe(key);
+		while (true) {
+			Object value;
+			Load pending = null;
+			synchronized (stripe) {
+				value = stripe.get(key);
+				if (value == null) {
+					if (!load && !create) {
+						return null;
+					}
+					pending = new Load();
+					stripe.put(key, pending);
+				}
+			}
+			if (value instanceof ChunkMetaData) {
+				return (ChunkMetaData) value;
+			}
+			if (pending != null) {
+				return load(world, x, z, key, stripe, pending, create);
+			}
+			if (!load && !create) {
+				//Still being read, so not loaded yet
+				return null;
+			}
+			ChunkMetaData md = ((Load) value).await();
+			if (md != null || !create) {
+				return md;
+			}
+			//The chunk had no data, try again to create it
+		}
+	}
+
+	private ChunkMetaData load(World world, int x, int z, long key, TLongObjectHashMap<Object> stripe, Load pending, boolean create) {
+		ChunkMetaData md = null;
+		try {
+			md = loader.read(world, x, z);
+			if (md == null && create) {
+				md = loader.create(world, x, z);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			synchronized (stripe) {
+				//Only replace the load, the world may have been unloaded while it ran
+				if (stripe.get(key) == pending) {
+					if (md != null) {
+						stripe.put(key, md);
+					} else {
+						stripe.remove(key);
+					}
+				}
+			}
+			pending.complete(md);
+		}
+		return md;
+	}
+
+	/**
+	 * Checks if a chunk's data is loaded or being read
+	 * @param x coordinate of the chunk
+	 * @param z coordinate of the chunk
+	 * @return true if loaded or being read
+	 */
+	boolean contains(int x, int z) {
+		long key = key(x, z);
+		TLongObjectHashMap<Object> stripe = getStripe(key);
+		synchronized (stripe) {
+			return stripe.containsKey(key);
+		}
+	}
+
+	/**
+	 * Adds the data of many chunks at once, taking the lock of each stripe once.
+	 * <p/>
+	 * Chunks that are already loaded or being read keep their current data.
+	 * @param chunks data to add
+	 * @return number of chunks added
+	 */
+	@SuppressWarnings("unchecked")
+	int putAll(List<ChunkMetaData> chunks) {
+		List<ChunkMetaData>[] byStripe = new List[STRIPES];
+		for (ChunkMetaData md : chunks) {
+			int index = getStripeIndex(key(md.getChunkX(), md.getChunkZ()));
+			if (byStripe[index] == null) {
+				byStripe[index] = new ArrayList<ChunkMetaData>();
+			}
+			byStripe[index].add(md);
+		}
+		int added = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			if (byStripe[i] == null) {
+				continue;
+			}
+			TLongObjectHashMap<Object> stripe = stripes[i];
+			synchronized (stripe) {
+				for (ChunkMetaData md : byStripe[i]) {
+					long key = key(md.getChunkX(), md.getChunkZ());
+					if (!stripe.containsKey(key)) {
+						stripe.put(key, md);
+						added++;
+					}
+				}
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * Gets the data of every loaded chunk
+	 * @return loaded data
+	 */
+	List<ChunkMetaData> getLoaded() {
+		List<ChunkMetaData> loaded = new ArrayList<ChunkMetaData>();
+		for (TLongObjectHashMap<Object> stripe : stripes) {
+			synchronized (stripe) {
+				for (Object value : stripe.valueCollection()) {
+					if (value instanceof ChunkMetaData) {
+						loaded.add((ChunkMetaData) value);
+					}
+				}
+			}
+		}
+		return loaded;
+	}
+
+	/**
+	 * Removes every chunk
+	 */
+	void clear() {
+		for (TLongObjectHashMap<Object> stripe : stripes) {
+			synchronized (stripe) {
+				stripe.clear();
+			}
+		}
+	}
+
+	private TLongObjectHashMap<Object> getStripe(long key) {
+		return stripes[getStripeIndex(key)];
+	}
+
+	private static int getStripeIndex(long key) {
+		int hash = (int) (key ^ (key >>> 32));
+		hash ^= (hash >>> 16);
+		hash ^= (hash >>> 8);
+		return hash & (STRIPES - 1);
+	}
+
+	static long key(int x, int z) {
+		return (((long) x) << 32) | (((long) z) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Future for a chunk being read from disk
+	 */
+	private static class Load {
+		private boolean done = false;
+		private ChunkMetaData result;
+
+		synchronized void complete(ChunkMetaData result) {
+			this.result = result;
+			done = true;
+			notifyAll();
+		}
+
+		synchronized ChunkMetaData await() {
+			boolean interrupted = false;
+			while (!done) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,267 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spoutapi.chunkstore;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.bukkit.World;
+
+/**
+ * Writes chunk meta data to the chunk store in a separate thread.
+ * <p/>
+ * Chunks are snapshotted in the calling thread, and then serialized, compressed and written in the save thread.
+ * If a chunk is saved again before its previous save was written, only the newest snapshot is written.
+ */
+public class ChunkSaveQueue {
+	private final ChunkStore store;
+	private final LinkedHashMap<ChunkKey, PendingSave> pending = new LinkedHashMap<ChunkKey, PendingSave>();
+	//Chunks being written, by the save thread or by a thread waiting for its chunk
+	private final HashSet<ChunkKey> writing = new HashSet<ChunkKey>();
+	private Thread thread = null;
+	private long saves = 0;
+	private long coalesced = 0;
+
+	public ChunkSaveQueue(ChunkStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Queues a chunk to be written, if it is dirty.
+	 * <p/>
+	 * Must be called from the main thread. The data is no longer dirty once this returns.
+	 * @param world of the chunk
+	 * @param x coordinate of the chunk
+	 * @param z coordinate of the chunk
+	 * @param data to write
+	 */
+	public void save(World world, int x, int z, ChunkMetaData data) {
+		if (!data.isDirty()) {
+			return;
+		}
+		PendingSave save = new PendingSave(world, x, z, data, data.snapshot());
+		data.setDirty(false);
+		synchronized (this) {
+			saves++;
+			if (pending.put(save.key, save) != null) {
+				coalesced++;
+			}
+			if (thread == null) {
+				thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						writeLoop();
+					}
+				}, "Spout Chunk Save Thread");
+				thread.setDaemon(true);
+				thread.start();
+			}
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until the chunk has been written, if a save for it is queued or being written.
+	 * <p/>
+	 * Must be called before the chunk is read back from the store.
+	 * A queued save is written in the calling thread, so it is not waiting behind other chunks.
+	 * @param world of the chunk
+	 * @param x coordinate of the chunk
+	 * @param z coordinate of the chunk
+	 */
+	public void awaitChunk(World world, int x, int z) {
+		ChunkKey key = new ChunkKey(world.getUID(), x, z);
+		PendingSave save;
+		synchronized (this) {
+			while (writing.contains(key)) {
+				waitUninterruptibly();
+			}
+			save = pending.remove(key);
+			if (save == null) {
+				return;
+			}
+			writing.add(key);
+		}
+		try {
+			write(save);
+		} finally {
+			synchronized (this) {
+				writing.remove(key);
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Waits until every save queued before this call has been written.
+	 * <p/>
+	 * Used before region files are closed, when a world is unloaded or the server shuts down.
+	 */
+	public void flush() {
+		synchronized (this) {
+			while (!pending.isEmpty() || !writing.isEmpty()) {
+				if (thread == null && !pending.isEmpty()) {
+					//There is no save thread, write the queue here instead
+					PendingSave save = takeNext();
+					try {
+						write(save);
+					} finally {
+						writing.remove(save.key);
+					}
+				} else {
+					waitUninterruptibly();
+				}
+			}
+		}
+		flushStore();
+	}
+
+	/**
+	 * Writes all queued saves, and stops the save thread.
+	 * <p/>
+	 * The thread is started again by the next save.
+	 */
+	public void shutdown() {
+		flush();
+		Thread stopping;
+		synchronized (this) {
+			stopping = thread;
+			thread = null;
+			notifyAll();
+		}
+		if (stopping != null) {
+			try {
+				stopping.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of chunk saves waiting to be written
+	 * @return queued saves
+	 */
+	public synchronized int getQueueDepth() {
+		return pending.size();
+	}
+
+	/**
+	 * Gets the number of chunk saves queued since startup
+	 * @return saves
+	 */
+	public synchronized long getSaves() {
+		return saves;
+	}
+
+	/**
+	 * Gets the number of chunk saves that replaced a save of the same chunk that was not written yet
+	 * @return coalesced saves
+	 */
+	public synchronized long getCoalesced() {
+		return coalesced;
+	}
+
+	private void writeLoop() {
+		Thread current = Thread.currentThread();
+		while (true) {
+			PendingSave save;
+			synchronized (this) {
+				while (pending.isEmpty() && thread == current) {
+					waitUninterruptibly();
+				}
+				if (thread != current) {
+					return;
+				}
+				save = takeNext();
+			}
+			try {
+				write(save);
+				boolean drained;
+				synchronized (this) {
+					drained = pending.isEmpty();
+				}
+				if (drained) {
+					//End of the batch, write the region file headers
+					flushStore();
+				}
+			} finally {
+				synchronized (this) {
+					writing.remove(save.key);
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	private PendingSave takeNext() {
+		Iterator<PendingSave> i = pending.values().iterator();
+		PendingSave save = i.next();
+		i.remove();
+		writing.add(save.key);
+		return save;
+	}
+
+	private void write(PendingSave save) {
+		try {
+			store.write(save.world, save.x, save.z, save.snapshot);
+		} catch (Exception e) {
+			//Mark the live data dirty again, so the next save retries
+			save.data.setDirty(true);
+			System.out.println("[Spout] Unable to write chunk meta data for " + save.x + ", " + save.z + ", " + e.getMessage());
+		}
+	}
+
+	private void flushStore() {
+		try {
+			store.flushAll();
+		} catch (Exception e) {
+			System.out.println("[Spout] Unable to flush chunk meta data, " + e.getMessage());
+		}
+	}
+
+	private void waitUninterruptibly() {
+		try {
+			wait();
+		} catch (InterruptedException ignore) {
+			//Saves must not be lost, keep waiting
+		}
+	}
+
+	private static class PendingSave {
+		private final ChunkKey key;
+		private final World world;
+		private final int x;
+		private final int z;
+		private final ChunkMetaData data;
+		private final ChunkMetaData snapshot;
+
+		PendingSave(World world, int x, int z, ChunkMetaData data, ChunkMetaData snapshot) {
+			this.key = new ChunkKey(world.getUID(), x, z);
+			this.world = world;
+			this.x = x;
+			this.z = z;
+			this.data = data;
+			this.snapshot = snapshot;
+		}
+	}
+}
@@ -19,44 +19,179 @@
  */
 package org.getspout.spoutapi.chunkstore;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
 
 import org.bukkit.World;
+import org.getspout.spoutapi.inventory.ItemMap;
 
+/**
+ * Reads and writes chunk meta data to region files.
+ * <p/>
+ * Region files are only accessed while holding the lock on the region file, so chunks in different region files can be read and written from different threads.
+ * A bounded number of region files is kept open, see {@link #setMaxOpenFiles(int)}.
+ */
 public class ChunkStore {
-	HashMap<UUID, HashMap<Long, SimpleRegionFile>> regionFiles = new HashMap<UUID, HashMap<Long, SimpleRegionFile>>();
+	final RegionFileCache regionFiles = new RegionFileCache();
 
+	/**
+	 * Closes every region file that is not in use
+	 */
 	public void closeAll() {
-		for (UUID uid : regionFiles.keySet()) {
-			HashMap<Long, SimpleRegionFile> worldRegions = regionFiles.get(uid);
-			Iterator<SimpleRegionFile> itr = worldRegions.values().iterator();
-			while (itr.hasNext()) {
-				SimpleRegionFile rf = itr.next();
-				if (rf != null) {
-					rf.close();
-					itr.remove();
-				}
+		regionFiles.close(null);
+	}
+
+	/**
+	 * Closes the region files of a world that are not in use
+	 * @param world to close
+	 */
+	public void closeWorld(World world) {
+		regionFiles.close(world.getUID());
+	}
+
+	/**
+	 * Closes the region files that have not been used for longer than the idle timeout
+	 * @return number of files closed
+	 * @see SimpleRegionFile#setTimeout(long)
+	 */
+	public int closeIdle() {
+		return regionFiles.closeIdle();
+	}
+
+	/**
+	 * Sets the number of region files kept open, the least recently used files are closed first
+	 * @param files to keep open
+	 */
+	public void setMaxOpenFiles(int files) {
+		regionFiles.setCapacity(files);
+	}
+
+	public int getMaxOpenFiles() {
+		return regionFiles.getCapacity();
+	}
+
+	/**
+	 * Gets the number of region files open
+	 * @return open files
+	 */
+	public int getOpenFiles() {
+		return regionFiles.getOpenCount();
+	}
+
+	/**
+	 * Gets the number of region files opened since startup
+	 * @return opened files
+	 */
+	public long getOpenedFiles() {
+		return regionFiles.getOpened();
+	}
+
+	/**
+	 * Gets the number of region files closed because too many were open
+	 * @return evicted files
+	 */
+	public long getEvictedFiles() {
+		return regionFiles.getEvicted();
+	}
+
+	/**
+	 * Gets the number of region files closed because they were idle
+	 * @return idle files closed
+	 */
+	public long getIdleClosedFiles() {
+		return regionFiles.getIdleClosed();
+	}
+
+	/**
+	 * Reads the data of a chunk, in either the current format or the Java serialization format used before version 5
+	 * @param world of the chunk
+	 * @param x coordinate of the chunk
+	 * @param z coordinate of the chunk
+	 * @param worldItemMap of the world
+	 * @return data, or null if the chunk has no data or it could not be read
+	 * @throws IOException
+	 */
+	public ChunkMetaData readChunkMetaData(World world, int x, int z, ItemMap worldItemMap) throws IOException {
+		RegionFileCache.Handle handle = regionFiles.acquire(world, x >> 5, z >> 5, false);
+		if (handle == null) {
+			return null;
+		}
+		//The compressed data is copied out under the lock and inflated outside it
+		try {
+			InputStream raw;
+			SimpleRegionFile rf = handle.getFile();
+			synchronized (rf) {
+				raw = rf.getInputStream(x, z);
 			}
+			if (raw == null) {
+				return null;
+			}
+			return read(raw, world, x, z, worldItemMap);
+		} finally {
+			regionFiles.release(handle);
 		}
-		regionFiles.clear();
 	}
 
-	public ChunkMetaData readChunkMetaData(World world, int x, int z) throws IOException {
-		SimpleRegionFile rf = getSimpleRegionFile(world, x, z);
-		InputStream in = rf.getInputStream(x, z);
-		if (in == null) {
+	/**
+	 * Reads the compressed data of several chunks in one region file, in a single pass over the file
+	 * @param world of the region
+	 * @param rx coordinate of the region
+	 * @param rz coordinate of the region
+	 * @param chunks indexes of the chunks to read, (x &amp; 31) * 32 + (z &amp; 31)
+	 * @return the compressed data of each chunk by index, or null if the region has no file
+	 * @throws IOException
+	 */
+	byte[][] readRegion(World world, int rx, int rz, BitSet chunks) throws IOException {
+		RegionFileCache.Handle handle = regionFiles.acquire(world, rx, rz, false);
+		if (handle == null) {
 			return null;
 		}
-		ObjectInputStream objectStream = new ObjectInputStream(in);
 		try {
-			Object o = objectStream.readObject();
+			SimpleRegionFile rf = handle.getFile();
+			synchronized (rf) {
+				return rf.readChunks(chunks);
+			}
+		} finally {
+			regionFiles.release(handle);
+		}
+	}
+
+	/**
+	 * Decodes the compressed data of a chunk, as returned by {@link #readRegion(World, int, int, BitSet)}
+	 * @param compressed data
+	 * @param world of the chunk
+	 * @param x coordinate of the chunk
+	 * @param z coordinate of the chunk
+	 * @param worldItemMap of the world
+	 * @return data, or null if it could not be read
+	 * @throws IOException
+	 */
+	ChunkMetaData decode(byte[] compressed, World world, int x, int z, ItemMap worldItemMap) throws IOException {
+		return read(new PooledInflaterInputStream(compressed), world, x, z, worldItemMap);
+	}
+
+	private ChunkMetaData read(InputStream raw, World world, int x, int z, ItemMap worldItemMap) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(raw));
+		ObjectInputStream objectStream = null;
+		try {
+			in.mark(4);
+			int magic = in.readInt();
+			in.reset();
+			if (magic == ChunkMetaData.MAGIC_NUMBER) {
+				return ChunkMetaData.read(in, world, worldItemMap);
+			}
+			objectStream = new ObjectInputStream(in);
+			Object o = ChunkMetaData.readObject(objectStream, world);
 			if (o instanceof ChunkMetaData) {
 				return (ChunkMetaData) o;
 			} else {
@@ -71,6 +206,12 @@ public class ChunkStore {
 			//System.out.println("[Spout] is Unable to find serialized class for " + x + ", " + z + ", " + e.getMessage());
 			return null;
 			//throw new RuntimeException("Unable to find serialized class for " + x + ", " + z, e);
+		} finally {
+			if (objectStream != null) {
+				objectStream.close();
+			} else {
+				in.close();
+			}
 		}
 	}
 
@@ -79,51 +220,142 @@ public class ChunkStore {
 			return;
 		}
 		try {
-			SimpleRegionFile rf = getSimpleRegionFile(world, x, z);
-			ObjectOutputStream objectStream = new ObjectOutputStream(rf.getOutputStream(x, z));
-			objectStream.writeObject(data);
-			objectStream.flush();
-			objectStream.close();
+			write(world, x, z, data, true);
 			data.setDirty(false);
 		} catch (IOException e) {
 			throw new RuntimeException("Unable to write chunk meta data for " + x + ", " + z, e);
 		}
 	}
-	
-	public void closeChunkMetaData(World world, int x, int z) {
-		SimpleRegionFile rf = getSimpleRegionFile(world, x, z);
-		if (rf != null) {
-			rf.close();
-		}
-	}
-
-	private SimpleRegionFile getSimpleRegionFile(World world, int x, int z) {
-		File directory = new File(world.getWorldFolder(), "spout_meta");
 
-		directory.mkdirs();
-
-		UUID key = world.getUID();
-
-		HashMap<Long, SimpleRegionFile> worldRegions = regionFiles.get(key);
+	/**
+	 * Serializes and compresses the data, then writes it to its region file.
+	 * <p/>
+	 * Only the final write holds the lock on the region file.
+	 * @param world of the chunk
+	 * @param x coordinate of the chunk
+	 * @param z coordinate of the chunk
+	 * @param data to write
+	 * @throws IOException
+	 */
+	void write(World world, int x, int z, ChunkMetaData data) throws IOException {
+		write(world, x, z, data, false);
+	}
 
-		if (worldRegions == null) {
-			worldRegions = new HashMap<Long, SimpleRegionFile>();
-			regionFiles.put(key, worldRegions);
+	private void write(World world, int x, int z, ChunkMetaData data, boolean flush) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+		DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes));
+		data.write(out);
+		out.close();
+		byte[] compressed = bytes.toByteArray();
+		RegionFileCache.Handle handle = regionFiles.acquire(world, x >> 5, z >> 5, true);
+		try {
+			SimpleRegionFile rf = handle.getFile();
+			synchronized (rf) {
+				rf.write(x, z, compressed, compressed.length);
+				if (flush) {
+					rf.flush();
+				}
+			}
+		} finally {
+			regionFiles.release(handle);
 		}
+	}
 
-		int rx = x >> 5;
-		int rz = z >> 5;
+	/**
+	 * Ends a batch of writes, writing the changed headers of all open region files
+	 * @throws IOException
+	 */
+	public void flushAll() throws IOException {
+		List<RegionFileCache.Handle> handles = regionFiles.acquireAll();
+		try {
+			for (RegionFileCache.Handle handle : handles) {
+				SimpleRegionFile rf = handle.getFile();
+				synchronized (rf) {
+					rf.flush();
+				}
+			}
+		} finally {
+			for (RegionFileCache.Handle handle : handles) {
+				regionFiles.release(handle);
+			}
+		}
+	}
 
-		long key2 = (((long) rx) << 32) | (((long) rz) & 0xFFFFFFFFL);
+	/**
+	 * Closes the region file of a chunk, if it is open and not in use
+	 * @param world of the chunk
+	 * @param x coordinate of the chunk
+	 * @param z coordinate of the chunk
+	 */
+	public void closeChunkMetaData(World world, int x, int z) {
+		regionFiles.close(world, x >> 5, z >> 5);
+	}
 
-		SimpleRegionFile regionFile = worldRegions.get(key2);
+	/**
+	 * Gets the segment usage of every region file of a world
+	 * @param world to check
+	 * @return fragmentation
+	 * @throws IOException
+	 */
+	public RegionFragmentation getFragmentation(World world) throws IOException {
+		RegionFragmentation fragmentation = new RegionFragmentation();
+		for (long region : getRegions(world)) {
+			RegionFileCache.Handle handle = regionFiles.acquire(world, (int) (region >> 32), (int) region, false);
+			if (handle == null) {
+				continue;
+			}
+			try {
+				SimpleRegionFile rf = handle.getFile();
+				synchronized (rf) {
+					fragmentation.add(rf);
+				}
+			} finally {
+				regionFiles.release(handle);
+			}
+		}
+		return fragmentation;
+	}
 
-		if (regionFile == null) {
-			File file = new File(directory, "spout_" + rx + "_" + rz + "_.spm");
-			regionFile = new SimpleRegionFile(file, rx, rz);
-			worldRegions.put(key2, regionFile);
+	/**
+	 * Compacts every region file of a world, one file at a time, so chunks in other region files can still be read and written
+	 * @param world to compact
+	 * @throws IOException
+	 */
+	public void compact(World world) throws IOException {
+		for (long region : getRegions(world)) {
+			RegionFileCache.Handle handle = regionFiles.acquire(world, (int) (region >> 32), (int) region, false);
+			if (handle == null) {
+				continue;
+			}
+			try {
+				SimpleRegionFile rf = handle.getFile();
+				synchronized (rf) {
+					rf.compact();
+				}
+			} finally {
+				regionFiles.release(handle);
+			}
 		}
+	}
 
-		return regionFile;
+	private List<Long> getRegions(World world) {
+		List<Long> regions = new ArrayList<Long>();
+		File[] files = new File(world.getWorldFolder(), "spout_meta").listFiles();
+		if (files == null) {
+			return regions;
+		}
+		for (File file : files) {
+			String[] parts = file.getName().split("_");
+			if (parts.length != 4 || !parts[0].equals("spout") || !parts[3].equals(".spm")) {
+				continue;
+			}
+			try {
+				int rx = Integer.parseInt(parts[1]);
+				int rz = Integer.parseInt(parts[2]);
+				regions.add((((long) rx) << 32) | (((long) rz) & 0xFFFFFFFFL));
+			} catch (NumberFormatException ignore) {
+			}
+		}
+		return regions;
 	}
 }
@@ -0,0 +1,395 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spoutapi.chunkstore;
+
+import java.util.Arrays;
+
+import org.getspout.spoutapi.inventory.ItemMap;
+
+/**
+ * Stores a short for every block of a chunk, in 16x16x16 sections.
+ * <p/>
+ * Sections that only hold zero are not allocated. Other sections keep a palette of the values they hold, and pack the palette index of each block into as few bits as the palette needs.
+ * A section holding a single value needs no indices at all.
+ * <p/>
+ * Only one thread may change a store, but other threads may read it while it changes. A reader sees each block's old or new value, never a mix of two sections' states.
+ */
+public class PalettedBlockStore {
+	private final Section[] sections;
+	private final int heightMask;
+
+	/**
+	 * Creates an empty store
+	 * @param height of the world, a multiple of 16
+	 */
+	public PalettedBlockStore(int height) {
+		sections = new Section[height >> 4];
+		heightMask = height - 1;
+	}
+
+	private PalettedBlockStore(PalettedBlockStore source) {
+		sections = new Section[source.sections.length];
+		heightMask = source.heightMask;
+		for (int i = 0; i < sections.length; i++) {
+			if (source.sections[i] != null) {
+				sections[i] = new Section(source.sections[i]);
+			}
+		}
+	}
+
+	/**
+	 * Creates a store holding the values of a dense array, indexed as ((x &lt;&lt; xBitShifts) | (z &lt;&lt; zBitShifts) | y)
+	 * @param dense values
+	 * @param height of the world
+	 * @param xBitShifts of the array
+	 * @param zBitShifts of the array
+	 * @return store
+	 */
+	public static PalettedBlockStore fromDense(short[] dense, int height, int xBitShifts, int zBitShifts) {
+		PalettedBlockStore store = new PalettedBlockStore(height);
+		for (int i = 0; i < dense.length; i++) {
+			if (dense[i] != 0) {
+				store.set((i >> xBitShifts) & 0xF, i & store.heightMask, (i >> zBitShifts) & 0xF, dense[i]);
+			}
+		}
+		return store;
+	}
+
+	/**
+	 * Creates a store holding the values of a dense array, indexed as ((x &lt;&lt; xBitShifts) | (z &lt;&lt; zBitShifts) | y)
+	 * @param dense values
+	 * @param height of the world
+	 * @param xBitShifts of the array
+	 * @param zBitShifts of the array
+	 * @return store
+	 */
+	public static PalettedBlockStore fromDense(byte[] dense, int height, int xBitShifts, int zBitShifts) {
+		PalettedBlockStore store = new PalettedBlockStore(height);
+		for (int i = 0; i < dense.length; i++) {
+			if (dense[i] != 0) {
+				store.set((i >> xBitShifts) & 0xF, i & store.heightMask, (i >> zBitShifts) & 0xF, dense[i]);
+			}
+		}
+		return store;
+	}
+
+	/**
+	 * Creates a copy of this store
+	 * @return copy
+	 */
+	public PalettedBlockStore copy() {
+		return new PalettedBlockStore(this);
+	}
+
+	public short get(int x, int y, int z) {
+		y &= heightMask;
+		Section section = sections[y >> 4];
+		if (section == null) {
+			return 0;
+		}
+		return section.get(index(x, y, z));
+	}
+
+	/**
+	 * Sets the value of a block
+	 * @param x coordinate of the block, only the lowest 4 bits are used
+	 * @param y coordinate of the block
+	 * @param z coordinate of the block, only the lowest 4 bits are used
+	 * @param value to set
+	 * @return the old value
+	 */
+	public short set(int x, int y, int z, short value) {
+		y &= heightMask;
+		int s = y >> 4;
+		Section section = sections[s];
+		if (section == null) {
+			if (value == 0) {
+				return 0;
+			}
+			section = new Section((short) 0);
+		}
+		int i = index(x, y, z);
+		short old = section.get(i);
+		if (old == value) {
+			return old;
+		}
+		int p = section.indexOf(value);
+		if (p < 0) {
+			//The palette can not change in place, readers may be using it
+			section = section.withValue(value);
+			p = section.indexOf(value);
+		}
+		section.setIndex(i, p);
+		if (section.nonZero == 0) {
+			sections[s] = null;
+		} else if (section.counts[p] == 4096 && section.bits > 0) {
+			//Every block holds the same value, drop the indices
+			sections[s] = new Section(value);
+		} else {
+			sections[s] = section;
+		}
+		return old;
+	}
+
+	/**
+	 * Checks if a 16 block high section holds only zero
+	 * @param section index, y &gt;&gt; 4
+	 * @return true if the section is empty
+	 */
+	public boolean isEmpty(int section) {
+		return sections[section] == null;
+	}
+
+	/**
+	 * Checks if every block is zero
+	 * @return true if the store is empty
+	 */
+	public boolean isEmpty() {
+		for (Section section : sections) {
+			if (section != null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the number of 16 block high sections
+	 * @return sections
+	 */
+	public int getSections() {
+		return sections.length;
+	}
+
+	/**
+	 * Gets the number of blocks that are not zero
+	 * @return count
+	 */
+	public int count() {
+		int count = 0;
+		for (Section section : sections) {
+			if (section != null) {
+				count += section.nonZero;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Creates a dense array of the values, indexed as ((x &lt;&lt; xBitShifts) | (z &lt;&lt; zBitShifts) | y)
+	 * @param xBitShifts of the array
+	 * @param zBitShifts of the array
+	 * @return values
+	 */
+	public short[] toDense(int xBitShifts, int zBitShifts) {
+		short[] dense = new short[sections.length << 12];
+		for (int s = 0; s < sections.length; s++) {
+			Section section = sections[s];
+			if (section == null) {
+				continue;
+			}
+			for (int i = 0; i < 4096; i++) {
+				short value = section.get(i);
+				if (value != 0) {
+					dense[((i & 0xF) << xBitShifts) | (((i >> 4) & 0xF) << zBitShifts) | (s << 4) | (i >> 8)] = value;
+				}
+			}
+		}
+		return dense;
+	}
+
+	/**
+	 * Creates a dense array of the values, indexed as ((x &lt;&lt; xBitShifts) | (z &lt;&lt; zBitShifts) | y)
+	 * @param xBitShifts of the array
+	 * @param zBitShifts of the array
+	 * @return values, truncated to bytes
+	 */
+	public byte[] toDenseBytes(int xBitShifts, int zBitShifts) {
+		byte[] dense = new byte[sections.length << 12];
+		for (int s = 0; s < sections.length; s++) {
+			Section section = sections[s];
+			if (section == null) {
+				continue;
+			}
+			for (int i = 0; i < 4096; i++) {
+				short value = section.get(i);
+				if (value != 0) {
+					dense[((i & 0xF) << xBitShifts) | (((i >> 4) & 0xF) << zBitShifts) | (s << 4) | (i >> 8)] = (byte) value;
+				}
+			}
+		}
+		return dense;
+	}
+
+	/**
+	 * Converts every id from one item map to another. Only the palettes are converted, not each block.
+	 * @param from map the ids are local to
+	 * @param to map to convert the ids to
+	 * @return number of distinct ids that had no match in the other map, and were replaced with zero
+	 */
+	public int convert(ItemMap from, ItemMap to) {
+		int lost = 0;
+		for (int s = 0; s < sections.length; s++) {
+			Section section = sections[s];
+			if (section == null) {
+				continue;
+			}
+			short[] palette = section.palette.clone();
+			lost += from.convertTo(to, palette, 0, section.size);
+			Section converted = section.withPalette(palette);
+			sections[s] = converted.nonZero == 0 ? null : converted;
+		}
+		return lost;
+	}
+
+	private static int index(int x, int y, int z) {
+		return ((y & 0xF) << 8) | ((z & 0xF) << 4) | (x & 0xF);
+	}
+
+	/**
+	 * The blocks of one section.
+	 * <p/>
+	 * The palette, its size and the number of bits per index never change once a section is created, so they always match for a reader.
+	 * Adding a value to the palette creates a new section with its own copy of the indices, which replaces the old one in the store.
+	 * Only the indices of the newest section are written in place, so a reader of an older section never sees an index its palette does not hold. The palette always has 1 &lt;&lt; bits entries, so any index a reader sees is inside it.
+	 * The counts of each palette entry are only used by the thread changing the store.
+	 */
+	private static class Section {
+		private final short[] palette;
+		private final int size;
+		private final int bits;
+		private final long[] indices;
+		private final int[] counts;
+		private int nonZero;
+
+		/**
+		 * Creates a section where every block holds the same value
+		 * @param value of every block
+		 */
+		Section(short value) {
+			this(new short[] {value}, 1, 0, null, new int[] {4096}, value == 0 ? 0 : 4096);
+		}
+
+		Section(Section source) {
+			this(source.palette.clone(), source.size, source.bits, source.indices == null ? null : source.indices.clone(), source.counts.clone(), source.nonZero);
+		}
+
+		private Section(short[] palette, int size, int bits, long[] indices, int[] counts, int nonZero) {
+			this.palette = palette;
+			this.size = size;
+			this.bits = bits;
+			this.indices = indices;
+			this.counts = counts;
+			this.nonZero = nonZero;
+		}
+
+		short get(int i) {
+			return palette[getIndex(i)];
+		}
+
+		/**
+		 * Points a block at a palette entry, in place
+		 * @param i index of the block
+		 * @param p palette entry
+		 */
+		void setIndex(int i, int p) {
+			int perLong = 64 / bits;
+			int word = i / perLong;
+			int shift = (i % perLong) * bits;
+			long mask = ((1L << bits) - 1) << shift;
+			int oldP = (int) ((indices[word] & mask) >>> shift);
+			indices[word] = (indices[word] & ~mask) | ((long) p << shift);
+			counts[oldP]--;
+			counts[p]++;
+			if (palette[oldP] == 0 && palette[p] != 0) {
+				nonZero++;
+			} else if (palette[oldP] != 0 && palette[p] == 0) {
+				nonZero--;
+			}
+		}
+
+		/**
+		 * Creates a copy of this section with the value added to its palette.
+		 * <p/>
+		 * An entry no block points at is reused, otherwise the value is added to the end of the palette, widening the indices if needed.
+		 * @param value to add
+		 * @return new section
+		 */
+		Section withValue(short value) {
+			for (int p = 0; p < size; p++) {
+				if (counts[p] == 0) {
+					short[] newPalette = palette.clone();
+					newPalette[p] = value;
+					return new Section(newPalette, size, bits, indices.clone(), counts.clone(), nonZero);
+				}
+			}
+			int newBits = bits;
+			while (size + 1 > (1 << newBits)) {
+				newBits++;
+			}
+			short[] newPalette = Arrays.copyOf(palette, 1 << newBits);
+			newPalette[size] = value;
+			int[] newCounts = Arrays.copyOf(counts, 1 << newBits);
+			long[] newIndices = newBits == bits ? indices.clone() : resize(newBits);
+			return new Section(newPalette, size + 1, newBits, newIndices, newCounts, nonZero);
+		}
+
+		/**
+		 * Creates a copy of this section with another palette of the same size
+		 * @param newPalette to use
+		 * @return new section
+		 */
+		Section withPalette(short[] newPalette) {
+			int newNonZero = 0;
+			for (int p = 0; p < size; p++) {
+				if (newPalette[p] != 0) {
+					newNonZero += counts[p];
+				}
+			}
+			return new Section(newPalette, size, bits, indices == null ? null : indices.clone(), counts.clone(), newNonZero);
+		}
+
+		private int getIndex(int i) {
+			if (bits == 0) {
+				return 0;
+			}
+			int perLong = 64 / bits;
+			return (int) (indices[i / perLong] >>> ((i % perLong) * bits)) & ((1 << bits) - 1);
+		}
+
+		private int indexOf(short value) {
+			for (int i = 0; i < size; i++) {
+				if (palette[i] == value) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private long[] resize(int newBits) {
+			int perLong = 64 / newBits;
+			long[] resized = new long[(4096 + perLong - 1) / perLong];
+			for (int i = 0; i < 4096; i++) {
+				resized[i / perLong] |= (long) getIndex(i) << ((i % perLong) * newBits);
+			}
+			return resized;
+		}
+	}
+}
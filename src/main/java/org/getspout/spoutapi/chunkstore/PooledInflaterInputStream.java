@@ -0,0 +1,72 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spoutapi.chunkstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Inflates the compressed data of a chunk, using a pooled inflater.
+ * <p/>
+ * The inflater is returned to the pool when the stream is closed.
+ */
+class PooledInflaterInputStream extends InflaterInputStream {
+	private static final int POOL_SIZE = 16;
+	private static final ConcurrentLinkedQueue<Inflater> pool = new ConcurrentLinkedQueue<Inflater>();
+	private static final AtomicInteger pooled = new AtomicInteger(0);
+	private boolean closed = false;
+
+	PooledInflaterInputStream(byte[] compressed) {
+		super(new ByteArrayInputStream(compressed), acquire(), 4096);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			Inflater inflater = inf;
+			super.close();
+			release(inflater);
+		}
+	}
+
+	private static Inflater acquire() {
+		Inflater inflater = pool.poll();
+		if (inflater == null) {
+			return new Inflater();
+		}
+		pooled.decrementAndGet();
+		return inflater;
+	}
+
+	private static void release(Inflater inflater) {
+		if (pooled.incrementAndGet() <= POOL_SIZE) {
+			inflater.reset();
+			pool.offer(inflater);
+		} else {
+			pooled.decrementAndGet();
+			inflater.end();
+		}
+	}
+}
@@ -0,0 +1,304 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spoutapi.chunkstore;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+
+import org.bukkit.World;
+
+/**
+ * Keeps a bounded number of region files open, closing the least recently used ones.
+ * <p/>
+ * Region files are acquired before use and released after, and a file is only closed while nothing holds it.
+ * If every open file is held, more files than the limit stay open until they are released.
+ * <p/>
+ * Files are taken out of the cache under its lock, but closed after it is released, as closing forces the file to disk.
+ * A region being closed is not opened again until the close is done.
+ * <p/>
+ * A region file is not thread safe, callers synchronize on the {@link SimpleRegionFile} while using it.
+ */
+class RegionFileCache {
+	//Keys hold region coordinates, not chunk coordinates
+	private final LinkedHashMap<ChunkKey, Handle> open = new LinkedHashMap<ChunkKey, Handle>(16, 0.75F, true);
+	//Files taken out of the cache that are still being closed
+	private final HashMap<ChunkKey, Handle> closing = new HashMap<ChunkKey, Handle>();
+	private int capacity = 256;
+	private long opened = 0;
+	private long evicted = 0;
+	private long idleClosed = 0;
+
+	/**
+	 * Sets the number of region files kept open
+	 * @param capacity in files
+	 */
+	void setCapacity(int capacity) {
+		List<Handle> victims;
+		synchronized (this) {
+			this.capacity = Math.max(1, capacity);
+			victims = evict();
+		}
+		closeFiles(victims);
+	}
+
+	synchronized int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Gets a region file, opening it if needed. It must be released when no longer used.
+	 * @param world of the region
+	 * @param rx coordinate of the region
+	 * @param rz coordinate of the region
+	 * @param create true to create the file if it does not exist
+	 * @return region file, or null if it does not exist and was not created
+	 */
+	Handle acquire(World world, int rx, int rz, boolean create) {
+		Handle handle;
+		List<Handle> victims;
+		synchronized (this) {
+			ChunkKey key = new ChunkKey(world.getUID(), rx, rz);
+			awaitClosed(key);
+			handle = open.get(key);
+			if (handle == null) {
+				File directory = new File(world.getWorldFolder(), "spout_meta");
+				File file = new File(directory, "spout_" + rx + "_" + rz + "_.spm");
+				if (!create && !file.exists()) {
+					return null;
+				}
+				directory.mkdirs();
+				handle = new Handle(key, new SimpleRegionFile(file, rx, rz));
+				open.put(key, handle);
+				opened++;
+			}
+			handle.refs++;
+			victims = evict();
+		}
+		closeFiles(victims);
+		return handle;
+	}
+
+	/**
+	 * Releases a region file acquired earlier
+	 * @param handle to release
+	 */
+	void release(Handle handle) {
+		List<Handle> victims;
+		synchronized (this) {
+			handle.refs--;
+			victims = evict();
+		}
+		closeFiles(victims);
+	}
+
+	/**
+	 * Acquires every open region file, each must be released
+	 * @return open files
+	 */
+	synchronized List<Handle> acquireAll() {
+		List<Handle> handles = new ArrayList<Handle>(open.size());
+		for (Handle handle : open.values()) {
+			handle.refs++;
+			handles.add(handle);
+		}
+		return handles;
+	}
+
+	/**
+	 * Closes the region files of a world, or of every world, that nothing holds
+	 * @param world to close, or null for every world
+	 * @return number of files closed
+	 */
+	int close(UUID world) {
+		List<Handle> victims = new ArrayList<Handle>();
+		synchronized (this) {
+			Iterator<Handle> i = open.values().iterator();
+			while (i.hasNext()) {
+				Handle handle = i.next();
+				if (handle.refs == 0 && (world == null || handle.key.getWorld().equals(world))) {
+					i.remove();
+					retire(handle, victims);
+				}
+			}
+		}
+		closeFiles(victims);
+		return victims.size();
+	}
+
+	/**
+	 * Closes a region file, if nothing holds it
+	 * @param world of the region
+	 * @param rx coordinate of the region
+	 * @param rz coordinate of the region
+	 * @return true if the file was closed
+	 */
+	boolean close(World world, int rx, int rz) {
+		List<Handle> victims = new ArrayList<Handle>(1);
+		synchronized (this) {
+			ChunkKey key = new ChunkKey(world.getUID(), rx, rz);
+			Handle handle = open.get(key);
+			if (handle == null || handle.refs > 0) {
+				return false;
+			}
+			open.remove(key);
+			retire(handle, victims);
+		}
+		closeFiles(victims);
+		return true;
+	}
+
+	/**
+	 * Closes the region files that nothing holds and that have been idle longer than the timeout
+	 * @return number of files closed
+	 * @see SimpleRegionFile#setTimeout(long)
+	 */
+	int closeIdle() {
+		List<Handle> victims = new ArrayList<Handle>();
+		synchronized (this) {
+			Iterator<Handle> i = open.values().iterator();
+			while (i.hasNext()) {
+				Handle handle = i.next();
+				if (handle.refs == 0 && handle.file.isIdle()) {
+					i.remove();
+					retire(handle, victims);
+				}
+			}
+			idleClosed += victims.size();
+		}
+		closeFiles(victims);
+		return victims.size();
+	}
+
+	/**
+	 * Gets the number of region files open
+	 * @return open files
+	 */
+	synchronized int getOpenCount() {
+		return open.size();
+	}
+
+	/**
+	 * Gets the number of region files opened since startup
+	 * @return opened files
+	 */
+	synchronized long getOpened() {
+		return opened;
+	}
+
+	/**
+	 * Gets the number of region files closed because too many were open
+	 * @return evicted files
+	 */
+	synchronized long getEvicted() {
+		return evicted;
+	}
+
+	/**
+	 * Gets the number of region files closed because they were idle
+	 * @return idle files closed
+	 */
+	synchronized long getIdleClosed() {
+		return idleClosed;
+	}
+
+	private List<Handle> evict() {
+		List<Handle> victims = new ArrayList<Handle>(0);
+		if (open.size() <= capacity) {
+			return victims;
+		}
+		//Least recently used first
+		Iterator<Handle> i = open.values().iterator();
+		while (i.hasNext() && open.size() > capacity) {
+			Handle handle = i.next();
+			if (handle.refs == 0) {
+				i.remove();
+				retire(handle, victims);
+				evicted++;
+			}
+		}
+		return victims;
+	}
+
+	private void retire(Handle handle, List<Handle> victims) {
+		closing.put(handle.key, handle);
+		victims.add(handle);
+	}
+
+	/**
+	 * Waits until a region's old file has been closed, so the region is never open twice. Must hold the cache lock.
+	 * @param key of the region
+	 */
+	private void awaitClosed(ChunkKey key) {
+		boolean interrupted = false;
+		while (closing.containsKey(key)) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Closes files taken out of the cache. Must not hold the cache lock.
+	 * <p/>
+	 * A file that fails to close is logged and skipped, so the caller still gets its result.
+	 * @param victims to close
+	 */
+	private void closeFiles(List<Handle> victims) {
+		for (Handle handle : victims) {
+			try {
+				synchronized (handle.file) {
+					handle.file.close();
+				}
+			} catch (RuntimeException e) {
+				System.out.println("[Spout] Unable to close chunk meta data region file, " + e.getMessage());
+			} finally {
+				synchronized (this) {
+					closing.remove(handle.key);
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	static class Handle {
+		private final ChunkKey key;
+		private final SimpleRegionFile file;
+		private int refs = 0;
+
+		Handle(ChunkKey key, SimpleRegionFile file) {
+			this.key = key;
+			this.file = file;
+		}
+
+		SimpleRegionFile getFile() {
+			return file;
+		}
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spoutapi.chunkstore;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Compacts spout_meta region files while the server is stopped.
+ * <p/>
+ * Usage: java -cp Spout.jar org.getspout.spoutapi.chunkstore.RegionFileCompactor &lt;world folder or .spm file&gt;...
+ */
+public class RegionFileCompactor {
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			System.out.println("Usage: RegionFileCompactor <world folder or .spm file>...");
+			return;
+		}
+		for (String arg : args) {
+			File file = new File(arg);
+			if (file.isDirectory()) {
+				File meta = new File(file, "spout_meta");
+				File[] files = (meta.isDirectory() ? meta : file).listFiles();
+				if (files != null) {
+					for (File f : files) {
+						if (f.getName().endsWith(".spm")) {
+							compact(f);
+						}
+					}
+				}
+			} else {
+				compact(file);
+			}
+		}
+	}
+
+	private static void compact(File file) {
+		long before = file.length();
+		try {
+			SimpleRegionFile.compact(file);
+			System.out.println(file.getPath() + ": " + (before / 1024) + "KB -> " + (file.length() / 1024) + "KB");
+		} catch (IOException e) {
+			System.out.println(file.getPath() + ": unable to compact, " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spoutapi.chunkstore;
+
+import java.io.IOException;
+
+/**
+ * Segment usage totals for a group of region files
+ */
+public class RegionFragmentation {
+	private int files = 0;
+	private long segments = 0;
+	private long usedSegments = 0;
+	private long bytes = 0;
+
+	void add(SimpleRegionFile regionFile) throws IOException {
+		int count = regionFile.getSegmentCount();
+		files++;
+		segments += count;
+		usedSegments += regionFile.getUsedSegmentCount();
+		bytes += (long) count * regionFile.getSegmentSize();
+	}
+
+	/**
+	 * Gets the number of region files
+	 * @return region files
+	 */
+	public int getFiles() {
+		return files;
+	}
+
+	/**
+	 * Gets the number of segments in the region files
+	 * @return segments
+	 */
+	public long getSegments() {
+		return segments;
+	}
+
+	/**
+	 * Gets the number of segments holding headers or chunk data
+	 * @return used segments
+	 */
+	public long getUsedSegments() {
+		return usedSegments;
+	}
+
+	/**
+	 * Gets the total size of the region files
+	 * @return size in bytes
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Gets the share of the region files that is free space
+	 * @return fraction of segments that are free, from 0 to 1
+	 */
+	public double getFragmentation() {
+		return segments == 0 ? 0 : (double) (segments - usedSegments) / segments;
+	}
+}
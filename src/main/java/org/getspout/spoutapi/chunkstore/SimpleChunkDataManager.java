@@ -22,12 +22,12 @@ package org.getspout.spoutapi.chunkstore;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
-import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TLongHashSet;
 
 import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
@@ -35,17 +35,109 @@ import org.bukkit.World;
 
 import org.getspout.spoutapi.chunkdatamanager.ChunkDataManager;
 import org.getspout.spoutapi.inventory.ItemMap;
-import org.getspout.spoutapi.io.store.FlatFileStore;
+import org.getspout.spoutapi.io.store.IntJournalStore;
 
 public class SimpleChunkDataManager implements ChunkDataManager {
 	private ChunkStore chunkStore = new ChunkStore();
-	private HashMap<UUID, TLongObjectHashMap<ChunkMetaData>> chunkMetaDataLoaded = new HashMap<UUID, TLongObjectHashMap<ChunkMetaData>>();
-	private HashMap<UUID, ItemMap> worldItemMaps = new HashMap<UUID, ItemMap>();
+	private ChunkSaveQueue saveQueue = new ChunkSaveQueue(chunkStore);
+	private ChunkMetaDataBulkLoader bulkLoader = new ChunkMetaDataBulkLoader(chunkStore);
+	private ConcurrentHashMap<UUID, ChunkMetaDataRegistry> chunkMetaDataLoaded = new ConcurrentHashMap<UUID, ChunkMetaDataRegistry>();
+	private ConcurrentHashMap<UUID, ItemMap> worldItemMaps = new ConcurrentHashMap<UUID, ItemMap>();
+	private final ChunkMetaDataRegistry.Loader loader = new ChunkMetaDataRegistry.Loader() {
+		@Override
+		public ChunkMetaData read(World world, int x, int z) throws IOException {
+			return attachMetaData(world, x, z, prefetcher.read(world, x, z));
+		}
+
+		@Override
+		public ChunkMetaData create(World world, int x, int z) {
+			return new ChunkMetaData(world, getWorldItemMap(world), x, z);
+		}
+	};
+	private final ChunkMetaDataPrefetcher prefetcher = new ChunkMetaDataPrefetcher(new ChunkMetaDataPrefetcher.Source() {
+		@Override
+		public boolean isLoaded(World world, int x, int z) {
+			return getRegistry(world.getUID()).contains(x, z);
+		}
+
+		@Override
+		public ChunkMetaData read(World world, int x, int z) throws IOException {
+			return readMetaData(world, x, z);
+		}
+	});
 
 	public void closeAllFiles() {
+		prefetcher.shutdown();
+		saveQueue.shutdown();
 		chunkStore.closeAll();
 	}
 
+	/**
+	 * Waits until all queued chunk saves have been written
+	 */
+	public void flushSaves() {
+		saveQueue.flush();
+	}
+
+	public ChunkSaveQueue getSaveQueue() {
+		return saveQueue;
+	}
+
+	public ChunkStore getChunkStore() {
+		return chunkStore;
+	}
+
+	public ChunkMetaDataPrefetcher getPrefetcher() {
+		return prefetcher;
+	}
+
+	/**
+	 * Requests the chunks within a radius of a chunk to be prefetched, nearest first
+	 * <p/>
+	 * Chunks that are already loaded are skipped.
+	 * @param world of the chunks
+	 * @param cx coordinate of the center chunk
+	 * @param cz coordinate of the center chunk
+	 * @param radius in chunks
+	 */
+	public void prefetch(World world, int cx, int cz, int radius) {
+		if (!prefetcher.isEnabled()) {
+			return;
+		}
+		ChunkMetaDataRegistry registry = getRegistry(world.getUID());
+		for (int r = 0; r <= radius; r++) {
+			for (int x = cx - r; x <= cx + r; x++) {
+				//Only the edge of each ring, the inside was done by the smaller rings
+				int step = (x == cx - r || x == cx + r) ? 1 : Math.max(1, r * 2);
+				for (int z = cz - r; z <= cz + r; z += step) {
+					if (!world.isChunkLoaded(x, z) && !registry.contains(x, z)) {
+						prefetcher.request(world, x, z);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the segment usage of the meta data region files of a world
+	 * @param world to check
+	 * @return fragmentation
+	 * @throws IOException
+	 */
+	public RegionFragmentation getFragmentation(World world) throws IOException {
+		return chunkStore.getFragmentation(world);
+	}
+
+	/**
+	 * Writes all queued saves, then compacts the meta data region files of a world
+	 * @param world to compact
+	 * @throws IOException
+	 */
+	public void compact(World world) throws IOException {
+		saveQueue.flush();
+		chunkStore.compact(world);
+	}
+
 	public ChunkMetaData loadChunk(Chunk c) {
 		return loadChunk(c.getWorld(), c.getX(), c.getZ());
 	}
@@ -55,16 +147,45 @@ public class SimpleChunkDataManager implements ChunkDataManager {
 		return md;
 	}
 
+	/**
+	 * Loads the data of every loaded chunk in a world, reading each region file once and decoding in parallel
+	 * @param w world to load
+	 * @return true if any chunk was loaded
+	 */
 	public boolean loadWorldChunks(World w) {
+		long start = System.nanoTime();
 		Chunk[] chunks = w.getLoadedChunks();
+		ChunkMetaDataRegistry registry = getRegistry(w.getUID());
 
-		boolean loaded = false;
-
+		List<Chunk> unloaded = new ArrayList<Chunk>(chunks.length);
 		for (Chunk c : chunks) {
-			loaded |= loadChunk(c) != null;
+			if (!registry.contains(c.getX(), c.getZ())) {
+				unloaded.add(c);
+			}
+		}
+		if (unloaded.isEmpty()) {
+			return chunks.length > 0;
 		}
 
-		return loaded;
+		//The chunks are read without waiting for their saves one by one
+		saveQueue.flush();
+		ItemMap worldItemMap = getWorldItemMap(w);
+		TLongHashSet empty = new TLongHashSet();
+		List<ChunkMetaData> loaded = bulkLoader.load(w, unloaded, worldItemMap, empty);
+		for (ChunkMetaData md : loaded) {
+			md.setWorldItemMap(worldItemMap);
+		}
+		int stored = loaded.size();
+		//Only chunks known to have no data get empty data, the rest are read again one at a time when they are used
+		for (Chunk c : unloaded) {
+			if (empty.contains(ChunkMetaDataRegistry.key(c.getX(), c.getZ()))) {
+				loaded.add(loader.create(w, c.getX(), c.getZ()));
+			}
+		}
+		registry.putAll(loaded);
+
+		System.out.println("[Spout] Loaded chunk meta data for " + loaded.size() + " of " + unloaded.size() + " chunks (" + stored + " stored) in " + w.getName() + " in " + ((System.nanoTime() - start) / 1000000L) + "ms");
+		return true;
 	}
 
 	public boolean loadAllChunks() {
@@ -87,7 +208,7 @@ public class SimpleChunkDataManager implements ChunkDataManager {
 		ChunkMetaData md = getMetaData(w, x, z, false, false);
 
 		if (md != null) {
-			chunkStore.writeChunkMetaData(w, x, z, md);
+			saveQueue.save(w, x, z, md);
 			return true;
 		} else {
 			return false;
@@ -115,24 +236,27 @@ public class SimpleChunkDataManager implements ChunkDataManager {
 
 	public boolean saveWorldChunks(World world, boolean unload) {
 		boolean unloaded = false;
-		synchronized (chunkMetaDataLoaded) {
-			TLongObjectHashMap<ChunkMetaData> worldChunks = chunkMetaDataLoaded.get(world.getUID());
+		ChunkMetaDataRegistry worldChunks = chunkMetaDataLoaded.get(world.getUID());
 
-			if (worldChunks == null) {
-				return false;
-			}
+		if (worldChunks == null) {
+			return false;
+		}
 
-			Collection<ChunkMetaData> chunks = worldChunks.valueCollection();
+		List<ChunkMetaData> chunks = worldChunks.getLoaded();
 
-			for (ChunkMetaData md : chunks) {
-				unloaded |= saveChunk(world, md.getChunkX(), md.getChunkZ());
-				if (unload) {
-					closeChunk(world, md.getChunkX(), md.getChunkZ());
-				}
-			}
+		for (ChunkMetaData md : chunks) {
+			unloaded |= saveChunk(world, md.getChunkX(), md.getChunkZ());
+		}
 
-			worldChunks.clear();
+		if (unload) {
+			//Region files can only be closed once the saves have been written
+			saveQueue.flush();
+			chunkStore.closeWorld(world);
 		}
+
+		worldChunks.clear();
+		//Anything prefetched before the clear may be older than what was just saved
+		prefetcher.invalidate(world.getUID());
 		return unloaded;
 	}
 
@@ -241,45 +365,94 @@ public class SimpleChunkDataManager implements ChunkDataManager {
 		md.setCustomBlockData(ids);
 	}
 
-	private ChunkMetaData getMetaData(World world, int x, int z, boolean load, boolean loadOrCreate) {
-		long key = (((long) x) << 32) | (((long) z) & 0xFFFFFFFFL);
-		UUID uid = world.getUID();
-		ChunkMetaData md = null;
-		synchronized (chunkMetaDataLoaded) {
-			TLongObjectHashMap<ChunkMetaData> worldChunks = chunkMetaDataLoaded.get(uid);
-			if (worldChunks == null) {
-				worldChunks = new TLongObjectHashMap<ChunkMetaData>();
-				chunkMetaDataLoaded.put(uid, worldChunks);
-			}
+	@Override
+	public short[] copyCustomBlockIds(World world, int x, int z) {
+		ChunkMetaData md = getMetaData(world, x, z, true, false);
 
-			md = worldChunks.get(key);
-
-			if (md == null && (load || loadOrCreate)) {
-				try {
-					md = chunkStore.readChunkMetaData(world, x, z);
-					if (md != null) {
-						if (!md.getWorldUID().equals(world.getUID()) || md.getChunkX() != x || md.getChunkZ() != z) {
-							System.out.println("Expected: " + world.getUID() + " " + x + " " + z);
-							System.out.println("Actual: " + md.getWorldUID() + " " + md.getChunkX() + " " + md.getChunkZ());
-							throw new RuntimeException("Chunk meta data stored in wrong location");
-						}
-						md.setWorldItemMap(getWorldItemMap(world));
-					}
-				} catch (IOException e) {
-					e.printStackTrace();
-					return null;
-				}
+		if (md == null) {
+			return null;
+		}
 
-				if (md == null && loadOrCreate) {
-					md = new ChunkMetaData(world.getUID(), getWorldItemMap(world), x, z);
-				}
+		return md.copyCustomBlockIds();
+	}
 
-				if (md != null) {
-					worldChunks.put(key, md);
-				}
+	@Override
+	public byte[] copyCustomBlockData(World world, int x, int z) {
+		ChunkMetaData md = getMetaData(world, x, z, true, false);
+
+		if (md == null) {
+			return null;
+		}
+
+		return md.copyCustomBlockData();
+	}
+
+	@Override
+	public short getCustomBlockId(World world, int x, int y, int z) {
+		ChunkMetaData md = getMetaData(world, x >> 4, z >> 4, true, false);
+
+		if (md == null) {
+			return 0;
+		}
+
+		return md.getCustomBlockId(x, y, z);
+	}
+
+	@Override
+	public short setCustomBlockId(World world, int x, int y, int z, short id) {
+		ChunkMetaData md = getMetaData(world, x >> 4, z >> 4, true, true);
+
+		return md.setCustomBlockId(x, y, z, id);
+	}
+
+	@Override
+	public byte getCustomBlockData(World world, int x, int y, int z) {
+		ChunkMetaData md = getMetaData(world, x >> 4, z >> 4, true, false);
+
+		if (md == null) {
+			return 0;
+		}
+
+		return md.getCustomBlockData(x, y, z);
+	}
+
+	@Override
+	public byte setCustomBlockData(World world, int x, int y, int z, byte data) {
+		ChunkMetaData md = getMetaData(world, x >> 4, z >> 4, true, true);
+
+		return md.setCustomBlockData(x, y, z, data);
+	}
+
+	private ChunkMetaData getMetaData(World world, int x, int z, boolean load, boolean loadOrCreate) {
+		return getRegistry(world.getUID()).get(world, x, z, load, loadOrCreate);
+	}
+
+	private ChunkMetaDataRegistry getRegistry(UUID uid) {
+		ChunkMetaDataRegistry registry = chunkMetaDataLoaded.get(uid);
+		if (registry == null) {
+			registry = new ChunkMetaDataRegistry(loader);
+			ChunkMetaDataRegistry existing = chunkMetaDataLoaded.putIfAbsent(uid, registry);
+			if (existing != null) {
+				registry = existing;
 			}
 		}
+		return registry;
+	}
+
+	private ChunkMetaData readMetaData(World world, int x, int z) throws IOException {
+		saveQueue.awaitChunk(world, x, z);
+		return chunkStore.readChunkMetaData(world, x, z, getWorldItemMap(world));
+	}
 
+	private ChunkMetaData attachMetaData(World world, int x, int z, ChunkMetaData md) {
+		if (md != null) {
+			if (!md.getWorldUID().equals(world.getUID()) || md.getChunkX() != x || md.getChunkZ() != z) {
+				System.out.println("Expected: " + world.getUID() + " " + x + " " + z);
+				System.out.println("Actual: " + md.getWorldUID() + " " + md.getChunkX() + " " + md.getChunkZ());
+				throw new RuntimeException("Chunk meta data stored in wrong location");
+			}
+			md.setWorldItemMap(getWorldItemMap(world));
+		}
 		return md;
 	}
 
@@ -287,14 +460,19 @@ public class SimpleChunkDataManager implements ChunkDataManager {
 		UUID uid = world.getUID();
 		ItemMap worldItemMap = worldItemMaps.get(uid);
 		if (worldItemMap == null) {
-			File dir = new File(world.getWorldFolder(), "spout_meta");
-			dir.mkdirs();
-
-			FlatFileStore<Integer> fs = new FlatFileStore<Integer>(new File(dir, "worldItemMap.txt"), Integer.class);
-			fs.load();
-			worldItemMap = new ItemMap(ItemMap.getRootMap(), fs, null);
+			synchronized (worldItemMaps) {
+				worldItemMap = worldItemMaps.get(uid);
+				if (worldItemMap == null) {
+					File dir = new File(world.getWorldFolder(), "spout_meta");
+					dir.mkdirs();
+
+					IntJournalStore fs = new IntJournalStore(new File(dir, "worldItemMap.dat"), new File(dir, "worldItemMap.txt"));
+					fs.load();
+					worldItemMap = new ItemMap(ItemMap.getRootMap(), fs, null);
+					worldItemMaps.put(uid, worldItemMap);
+				}
+			}
 		}
-		worldItemMaps.put(uid, worldItemMap);
 		return worldItemMap;
 	}
 
@@ -19,32 +19,49 @@
  */
 package org.getspout.spoutapi.chunkstore;
 
-import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.zip.DeflaterOutputStream;
-import java.util.zip.InflaterInputStream;
 
 public class SimpleRegionFile {
 	private RandomAccessFile file;
 	private final int[] dataStart = new int[1024];
 	private final int[] dataActualLength = new int[1024];
 	private final int[] dataLength = new int[1024];
-	private final ArrayList<Boolean> inuse = new ArrayList<Boolean>();
+	private final BitSet inuse = new BitSet();
 	private int segmentSize;
 	private int segmentMask;
 	private final int rx;
 	private final int rz;
 	private final int defaultSegmentSize;
 	private final File parent;
-	@SuppressWarnings("unused")
 	private long lastAccessTime = System.currentTimeMillis();
-	@SuppressWarnings("unused")
-	private static long TIMEOUT_TIME = 300000; //5 min
+	private static volatile long TIMEOUT_TIME = 300000; //5 min
+	private static volatile SyncPolicy syncPolicy = SyncPolicy.BATCH;
+	private static final int MAX_READ_GAP = 65536;
+	//Range of header entries changed since the header was last written
+	private int dirtyMin = Integer.MAX_VALUE;
+	private int dirtyMax = -1;
+	//Segments that are no longer used, but are still referenced by the header on disk
+	private final ArrayList<int[]> pendingFree = new ArrayList<int[]>();
+
+	/**
+	 * Sets when region files force their data and headers to disk
+	 * @param policy to use
+	 */
+	public static void setSyncPolicy(SyncPolicy policy) {
+		syncPolicy = policy;
+	}
+
+	public static SyncPolicy getSyncPolicy() {
+		return syncPolicy;
+	}
 
 	public SimpleRegionFile(File f, int rx, int rz) {
 		this(f, rx, rz, 10);
@@ -57,107 +74,90 @@ public class SimpleRegionFile {
 		this.parent = f;
 
 		lastAccessTime = System.currentTimeMillis();
-		if (file == null) {
-			try {
-				this.file = new RandomAccessFile(parent, "rw");
-
-				if (file.length() < 4096 * 3) {
-					for (int i = 0; i < 1024 * 3; i++) {
-						file.writeInt(0);
-					}
-					file.seek(4096 * 2);
-					file.writeInt(defaultSegmentSize);
-				}
-
-				file.seek(4096 * 2);
-
-				this.segmentSize = file.readInt();
-				this.segmentMask = (1 << segmentSize) - 1;
-
-				int reservedSegments = this.sizeToSegments(4096 * 3);
-
-				for (int i = 0; i < reservedSegments; i++) {
-					while (inuse.size() <= i) {
-						inuse.add(false);
-					}
-					inuse.set(i, true);
-				}
-
-				file.seek(0);
-
-				for (int i = 0; i < 1024; i++) {
-					dataStart[i] = file.readInt();
-				}
-
-				for (int i = 0; i < 1024; i++) {
-					dataActualLength[i] = file.readInt();
-					dataLength[i] = sizeToSegments(dataActualLength[i]);
-					setInUse(i, true);
-				}
-
-				extendFile();
-			} catch (IOException fnfe) {
-				throw new RuntimeException(fnfe);
-			}
-		}
+		open();
 	}
 
 	public final RandomAccessFile getFile() {
 		lastAccessTime = System.currentTimeMillis();
 		if (file == null) {
-			try {
-				this.file = new RandomAccessFile(parent, "rw");
-
-				if (file.length() < 4096 * 3) {
-					for (int i = 0; i < 1024 * 3; i++) {
-						file.writeInt(0);
-					}
-					file.seek(4096 * 2);
-					file.writeInt(defaultSegmentSize);
-				}
+			open();
+		}
+		return file;
+	}
 
-				file.seek(4096 * 2);
+	private void open() {
+		try {
+			this.file = new RandomAccessFile(parent, "rw");
 
-				this.segmentSize = file.readInt();
-				this.segmentMask = (1 << segmentSize) - 1;
+			if (file.length() < 4096 * 3) {
+				for (int i = 0; i < 1024 * 3; i++) {
+					file.writeInt(0);
+				}
+				file.seek(4096 * 2);
+				file.writeInt(defaultSegmentSize);
+			}
 
-				int reservedSegments = this.sizeToSegments(4096 * 3);
+			file.seek(4096 * 2);
 
-				for (int i = 0; i < reservedSegments; i++) {
-					while (inuse.size() <= i) {
-						inuse.add(false);
-					}
-					inuse.set(i, true);
-				}
+			this.segmentSize = file.readInt();
+			this.segmentMask = (1 << segmentSize) - 1;
 
-				file.seek(0);
+			//The header on disk is current, so nothing from before the file was closed is still in use
+			inuse.clear();
+			inuse.set(0, sizeToSegments(4096 * 3));
 
-				for (int i = 0; i < 1024; i++) {
-					dataStart[i] = file.readInt();
-				}
+			file.seek(0);
 
-				for (int i = 0; i < 1024; i++) {
-					dataActualLength[i] = file.readInt();
-					dataLength[i] = sizeToSegments(dataActualLength[i]);
-					setInUse(i, true);
-				}
+			for (int i = 0; i < 1024; i++) {
+				dataStart[i] = file.readInt();
+			}
 
-				extendFile();
-			} catch (IOException fnfe) {
-				throw new RuntimeException(fnfe);
+			for (int i = 0; i < 1024; i++) {
+				dataActualLength[i] = file.readInt();
+				dataLength[i] = sizeToSegments(dataActualLength[i]);
+				setInUse(i, true);
 			}
+
+			extendFile();
+		} catch (IOException fnfe) {
+			throw new RuntimeException(fnfe);
 		}
-		return file;
 	}
 
+	/**
+	 * Sets how long a region file may go unused before {@link #testCloseTimeout()} closes it
+	 * @param millis idle timeout
+	 */
+	public static void setTimeout(long millis) {
+		TIMEOUT_TIME = millis;
+	}
+
+	public static long getTimeout() {
+		return TIMEOUT_TIME;
+	}
+
+	/**
+	 * Closes the file if it has not been used for longer than the idle timeout.
+	 * <p/>
+	 * A closed file is opened again when it is next used.
+	 * @return true if the file was closed
+	 */
 	public boolean testCloseTimeout() {
-		//		if (System.currentTimeMillis() - TIMEOUT_TIME > lastAccessTime) {
-		//			close();
-		//			return true;
-		//		}
+		if (isIdle()) {
+			close();
+			return true;
+		}
 		return false;
 	}
 
+	/**
+	 * Checks if the file is open and has not been used for longer than the idle timeout
+	 * @return true if the file is idle
+	 */
+	boolean isIdle() {
+		return file != null && System.currentTimeMillis() - TIMEOUT_TIME > lastAccessTime;
+	}
+
 	public DataOutputStream getOutputStream(int x, int z) {
 		int index = getChunkIndex(x, z);
 		return new DataOutputStream(new DeflaterOutputStream(new SimpleChunkBuffer(this, index)));
@@ -173,25 +173,102 @@ public class SimpleRegionFile {
 
 		getFile().seek(dataStart[index] << segmentSize);
 		getFile().readFully(data);
-		return new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)));
+		return new DataInputStream(new PooledInflaterInputStream(data));
+	}
+
+	/**
+	 * Reads the compressed data of several chunks in file order, so the file is read from start to end once.
+	 * <p/>
+	 * Chunks stored close together are read with a single read.
+	 * @param chunks indexes of the chunks to read, (x &amp; 31) * 32 + (z &amp; 31)
+	 * @return the compressed data of each chunk by index, null for chunks with no data
+	 * @throws IOException
+	 */
+	byte[][] readChunks(BitSet chunks) throws IOException {
+		byte[][] data = new byte[1024][];
+		long[] order = new long[chunks.cardinality()];
+		int count = 0;
+		for (int i = chunks.nextSetBit(0); i >= 0 && i < 1024; i = chunks.nextSetBit(i + 1)) {
+			if (dataActualLength[i] != 0) {
+				order[count++] = (((long) dataStart[i]) << 32) | i;
+			}
+		}
+		Arrays.sort(order, 0, count);
+		byte[] buffer = new byte[0];
+		int next = 0;
+		while (next < count) {
+			//Group chunks until the gap to the next one is larger than reading through it
+			int first = next;
+			long start = (long) dataStart[(int) order[first]] << segmentSize;
+			long end = start + dataActualLength[(int) order[first]];
+			next++;
+			while (next < count) {
+				int index = (int) order[next];
+				long position = (long) dataStart[index] << segmentSize;
+				if (position - end > MAX_READ_GAP) {
+					break;
+				}
+				end = Math.max(end, position + dataActualLength[index]);
+				next++;
+			}
+			int length = (int) (end - start);
+			if (buffer.length < length) {
+				buffer = new byte[length];
+			}
+			getFile().seek(start);
+			getFile().readFully(buffer, 0, length);
+			for (int i = first; i < next; i++) {
+				int index = (int) order[i];
+				int offset = (int) (((long) dataStart[index] << segmentSize) - start);
+				data[index] = Arrays.copyOfRange(buffer, offset, offset + dataActualLength[index]);
+			}
+		}
+		return data;
+	}
+
+	void write(int x, int z, byte[] buffer, int size) throws IOException {
+		write(getChunkIndex(x, z), buffer, size);
 	}
 
 	void write(int index, byte[] buffer, int size) throws IOException {
-		int oldStart = setInUse(index, false);
+		SyncPolicy policy = syncPolicy;
+		int oldStart = dataStart[index];
+		int oldSegments = dataActualLength[index] == 0 ? 0 : dataLength[index];
+		if (policy == SyncPolicy.CLOSE) {
+			setInUse(index, false);
+		}
+		//Unless the old segments were freed, the new data never overwrites the data the header on disk points at
 		int start = findSpace(oldStart, size);
 		getFile().seek(start << segmentSize);
 		getFile().write(buffer, 0, size);
+		if (policy != SyncPolicy.CLOSE && oldSegments > 0) {
+			pendingFree.add(new int[] {oldStart, oldSegments});
+		}
 		dataStart[index] = start;
 		dataActualLength[index] = size;
 		dataLength[index] = sizeToSegments(size);
 		setInUse(index, true);
-		saveFAT();
+		dirtyMin = Math.min(dirtyMin, index);
+		dirtyMax = Math.max(dirtyMax, index);
+		if (policy == SyncPolicy.WRITE) {
+			saveFAT(true);
+		}
+	}
+
+	/**
+	 * Ends a batch of writes, writing the changed header entries unless the sync policy is {@link SyncPolicy#CLOSE}
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		if (syncPolicy != SyncPolicy.CLOSE) {
+			saveFAT(true);
+		}
 	}
 
 	public void close() {
 		try {
 			if (file != null) {
-				file.seek(4096 * 2);
+				saveFAT(true);
 				file.close();
 			}
 			file = null;
@@ -200,6 +277,100 @@ public class SimpleRegionFile {
 		}
 	}
 
+	/**
+	 * Gets the size of the segments the file is divided into
+	 * @return segment size in bytes
+	 */
+	public int getSegmentSize() {
+		return 1 << segmentSize;
+	}
+
+	/**
+	 * Gets the number of segments in the file, including the header
+	 * @return segments
+	 * @throws IOException
+	 */
+	public int getSegmentCount() throws IOException {
+		return (int) ((getFile().length() + segmentMask) >> segmentSize);
+	}
+
+	/**
+	 * Gets the number of segments holding the header or chunk data
+	 * @return used segments
+	 */
+	public int getUsedSegmentCount() {
+		return inuse.cardinality();
+	}
+
+	/**
+	 * Rewrites the file with the chunks stored back to back in index order, dropping all free space.
+	 * <p/>
+	 * The compacted copy is written and synced next to the file before it replaces it, so the old file is intact until the new one is complete.
+	 * @throws IOException
+	 */
+	public void compact() throws IOException {
+		saveFAT(true);
+		RandomAccessFile source = getFile();
+		File temp = new File(parent.getPath() + ".tmp");
+		RandomAccessFile dest = new RandomAccessFile(temp, "rw");
+		try {
+			dest.setLength(0);
+			int[] start = new int[1024];
+			int next = sizeToSegments(4096 * 3);
+			byte[] buffer = new byte[4096];
+			for (int i = 0; i < 1024; i++) {
+				int length = dataActualLength[i];
+				if (length == 0) {
+					continue;
+				}
+				if (buffer.length < length) {
+					buffer = new byte[length];
+				}
+				source.seek((long) dataStart[i] << segmentSize);
+				source.readFully(buffer, 0, length);
+				start[i] = next;
+				dest.seek((long) next << segmentSize);
+				dest.write(buffer, 0, length);
+				next += dataLength[i];
+			}
+			dest.setLength((long) next << segmentSize);
+
+			byte[] header = new byte[4096];
+			putInts(header, start, 0, 1024);
+			dest.seek(0);
+			dest.write(header, 0, 4096);
+			putInts(header, dataActualLength, 0, 1024);
+			dest.write(header, 0, 4096);
+			dest.writeInt(segmentSize);
+			dest.getFD().sync();
+		} finally {
+			dest.close();
+		}
+		close();
+		if (!temp.renameTo(parent)) {
+			//Windows will not rename over an existing file
+			if (!parent.delete() || !temp.renameTo(parent)) {
+				throw new IOException("Unable to replace " + parent + " with its compacted copy");
+			}
+		}
+		open();
+	}
+
+	/**
+	 * Compacts a region file that is not open, for use while the server is stopped
+	 * @param f region file
+	 * @throws IOException
+	 */
+	public static void compact(File f) throws IOException {
+		//The region coordinates are only used to check chunk lookups
+		SimpleRegionFile regionFile = new SimpleRegionFile(f, 0, 0);
+		try {
+			regionFile.compact();
+		} finally {
+			regionFile.close();
+		}
+	}
+
 	private int setInUse(int index, boolean used) {
 		if (dataActualLength[index] == 0) {
 			return dataStart[index];
@@ -208,18 +379,18 @@ public class SimpleRegionFile {
 		int start = dataStart[index];
 		int end = start + dataLength[index];
 
-		for (int i = start; i < end; i++) {
-			while (i > inuse.size() - 1) {
-				inuse.add(false);
+		if (used) {
+			int next = inuse.nextSetBit(start);
+			if (next != -1 && next < end) {
+				throw new IllegalStateException("Attempting to overwrite an in-use segment");
 			}
-			Boolean old = inuse.set(i, used);
-			if (old != null && old == used) {
-				if (old) {
-					throw new IllegalStateException("Attempting to overwrite an in-use segment");
-				} else {
-					throw new IllegalStateException("Attempting to delete empty segment");
-				}
+			inuse.set(start, end);
+		} else {
+			int next = inuse.nextClearBit(start);
+			if (next < end) {
+				throw new IllegalStateException("Attempting to delete empty segment");
 			}
+			inuse.clear(start, end);
 		}
 
 		return dataStart[index];
@@ -235,39 +406,31 @@ public class SimpleRegionFile {
 		}
 	}
 
+	/**
+	 * Finds the first run of free segments large enough for the data, keeping the old position if the data still fits there
+	 * @param oldStart of the data
+	 * @param size of the data
+	 * @return first segment to write to
+	 */
 	private int findSpace(int oldStart, int size) {
 		int segments = sizeToSegments(size);
 
-		boolean oldFree = true;
-		for (int i = oldStart; i < inuse.size() && i < oldStart + segments; i++) {
-			if (inuse.get(i)) {
-				oldFree = false;
-				break;
-			}
-		}
-
-		if (oldFree) {
+		if (isFree(oldStart, segments)) {
 			return oldStart;
 		}
 
-		int start = 0;
-		int end = 0;
-
-		while (end < inuse.size()) {
-			if (inuse.get(end)) {
-				end++;
-				start = end;
-			} else {
-				end++;
-			}
-			if (end - start >= segments) {
-				return start;
-			}
+		int start = inuse.nextClearBit(0);
+		while (!isFree(start, segments)) {
+			start = inuse.nextClearBit(inuse.nextSetBit(start));
 		}
-
 		return start;
 	}
 
+	private boolean isFree(int start, int segments) {
+		int next = inuse.nextSetBit(start);
+		return next == -1 || next >= start + segments;
+	}
+
 	private int sizeToSegments(int size) {
 		if (size <= 0) {
 			return 1;
@@ -287,14 +450,48 @@ public class SimpleRegionFile {
 		return (x << 5) + z;
 	}
 
-	private void saveFAT() throws IOException {
-		getFile().seek(0);
-		for (int i = 0; i < 1024; i++) {
-			getFile().writeInt(dataStart[i]);
+	/**
+	 * Writes the changed header entries, with one write for the start table and one for the length table.
+	 * <p/>
+	 * Segments freed since the last header write can be reused once the header no longer points at them.
+	 * @param sync true to force the data to disk before the header is written, and the header after
+	 * @throws IOException
+	 */
+	private void saveFAT(boolean sync) throws IOException {
+		if (dirtyMax < dirtyMin) {
+			return;
 		}
+		RandomAccessFile file = getFile();
+		if (sync) {
+			file.getFD().sync();
+		}
+		int count = dirtyMax - dirtyMin + 1;
+		byte[] entries = new byte[count << 2];
+		putInts(entries, dataStart, dirtyMin, count);
+		file.seek(dirtyMin << 2);
+		file.write(entries);
+		putInts(entries, dataActualLength, dirtyMin, count);
+		file.seek(4096 + (dirtyMin << 2));
+		file.write(entries);
+		if (sync) {
+			file.getFD().sync();
+		}
+		dirtyMin = Integer.MAX_VALUE;
+		dirtyMax = -1;
+
+		for (int[] free : pendingFree) {
+			inuse.clear(free[0], free[0] + free[1]);
+		}
+		pendingFree.clear();
+	}
 
-		for (int i = 0; i < 1024; i++) {
-			getFile().writeInt(dataActualLength[i]);
+	private static void putInts(byte[] dest, int[] src, int offset, int count) {
+		for (int i = 0, j = 0; i < count; i++) {
+			int value = src[offset + i];
+			dest[j++] = (byte) (value >>> 24);
+			dest[j++] = (byte) (value >>> 16);
+			dest[j++] = (byte) (value >>> 8);
+			dest[j++] = (byte) value;
 		}
 	}
 }
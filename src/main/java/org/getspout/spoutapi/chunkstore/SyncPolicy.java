@@ -0,0 +1,57 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spoutapi.chunkstore;
+
+/**
+ * When region files force their data and headers to disk.
+ * <p/>
+ * Chunk data is always written before the header entry pointing at it, and space is only reused once no header on disk points at it.
+ */
+public enum SyncPolicy {
+	/**
+	 * Sync the data and write the header after every chunk write
+	 */
+	WRITE,
+	/**
+	 * Sync the data and write the changed header entries once per batch of chunk writes
+	 */
+	BATCH,
+	/**
+	 * Only write the header when the region file is closed. Fastest, but a crash can lose or corrupt any chunk written since the file was opened
+	 */
+	CLOSE;
+
+	/**
+	 * Gets the policy with the given name, ignoring case
+	 * @param name of the policy
+	 * @param def policy to return if the name is unknown
+	 * @return policy
+	 */
+	public static SyncPolicy getPolicy(String name, SyncPolicy def) {
+		if (name != null) {
+			for (SyncPolicy policy : values()) {
+				if (policy.name().equalsIgnoreCase(name.trim())) {
+					return policy;
+				}
+			}
+		}
+		return def;
+	}
+}
@@ -0,0 +1,48 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spoutapi.chunkstore;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Writes and reads one type of block or chunk data in the chunk meta data format, instead of Java serialization.
+ * <p/>
+ * Register codecs with {@link ValueCodecs#register(String, Class, ValueCodec)}.
+ */
+public interface ValueCodec<T extends Serializable> {
+	/**
+	 * Writes a value
+	 * @param out to write to
+	 * @param value to write, never null
+	 * @throws IOException
+	 */
+	public void write(DataOutput out, T value) throws IOException;
+
+	/**
+	 * Reads a value written by {@link #write(DataOutput, Serializable)}
+	 * @param in to read from
+	 * @return value
+	 * @throws IOException
+	 */
+	public T read(DataInput in) throws IOException;
+}
@@ -0,0 +1,342 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spoutapi.chunkstore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * Registry of the codecs used to write block and chunk data.
+ * <p/>
+ * Common types are built in. Plugins can register codecs for their own types by name, and the name is stored with the data, so it must stay the same between restarts.
+ * Values of any other type are written with Java serialization.
+ */
+public final class ValueCodecs {
+	private static final int NULL = 0;
+	private static final int SERIALIZED = 1;
+	private static final int NAMED = 2;
+	private static final int BOOLEAN = 3;
+	private static final int BYTE = 4;
+	private static final int SHORT = 5;
+	private static final int INTEGER = 6;
+	private static final int LONG = 7;
+	private static final int FLOAT = 8;
+	private static final int DOUBLE = 9;
+	private static final int STRING = 10;
+	private static final int BYTE_ARRAY = 11;
+	private static final int UUID_VALUE = 12;
+
+	//Strings are written as a length and UTF-8 bytes, writeUTF is limited to 65535 bytes
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final ConcurrentHashMap<Class<?>, Named<?>> byType = new ConcurrentHashMap<Class<?>, Named<?>>();
+	private static final ConcurrentHashMap<String, Named<?>> byName = new ConcurrentHashMap<String, Named<?>>();
+
+	private ValueCodecs() {
+	}
+
+	/**
+	 * Registers a codec for a type of block or chunk data.
+	 * <p/>
+	 * Data written by a codec that is not registered when the chunk is loaded is kept as it is, and decoded once the codec is registered.
+	 * @param name of the codec, stored with the data
+	 * @param type of the values, subclasses are not included
+	 * @param codec to use
+	 */
+	public static <T extends Serializable> void register(String name, Class<T> type, ValueCodec<T> codec) {
+		Named<T> named = new Named<T>(name, codec);
+		byType.put(type, named);
+		byName.put(name, named);
+	}
+
+	/**
+	 * Gets the name of the codec registered for a value's type
+	 * @param value to check
+	 * @return codec name, or null if the value has no registered codec
+	 */
+	static String getCodecName(Serializable value) {
+		if (value instanceof CodecData) {
+			return ((CodecData) value).codec;
+		}
+		Named<?> named = value == null ? null : byType.get(value.getClass());
+		return named == null ? null : named.name;
+	}
+
+	/**
+	 * Decodes data that was read before its codec was registered
+	 * @param data to decode
+	 * @return the decoded value, or the data if its codec is still not registered
+	 */
+	static Serializable resolve(CodecData data) {
+		Named<?> named = byName.get(data.codec);
+		if (named == null) {
+			return data;
+		}
+		try {
+			return named.codec.read(new DataInputStream(new ByteArrayInputStream(data.data)));
+		} catch (IOException e) {
+			return data;
+		}
+	}
+
+	/**
+	 * Writes a value
+	 * @param out to write to
+	 * @param value to write
+	 * @param names index of each codec name in the record's key table
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	static void write(DataOutputStream out, Serializable value, TObjectIntHashMap<String> names) throws IOException {
+		if (value == null) {
+			writeVarInt(out, NULL);
+		} else if (value instanceof Boolean) {
+			writeVarInt(out, BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		} else if (value instanceof Byte) {
+			writeVarInt(out, BYTE);
+			out.writeByte((Byte) value);
+		} else if (value instanceof Short) {
+			writeVarInt(out, SHORT);
+			out.writeShort((Short) value);
+		} else if (value instanceof Integer) {
+			writeVarInt(out, INTEGER);
+			writeVarLong(out, zigZag((Integer) value));
+		} else if (value instanceof Long) {
+			writeVarInt(out, LONG);
+			writeVarLong(out, zigZag((Long) value));
+		} else if (value instanceof Float) {
+			writeVarInt(out, FLOAT);
+			out.writeFloat((Float) value);
+		} else if (value instanceof Double) {
+			writeVarInt(out, DOUBLE);
+			out.writeDouble((Double) value);
+		} else if (value instanceof String) {
+			writeBytes(out, STRING, ((String) value).getBytes(UTF8));
+		} else if (value instanceof byte[]) {
+			byte[] bytes = (byte[]) value;
+			writeVarInt(out, BYTE_ARRAY);
+			writeVarInt(out, bytes.length);
+			out.write(bytes);
+		} else if (value instanceof UUID) {
+			writeVarInt(out, UUID_VALUE);
+			out.writeLong(((UUID) value).getMostSignificantBits());
+			out.writeLong(((UUID) value).getLeastSignificantBits());
+		} else if (value instanceof Utils.SerializedData) {
+			//Still waiting for its class, write it back unchanged
+			writeBytes(out, SERIALIZED, ((Utils.SerializedData) value).serialData);
+		} else if (value instanceof CodecData) {
+			CodecData data = (CodecData) value;
+			writeVarInt(out, NAMED);
+			writeVarInt(out, names.get(data.codec));
+			writeBytes(out, -1, data.data);
+		} else {
+			Named<Serializable> named = (Named<Serializable>) byType.get(value.getClass());
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			if (named != null) {
+				named.codec.write(new DataOutputStream(bytes), value);
+				writeVarInt(out, NAMED);
+				writeVarInt(out, names.get(named.name));
+				writeBytes(out, -1, bytes.toByteArray());
+			} else {
+				ObjectOutputStream objectStream = new ObjectOutputStream(bytes);
+				objectStream.writeObject(value);
+				objectStream.close();
+				writeBytes(out, SERIALIZED, bytes.toByteArray());
+			}
+		}
+	}
+
+	/**
+	 * Reads a value.
+	 * <p/>
+	 * Serialized values whose class is missing, and values whose codec is not registered, are kept in their encoded form.
+	 * @param in to read from
+	 * @param keys the record's key table
+	 * @return value
+	 * @throws IOException
+	 */
+	static Serializable read(DataInputStream in, String[] keys) throws IOException {
+		int type = readVarInt(in);
+		switch (type) {
+			case NULL:
+				return null;
+			case BOOLEAN:
+				return in.readBoolean();
+			case BYTE:
+				return in.readByte();
+			case SHORT:
+				return in.readShort();
+			case INTEGER:
+				return (int) unZigZag(readVarLong(in));
+			case LONG:
+				return unZigZag(readVarLong(in));
+			case FLOAT:
+				return in.readFloat();
+			case DOUBLE:
+				return in.readDouble();
+			case STRING:
+				return new String(readBytes(in), UTF8);
+			case BYTE_ARRAY:
+				return readBytes(in);
+			case UUID_VALUE:
+				return new UUID(in.readLong(), in.readLong());
+			case SERIALIZED:
+				byte[] serialized = readBytes(in);
+				try {
+					return (Serializable) new ObjectInputStream(new ByteArrayInputStream(serialized)).readObject();
+				} catch (ClassNotFoundException e) {
+					Utils.SerializedData dummy = new Utils.SerializedData();
+					dummy.serialData = serialized;
+					return dummy;
+				}
+			case NAMED:
+				CodecData data = new CodecData();
+				data.codec = readKey(in, keys);
+				data.data = readBytes(in);
+				return data.codec == null ? null : resolve(data);
+			default:
+				throw new IOException("Unknown value type " + type);
+		}
+	}
+
+	private static void writeBytes(DataOutputStream out, int type, byte[] bytes) throws IOException {
+		if (type >= 0) {
+			writeVarInt(out, type);
+		}
+		writeVarInt(out, bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[readLength(in)];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Reads a key, stored as its index in the record's key table
+	 * @param in to read from
+	 * @param keys the record's key table
+	 * @return key, or null if it is missing from the world item map
+	 * @throws IOException if the index is outside the key table
+	 */
+	static String readKey(DataInput in, String[] keys) throws IOException {
+		int index = readVarInt(in);
+		if (index < 0 || index >= keys.length) {
+			throw new IOException("Key index " + index + " outside the key table of " + keys.length + " keys");
+		}
+		return keys[index];
+	}
+
+	/**
+	 * Reads a length or count, which must not be negative
+	 * @param in to read from
+	 * @return length
+	 * @throws IOException if the length is negative
+	 */
+	static int readLength(DataInput in) throws IOException {
+		int length = readVarInt(in);
+		if (length < 0) {
+			throw new IOException("Negative length " + length);
+		}
+		return length;
+	}
+
+	static void writeVarInt(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	static int readVarInt(DataInput in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed variable length int");
+	}
+
+	static void writeVarLong(DataOutput out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte(((int) value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	static long readVarLong(DataInput in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			int b = in.readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed variable length long");
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Data written by a named codec that was not registered when it was read
+	 */
+	static class CodecData implements Serializable {
+		private static final long serialVersionUID = 1L;
+		String codec;
+		byte[] data;
+	}
+
+	private static class Named<T extends Serializable> {
+		private final String name;
+		private final ValueCodec<T> codec;
+
+		Named(String name, ValueCodec<T> codec) {
+			this.name = name;
+			this.codec = codec;
+		}
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spoutapi.inventory;
+
+/**
+ * Maps ids from 0 to 65535 to other ids, with 0 meaning no mapping.
+ * <p/>
+ * The ids are split into pages of 256, and a page is only allocated once an id in it is mapped.
+ * Custom ids start at 1024, so a map with a few thousand items only allocates a few pages.
+ */
+class IdTranslationTable {
+	private static final int PAGE_BITS = 8;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+	private final char[][] pages = new char[65536 >> PAGE_BITS][];
+
+	/**
+	 * Gets the id an id maps to
+	 * @param id to look up
+	 * @return mapped id, or 0 if the id is not mapped or out of range
+	 */
+	int get(int id) {
+		if ((id & 0xFFFF) != id) {
+			return 0;
+		}
+		char[] page = pages[id >> PAGE_BITS];
+		return page == null ? 0 : page[id & PAGE_MASK];
+	}
+
+	/**
+	 * Maps an id to another id
+	 * @param id to map, from 0 to 65535
+	 * @param mapped id, from 0 to 65535
+	 */
+	void set(int id, int mapped) {
+		if ((id & 0xFFFF) != id || (mapped & 0xFFFF) != mapped) {
+			return;
+		}
+		char[] page = pages[id >> PAGE_BITS];
+		if (page == null) {
+			if (mapped == 0) {
+				return;
+			}
+			page = new char[PAGE_SIZE];
+			pages[id >> PAGE_BITS] = page;
+		}
+		page[id & PAGE_MASK] = (char) mapped;
+	}
+}
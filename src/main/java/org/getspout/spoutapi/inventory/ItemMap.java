@@ -19,6 +19,10 @@
  */
 package org.getspout.spoutapi.inventory;
 
+import java.util.BitSet;
+import java.util.Map.Entry;
+
+import org.getspout.spoutapi.io.store.IntStore;
 import org.getspout.spoutapi.io.store.SimpleStore;
 
 /**
@@ -28,30 +32,33 @@ import org.getspout.spoutapi.io.store.SimpleStore;
  *
  * It also provides functionality to convert ids between 2 maps.
  *
+ * Maps can be used from any thread. A conversion holds the monitor of both maps, so it sees a consistent view of
+ * each store and translation cache.
+ *
  */
 public class ItemMap {
+	private static final int NO_ID = -1;
+	//Taken before the monitors of the two maps in a conversion, so two conversions can not lock them in opposite orders
+	private static final Object conversionLock = new Object();
 	private static ItemMap root;
 
 	private final ItemMap parent;
 	private final SimpleStore<Integer> store;
+	private final IntStore intStore;
 
 	private final ItemMapRunnable updateTask;
 
-	private final int[] thisToParentMap;
-	private final int[] parentToThisMap;
+	private final IdTranslationTable thisToParentMap = new IdTranslationTable();
+	private final IdTranslationTable parentToThisMap = new IdTranslationTable();
 
 	private int nextId = 1024;
+	private BitSet used = null;
 
 	public ItemMap(ItemMap parent, SimpleStore<Integer> store, ItemMapRunnable updateTask) {
 		this.parent = parent;
 		this.store = store;
+		this.intStore = store instanceof IntStore ? (IntStore) store : null;
 		this.updateTask = updateTask;
-		thisToParentMap = new int[65536];
-		parentToThisMap = new int[65536];
-		for (int i = 0; i < 65536; i++) {
-			thisToParentMap[i] = 0;
-			parentToThisMap[i] = 0;
-		}
 	}
 
 	public static void setRootMap(ItemMap root) {
@@ -70,19 +77,29 @@ public class ItemMap {
 	 */
 
 	public int convertTo(ItemMap other, int localId) {
+		synchronized (conversionLock) {
+			synchronized (this) {
+				synchronized (other) {
+					return convert(other, localId);
+				}
+			}
+		}
+	}
+
+	private int convert(ItemMap other, int localId) {
 		int foreignId = 0;
 
 		// Check cache
 		if (other == this) {
-			if (store.reverseGet(localId) != null) {
+			if (reverseGet(localId) != null) {
 				return localId;
 			} else {
 				return 0;
 			}
 		} else if (other == parent) {
-			foreignId = thisToParentMap[localId];
+			foreignId = thisToParentMap.get(localId);
 		} else if (other.parent == this) {
-			foreignId = other.parentToThisMap[localId];
+			foreignId = other.parentToThisMap.get(localId);
 		}
 
 		// Cache hit
@@ -90,32 +107,92 @@ public class ItemMap {
 			return foreignId;
 		}
 
-		String localKey = store.reverseGet(localId);
+		String localKey = reverseGet(localId);
 
 		// There is no entry in the local map to perform the translation
 		if (localKey == null) {
 			return 0;
 		}
 
-		Integer integerForeignId = other.store.get(localKey);
+		foreignId = other.getId(localKey);
 
 		// The other map doesn't have an entry for this key
-		if (integerForeignId == null) {
-			integerForeignId = other.register(localKey);
+		if (foreignId == NO_ID) {
+			foreignId = other.register(localKey);
 		}
 
 		// Add the key/value pair to the cache, if is no problem with the foreign key
-		if (integerForeignId != 0) {
+		if (foreignId != 0) {
 			if (other == parent) {
-				thisToParentMap[localId] = integerForeignId;
-				parentToThisMap[integerForeignId] = localId;
+				thisToParentMap.set(localId, foreignId);
+				parentToThisMap.set(foreignId, localId);
 			} else if (other.parent == this) {
-				other.thisToParentMap[integerForeignId] = localId;
-				other.parentToThisMap[localId] = integerForeignId;
+				other.thisToParentMap.set(foreignId, localId);
+				other.parentToThisMap.set(localId, foreignId);
 			}
 		}
 
-		return integerForeignId;
+		return foreignId;
+	}
+
+	/**
+	 * Converts an array of ids local to this map to foreign ids, local to another map, in place.
+	 *
+	 * Ids are treated as unsigned, and 0 is left unchanged.
+	 *
+	 * @param other the other map
+	 * @param ids the ids to convert
+	 * @return returns the number of ids that could not be converted, and were replaced with 0
+	 */
+	public int convertTo(ItemMap other, short[] ids) {
+		return convertTo(other, ids, 0, ids.length);
+	}
+
+	/**
+	 * Converts part of an array of ids local to this map to foreign ids, local to another map, in place.
+	 *
+	 * Ids are treated as unsigned, and 0 is left unchanged.
+	 *
+	 * @param other the other map
+	 * @param ids the ids to convert
+	 * @param offset of the first id to convert
+	 * @param length of the ids to convert
+	 * @return returns the number of ids that could not be converted, and were replaced with 0
+	 */
+	public int convertTo(ItemMap other, short[] ids, int offset, int length) {
+		synchronized (conversionLock) {
+			synchronized (this) {
+				synchronized (other) {
+					return convert(other, ids, offset, length);
+				}
+			}
+		}
+	}
+
+	private int convert(ItemMap other, short[] ids, int offset, int length) {
+		IdTranslationTable cache = null;
+		if (other == parent) {
+			cache = thisToParentMap;
+		} else if (other.parent == this) {
+			cache = other.parentToThisMap;
+		}
+		int lost = 0;
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			int localId = ids[i] & 0xFFFF;
+			if (localId == 0) {
+				continue;
+			}
+			int foreignId = cache == null ? 0 : cache.get(localId);
+			if (foreignId == 0) {
+				foreignId = convert(other, localId);
+				if (foreignId == 0) {
+					lost++;
+				}
+			}
+			ids[i] = (short) foreignId;
+		}
+		return lost;
 	}
 
 	/**
@@ -138,22 +215,49 @@ public class ItemMap {
 	 * @return returns the local id, or 0 on failure
 	 */
 
-	public int register(String key) {
+	public synchronized int register(String key) {
 
-		Integer id = store.get(key);
+		int id = getId(key);
 
-		if (id != null) {
+		if (id != NO_ID) {
 			return id;
 		} else {
-			id = findFreeId();
-			if (id != 0) {
-				store.set(key, id);
-				if (updateTask != null) {
-					updateTask.run(this, key, id);
-				}
+			return add(key);
+		}
+	}
+
+	/**
+	 * Registers many keys with the map and returns the matching ids, saving the map once if any key was new.
+	 *
+	 * @param keys the keys to be added
+	 * @return returns the local id of each key, or 0 where it failed
+	 */
+	public synchronized int[] register(String[] keys) {
+		int[] ids = new int[keys.length];
+		boolean added = false;
+		for (int i = 0; i < keys.length; i++) {
+			int id = getId(keys[i]);
+			if (id != NO_ID) {
+				ids[i] = id;
+			} else {
+				ids[i] = add(keys[i]);
+				added |= ids[i] != 0;
 			}
-			return id;
 		}
+		if (added) {
+			store.save();
+		}
+		return ids;
+	}
+
+	/**
+	 * Gets the key registered with an id
+	 *
+	 * @param id the local id
+	 * @return returns the key, or null if the id is not registered
+	 */
+	public synchronized String getName(int id) {
+		return reverseGet(id);
 	}
 
 	/**
@@ -165,26 +269,66 @@ public class ItemMap {
 		return store.save();
 	}
 
+	private String reverseGet(int id) {
+		return intStore != null ? intStore.reverseGetInt(id) : store.reverseGet(id);
+	}
+
+	private int getId(String key) {
+		if (intStore != null) {
+			return intStore.getInt(key, NO_ID);
+		}
+		Integer id = store.get(key);
+		return id == null ? NO_ID : id;
+	}
+
+	private int add(String key) {
+		int id = findFreeId();
+		if (id != 0) {
+			store.set(key, id);
+			used.set(id);
+			if (updateTask != null) {
+				updateTask.run(this, key, id);
+			}
+		}
+		return id;
+	}
+
 	private int findFreeId() {
-		int offset = 0;
-		boolean freeFound = false;
-		int checkPos = 0;
-		while (offset < 65536 && !freeFound) {
-			checkPos = (offset + nextId) % 65536;
-			if (checkPos >= 1024 && store.reverseGet(checkPos) == null) {
-				freeFound = true;
+		if (used == null) {
+			//Built on first use, the store is usually loaded after the map is created
+			used = new BitSet(65536);
+			used.set(0, 1024);
+			for (Entry<String, Integer> entry : store.getEntrySet()) {
+				int id = entry.getValue();
+				if ((id & 0xFFFF) == id) {
+					used.set(id);
+				}
 			}
-			offset++;
 		}
-		if (!freeFound) {
-			return 0;
-		} else {
-			nextId = checkPos + 1;
-			return checkPos;
+		int id = findFreeId(nextId);
+		if (id == 0) {
+			id = findFreeId(1024);
+		}
+		if (id != 0) {
+			nextId = id + 1;
+		}
+		return id;
+	}
+
+	private int findFreeId(int from) {
+		int id = used.nextClearBit(from);
+		while (id < 65536) {
+			//The store may have been changed without going through the map
+			if (reverseGet(id) == null) {
+				return id;
+			}
+			used.set(id);
+			id = used.nextClearBit(id + 1);
 		}
+		return 0;
 	}
 
-	public void rename(String oldKey, String newKey) {
+	public synchronized void rename(String oldKey, String newKey) {
 		Integer id = store.get(oldKey);
 		if (id != null) {
 			store.set(newKey, id);
@@ -94,6 +94,15 @@ public interface MaterialManager {
 	 */
 	public int registerCustomItemName(Plugin plugin, String key);
 
+	/**
+	 * Registers the ids for many custom items at once, the registered ids are saved once rather than per item.
+	 * <p/>
+	 * The returned ids are in the same order as the keys, and are persistent between server restarts and reloads
+	 * @param keys Keys of the new items
+	 * @return the unique ids, 0 where there was an error
+	 */
+	public int[] registerCustomItemNames(Plugin plugin, String[] keys);
+
 	/**
 	 * Removes the custom block override from this block
 	 * @param block to remove the override
@@ -0,0 +1,105 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spoutapi.io;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of heap ByteBuffers, grouped into power of two size classes.
+ * <p/>
+ * Buffers larger than the biggest size class are allocated on demand and are not pooled.
+ */
+public class BufferPool {
+	private static final int MIN_SHIFT = 8;
+	private static final int MAX_SHIFT = 20;
+	private static final int BYTES_PER_CLASS = 1 << 19;
+
+	@SuppressWarnings("unchecked")
+	private static final ConcurrentLinkedQueue<ByteBuffer>[] pools = new ConcurrentLinkedQueue[MAX_SHIFT - MIN_SHIFT + 1];
+	private static final AtomicInteger[] sizes = new AtomicInteger[pools.length];
+
+	static {
+		for (int i = 0; i < pools.length; i++) {
+			pools[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+			sizes[i] = new AtomicInteger(0);
+		}
+	}
+
+	private BufferPool() {
+	}
+
+	/**
+	 * Gets a cleared buffer with at least the given capacity
+	 * @param capacity minimum capacity
+	 * @return buffer
+	 */
+	public static ByteBuffer acquire(int capacity) {
+		int sizeClass = getSizeClass(capacity);
+		if (sizeClass < 0) {
+			return ByteBuffer.allocate(capacity);
+		}
+		ByteBuffer buffer = pools[sizeClass].poll();
+		if (buffer == null) {
+			return ByteBuffer.allocate(1 << (sizeClass + MIN_SHIFT));
+		}
+		sizes[sizeClass].decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer to the pool.
+	 * <p/>
+	 * The buffer must not be used after it has been released.
+	 * @param buffer to release
+	 */
+	public static void release(ByteBuffer buffer) {
+		if (buffer == null || !buffer.hasArray()) {
+			return;
+		}
+		int capacity = buffer.capacity();
+		int sizeClass = getSizeClass(capacity);
+		if (sizeClass < 0 || capacity != 1 << (sizeClass + MIN_SHIFT)) {
+			return;
+		}
+		if (sizes[sizeClass].incrementAndGet() > getMaxPooled(sizeClass)) {
+			sizes[sizeClass].decrementAndGet();
+			return;
+		}
+		pools[sizeClass].offer(buffer);
+	}
+
+	private static int getMaxPooled(int sizeClass) {
+		return Math.max(2, BYTES_PER_CLASS >> (sizeClass + MIN_SHIFT));
+	}
+
+	private static int getSizeClass(int capacity) {
+		if (capacity <= 1 << MIN_SHIFT) {
+			return 0;
+		}
+		int shift = 32 - Integer.numberOfLeadingZeros(capacity - 1);
+		if (shift > MAX_SHIFT) {
+			return -1;
+		}
+		return shift - MIN_SHIFT;
+	}
+}
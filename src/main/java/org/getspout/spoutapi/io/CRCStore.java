@@ -26,14 +26,14 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.util.concurrent.ConcurrentHashMap;
 
-import org.getspout.spoutapi.io.store.FlatFileStore;
+import org.getspout.spoutapi.io.store.SimpleStore;
 
 public class CRCStore {
-	private static FlatFileStore<String> urlCRCStore;
+	private static SimpleStore<String> urlCRCStore;
 	private final static Object urlCRCStoreSync = new Object();
 	private final static ConcurrentHashMap<String,Long> lastCheck = new ConcurrentHashMap<String,Long>();
 
-	public static void setConfigFile(FlatFileStore<String> config) {
+	public static void setConfigFile(SimpleStore<String> config) {
 		synchronized(urlCRCStoreSync) {
 			urlCRCStore = config;
 			urlCRCStore.load();
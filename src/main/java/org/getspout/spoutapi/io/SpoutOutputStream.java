@@ -19,6 +19,7 @@
  */
 package org.getspout.spoutapi.io;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.UUID;
@@ -32,10 +33,20 @@ import org.getspout.spoutapi.gui.Color;
 import org.getspout.spoutapi.material.Material;
 
 public class SpoutOutputStream extends OutputStream {
-	ByteBuffer buffer = ByteBuffer.allocate(256);
+	ByteBuffer buffer;
 
 	public SpoutOutputStream() {
+		this(256);
+	}
 
+	/**
+	 * Creates a stream backed by a pooled buffer of at least the given size.
+	 * <p/>
+	 * Call {@link #release()} once the contents are no longer needed to return the buffer to the pool.
+	 * @param initialCapacity of the buffer
+	 */
+	public SpoutOutputStream(int initialCapacity) {
+		buffer = BufferPool.acquire(initialCapacity);
 	}
 
 	public void writeBlock(Block block) {
@@ -80,67 +91,49 @@ public class SpoutOutputStream extends OutputStream {
 
 	@Override
 	public void write(byte[] b) {
-		while (buffer.remaining() < b.length) {
-			expand();
-		}
+		ensureRemaining(b.length);
 		buffer.put(b);
 	}
 
 	@Override
-	public void write(byte[] b, int len, int off) {
-		while (buffer.remaining() < b.length) {
-			expand();
-		}
-		buffer.put(b, len, off);
+	public void write(byte[] b, int off, int len) {
+		ensureRemaining(len);
+		buffer.put(b, off, len);
 	}
 
 	@Override
 	public void write(int b) {
-		if (buffer.remaining() < 1) {
-			expand();
-		}
+		ensureRemaining(1);
 		buffer.put((byte) b);
 	}
 
 	public void writeShort(short s) {
-		if (buffer.remaining() < 2) {
-			expand();
-		}
+		ensureRemaining(2);
 		buffer.putShort(s);
 	}
 
 	public void writeInt(int i) {
-		if (buffer.remaining() < 4) {
-			expand();
-		}
+		ensureRemaining(4);
 		buffer.putInt(i);
 	}
 
 	public void writeLong(long l) {
-		if (buffer.remaining() < 8) {
-			expand();
-		}
+		ensureRemaining(8);
 		buffer.putLong(l);
 	}
 
 	public void writeFloat(float f) {
-		if (buffer.remaining() < 4) {
-			expand();
-		}
+		ensureRemaining(4);
 		buffer.putFloat(f);
 	}
 
 	public void writeDouble(double d) {
-		if (buffer.remaining() < 8) {
-			expand();
-		}
+		ensureRemaining(8);
 		buffer.putDouble(d);
 	}
 
 	public void writeChar(char ch) {
-		if (buffer.remaining() < 2) {
-			expand();
-		}
+		ensureRemaining(2);
 		buffer.putChar(ch);
 	}
 
@@ -149,9 +142,7 @@ public class SpoutOutputStream extends OutputStream {
 	}
 
 	public void writeString(String s) {
-		while (buffer.remaining() < (2 + s.length() * 2)) {
-			expand();
-		}
+		ensureRemaining(2 + s.length() * 2);
 		buffer.putShort((short) s.length());
 		for (int i = 0; i < s.length(); i++) {
 			buffer.putChar(s.charAt(i));
@@ -178,10 +169,74 @@ public class SpoutOutputStream extends OutputStream {
 		return buffer;
 	}
 
-	private void expand() {
-		ByteBuffer replacement = ByteBuffer.allocate(buffer.capacity() * 2);
-		replacement.put(buffer.array());
-		replacement.position(buffer.position());
+	/**
+	 * Gets the number of bytes written so far
+	 * @return position
+	 */
+	public int getPosition() {
+		return buffer.position();
+	}
+
+	/**
+	 * Reserves space for an int which will be filled in later using {@link #setInt(int, int)}.
+	 * <p/>
+	 * This allows writing a length prefix before the data it describes, without buffering the data separately.
+	 * @return position of the reserved int
+	 */
+	public int reserveInt() {
+		ensureRemaining(4);
+		int position = buffer.position();
+		buffer.position(position + 4);
+		return position;
+	}
+
+	/**
+	 * Overwrites an int that was previously written or reserved
+	 * @param position of the int
+	 * @param i value to write
+	 */
+	public void setInt(int position, int i) {
+		buffer.putInt(position, i);
+	}
+
+	/**
+	 * Writes everything written to this stream so far to the given stream
+	 * @param out stream to write to
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+	}
+
+	/**
+	 * Copies everything written to this stream so far into a new array
+	 * @return written data
+	 */
+	public byte[] toByteArray() {
+		byte[] data = new byte[buffer.position()];
+		System.arraycopy(buffer.array(), buffer.arrayOffset(), data, 0, data.length);
+		return data;
+	}
+
+	/**
+	 * Returns the backing buffer to the buffer pool, the stream must not be used afterwards
+	 */
+	public void release() {
+		ByteBuffer released = buffer;
+		buffer = null;
+		BufferPool.release(released);
+	}
+
+	private void ensureRemaining(int bytes) {
+		if (buffer.remaining() < bytes) {
+			expand(buffer.position() + bytes);
+		}
+	}
+
+	private void expand(int required) {
+		ByteBuffer replacement = BufferPool.acquire(Math.max(required, buffer.capacity() * 2));
+		replacement.put(buffer.array(), buffer.arrayOffset(), buffer.position());
+		BufferPool.release(buffer);
 		buffer = replacement;
 	}
 }
@@ -0,0 +1,52 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spoutapi.io.store;
+
+import java.io.File;
+
+/**
+ * A JournalStore of Integers, that keeps its entries in an {@link IntMemoryStore}.
+ */
+public class IntJournalStore extends JournalStore<Integer> implements IntStore {
+	/**
+	 * Creates a store
+	 * @param file of the snapshot, the journal is kept next to it with .log appended
+	 */
+	public IntJournalStore(File file) {
+		this(file, null);
+	}
+
+	/**
+	 * Creates a store, that imports a text store on its first load
+	 * @param file of the snapshot, the journal is kept next to it with .log appended
+	 * @param legacy text file written by a {@link FlatFileStore}, or null
+	 */
+	public IntJournalStore(File file, File legacy) {
+		super(file, Integer.class, legacy, new IntMemoryStore());
+	}
+
+	public int getInt(String key, int def) {
+		return ((IntStore) memory).getInt(key, def);
+	}
+
+	public String reverseGetInt(int value) {
+		return ((IntStore) memory).reverseGetInt(value);
+	}
+}
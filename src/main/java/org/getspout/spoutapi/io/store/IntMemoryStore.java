@@ -0,0 +1,155 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spoutapi.io.store;
+
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import gnu.trove.iterator.TObjectIntIterator;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * This implements an IntStore that is stored in memory.  It is not persisted between restarts.
+ * <p/>
+ * Keys map to primitive ints, and values from 0 to 65535, the range of item ids, map back to keys through an array.
+ * Other values map back through a hash map.
+ */
+public class IntMemoryStore implements IntStore {
+	private static final int TABLE_LIMIT = 65536;
+	private final TObjectIntHashMap<String> map = new TObjectIntHashMap<String>();
+	private String[] reverseTable = new String[0];
+	private final TIntObjectHashMap<String> reverseOverflow = new TIntObjectHashMap<String>();
+
+	public boolean save() {
+		return true;
+	}
+
+	public boolean load() {
+		return true;
+	}
+
+	public Collection<String> getKeys() {
+		return map.keySet();
+	}
+
+	/**
+	 * Returns a copy of the key, value pairs, changing the entries does not change the store
+	 */
+	public Set<Entry<String, Integer>> getEntrySet() {
+		Set<Entry<String, Integer>> entries = new HashSet<Entry<String, Integer>>(map.size() * 2);
+		TObjectIntIterator<String> i = map.iterator();
+		while (i.hasNext()) {
+			i.advance();
+			entries.add(new AbstractMap.SimpleEntry<String, Integer>(i.key(), i.value()));
+		}
+		return entries;
+	}
+
+	public int getSize() {
+		return map.size();
+	}
+
+	public boolean clear() {
+		map.clear();
+		reverseTable = new String[0];
+		reverseOverflow.clear();
+		return true;
+	}
+
+	public Integer get(String key) {
+		int value = map.get(key);
+		if (value == map.getNoEntryValue() && !map.containsKey(key)) {
+			return null;
+		}
+		return value;
+	}
+
+	public Integer get(String key, Integer def) {
+		Integer value = get(key);
+		if (value == null) {
+			return def;
+		} else {
+			return value;
+		}
+	}
+
+	public int getInt(String key, int def) {
+		int value = map.get(key);
+		if (value == map.getNoEntryValue() && !map.containsKey(key)) {
+			return def;
+		}
+		return value;
+	}
+
+	public String reverseGet(Integer value) {
+		return value == null ? null : reverseGetInt(value);
+	}
+
+	public String reverseGetInt(int value) {
+		if (value >= 0 && value < TABLE_LIMIT) {
+			return value < reverseTable.length ? reverseTable[value] : null;
+		}
+		return reverseOverflow.get(value);
+	}
+
+	public Integer remove(String key) {
+		if (!map.containsKey(key)) {
+			return null;
+		}
+		int value = map.remove(key);
+		setReverse(value, null);
+		return value;
+	}
+
+	public Integer set(String key, Integer value) {
+		Integer oldValue = null;
+		if (map.containsKey(key)) {
+			oldValue = map.get(key);
+			setReverse(oldValue, null);
+		}
+		map.put(key, value);
+		setReverse(value, key);
+		return oldValue;
+	}
+
+	private void setReverse(int value, String key) {
+		if (value < 0 || value >= TABLE_LIMIT) {
+			if (key == null) {
+				reverseOverflow.remove(value);
+			} else {
+				reverseOverflow.put(value, key);
+			}
+			return;
+		}
+		if (value >= reverseTable.length) {
+			if (key == null) {
+				return;
+			}
+			String[] grown = new String[Math.min(TABLE_LIMIT, Math.max(value + 1, reverseTable.length * 2))];
+			System.arraycopy(reverseTable, 0, grown, 0, reverseTable.length);
+			reverseTable = grown;
+		}
+		reverseTable[value] = key;
+	}
+}
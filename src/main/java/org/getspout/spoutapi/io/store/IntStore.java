@@ -0,0 +1,39 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spoutapi.io.store;
+
+/**
+ * A SimpleStore of Integers, with lookups that take and return ints, so they do not box.
+ */
+public interface IntStore extends SimpleStore<Integer> {
+	/**
+	 * Gets the value associated with a key
+	 *
+	 * @return returns the value associated with the key, or the default if there is no mapping
+	 */
+	public int getInt(String key, int def);
+
+	/**
+	 * Gets the key associated with a value
+	 *
+	 * @return returns the key associated with the value, or null if there is no mapping
+	 */
+	public String reverseGetInt(int value);
+}
@@ -0,0 +1,428 @@
+/*
+ * This file is part of SpoutPlugin.
+ *
+ * Copyright (c) 2011-2012, SpoutDev <http://www.spout.org/>
+ * SpoutPlugin is licensed under the GNU Lesser General Public License.
+ *
+ * SpoutPlugin is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SpoutPlugin is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.getspout.spoutapi.io.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collection;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * This implements a SimpleStore that is stored in memory, and persisted as a snapshot plus a journal of the changes made since the snapshot.
+ * <p/>
+ * Changes are buffered in memory, and a save appends all of them to the journal with one write and one sync, so a save costs as much as what changed rather than the size of the store.
+ * Once the journal has grown larger than the store, a save writes a new snapshot instead and starts a new journal.
+ * <p/>
+ * The snapshot is replaced atomically, and journal records are checksummed, so a crash while saving loses at most the changes of that save.
+ * A store that has no snapshot or journal yet imports the text file written by {@link FlatFileStore}, if one is given.
+ */
+public class JournalStore<T> implements SimpleStore<T> {
+	private static final int SNAPSHOT_MAGIC = 0x53504A53;
+	private static final int JOURNAL_MAGIC = 0x53504A4C;
+	private static final int VERSION = 1;
+	private static final byte SET = 1;
+	private static final byte REMOVE = 2;
+	private static final byte CLEAR = 3;
+	private static final int MIN_COMPACT_RECORDS = 1024;
+	private final File file;
+	private final File journal;
+	private final File legacy;
+	private final Class<?> clazz;
+	protected final SimpleStore<T> memory;
+	private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+	private final DataOutputStream recordOut = new DataOutputStream(record);
+	private final CRC32 crc = new CRC32();
+	private int pendingRecords = 0;
+	private int journalRecords = 0;
+	private long generation = 0;
+	//The journal on disk was written for an older snapshot, but could not be deleted
+	private boolean journalStale = false;
+
+	/**
+	 * Creates a store
+	 * @param file of the snapshot, the journal is kept next to it with .log appended
+	 * @param clazz of the values, Integer or String
+	 */
+	public JournalStore(File file, Class<?> clazz) {
+		this(file, clazz, null);
+	}
+
+	/**
+	 * Creates a store, that imports a text store on its first load
+	 * @param file of the snapshot, the journal is kept next to it with .log appended
+	 * @param clazz of the values, Integer or String
+	 * @param legacy text file written by a {@link FlatFileStore}, or null
+	 */
+	public JournalStore(File file, Class<?> clazz, File legacy) {
+		this(file, clazz, legacy, new MemoryStore<T>());
+	}
+
+	/**
+	 * Creates a store, that keeps its entries in another store
+	 * @param file of the snapshot, the journal is kept next to it with .log appended
+	 * @param clazz of the values, Integer or String
+	 * @param legacy text file written by a {@link FlatFileStore}, or null
+	 * @param memory store holding the entries, which is not persisted itself
+	 */
+	protected JournalStore(File file, Class<?> clazz, File legacy, SimpleStore<T> memory) {
+		if (clazz != Integer.class && clazz != String.class) {
+			throw new IllegalArgumentException("Unable to store clazzes of type " + clazz.getName());
+		}
+		this.file = file;
+		this.journal = new File(file.getPath() + ".log");
+		this.legacy = legacy;
+		this.clazz = clazz;
+		this.memory = memory;
+	}
+
+	public Collection<String> getKeys() {
+		return memory.getKeys();
+	}
+
+	public Set<Entry<String, T>> getEntrySet() {
+		return memory.getEntrySet();
+	}
+
+	public int getSize() {
+		return memory.getSize();
+	}
+
+	public T get(String key) {
+		return memory.get(key);
+	}
+
+	public T get(String key, T def) {
+		return memory.get(key, def);
+	}
+
+	public String reverseGet(T value) {
+		return memory.reverseGet(value);
+	}
+
+	public synchronized boolean save() {
+		if (pendingRecords == 0) {
+			return true;
+		}
+		try {
+			if (journalRecords + pendingRecords > Math.max(MIN_COMPACT_RECORDS, getSize() * 2)) {
+				//The snapshot already includes the pending changes
+				writeSnapshot();
+			} else {
+				append();
+			}
+			pending.reset();
+			pendingRecords = 0;
+			return true;
+		} catch (IOException e) {
+			System.out.println("[Spout] Unable to save " + file.getPath() + ", " + e.getMessage());
+			return false;
+		}
+	}
+
+	public synchronized boolean load() {
+		memory.clear();
+		pending.reset();
+		pendingRecords = 0;
+		journalRecords = 0;
+		generation = 0;
+		journalStale = false;
+		try {
+			File temp = getTempFile();
+			if (!file.exists() && temp.exists()) {
+				//A snapshot was written, but the old one was deleted before it could be renamed
+				if (!temp.renameTo(file)) {
+					throw new IOException("Unable to rename " + temp.getPath());
+				}
+			}
+			if (!file.exists() && !journal.exists()) {
+				if (legacy != null && legacy.exists()) {
+					return importLegacy();
+				}
+				return true;
+			}
+			if (file.exists()) {
+				readSnapshot();
+			}
+			if (journal.exists()) {
+				readJournal();
+			}
+			return true;
+		} catch (IOException e) {
+			System.out.println("[Spout] Unable to load " + file.getPath() + ", " + e.getMessage());
+			return false;
+		}
+	}
+
+	public synchronized boolean clear() {
+		memory.clear();
+		startRecord(CLEAR);
+		endRecord();
+		return true;
+	}
+
+	public synchronized T remove(String key) {
+		T value = memory.remove(key);
+		if (value != null) {
+			try {
+				startRecord(REMOVE);
+				recordOut.writeUTF(key);
+			} catch (IOException e) {
+				throw new IllegalArgumentException(e);
+			}
+			endRecord();
+		}
+		return value;
+	}
+
+	public synchronized T set(String key, T value) {
+		T oldValue = memory.set(key, value);
+		if (!value.equals(oldValue)) {
+			try {
+				startRecord(SET);
+				recordOut.writeUTF(key);
+				writeValue(recordOut, value);
+			} catch (IOException e) {
+				throw new IllegalArgumentException(e);
+			}
+			endRecord();
+		}
+		return oldValue;
+	}
+
+	/**
+	 * Gets the number of records in the journal, not counting changes that were not saved yet
+	 * @return journal records
+	 */
+	public synchronized int getJournalSize() {
+		return journalRecords;
+	}
+
+	private void startRecord(byte op) {
+		record.reset();
+		try {
+			recordOut.writeByte(op);
+		} catch (IOException ignore) {
+			//Not thrown by a ByteArrayOutputStream
+		}
+	}
+
+	/**
+	 * Adds the record to the pending changes, framed by its length and checksum
+	 */
+	private void endRecord() {
+		byte[] payload = record.toByteArray();
+		crc.reset();
+		crc.update(payload);
+		DataOutputStream out = new DataOutputStream(pending);
+		try {
+			out.writeInt(payload.length);
+			out.write(payload);
+			out.writeInt((int) crc.getValue());
+		} catch (IOException ignore) {
+			//Not thrown by a ByteArrayOutputStream
+		}
+		pendingRecords++;
+	}
+
+	private void append() throws IOException {
+		//A journal left from an older snapshot is started over, its records must not be appended under its old generation
+		boolean start = journalStale || !journal.exists() || journal.length() == 0;
+		FileOutputStream fos = new FileOutputStream(journal, !start);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, Math.max(512, pending.size() + 16)));
+			if (start) {
+				out.writeInt(JOURNAL_MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(generation);
+			}
+			pending.writeTo(out);
+			out.flush();
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+		journalStale = false;
+		journalRecords += pendingRecords;
+	}
+
+	private void writeSnapshot() throws IOException {
+		File temp = getTempFile();
+		FileOutputStream fos = new FileOutputStream(temp);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(generation + 1);
+			out.writeInt(getSize());
+			for (Entry<String, T> entry : getEntrySet()) {
+				out.writeUTF(entry.getKey());
+				writeValue(out, entry.getValue());
+			}
+			out.flush();
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+		if (!temp.renameTo(file)) {
+			//Windows will not rename over an existing file
+			if (!file.delete() || !temp.renameTo(file)) {
+				throw new IOException("Unable to replace " + file.getPath() + " with its new snapshot");
+			}
+		}
+		//The old journal belongs to the previous generation, if it can not be deleted it is ignored on load and rewritten by the next append
+		generation++;
+		journalStale = !journal.delete() && journal.exists();
+		journalRecords = 0;
+	}
+
+	private void readSnapshot() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != SNAPSHOT_MAGIC) {
+				throw new IOException("Not a snapshot");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unknown snapshot version " + version);
+			}
+			generation = in.readLong();
+			int size = in.readInt();
+			for (int i = 0; i < size; i++) {
+				String key = in.readUTF();
+				memory.set(key, readValue(in));
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private void readJournal() throws IOException {
+		long valid = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)));
+		try {
+			if (in.readInt() != JOURNAL_MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a journal");
+			}
+			if (in.readLong() != generation) {
+				//Written before the current snapshot, which includes all of it
+				valid = -1;
+				return;
+			}
+			valid = 16;
+			while (true) {
+				int length = in.readInt();
+				if (length <= 0 || length > journal.length()) {
+					break;
+				}
+				byte[] payload = new byte[length];
+				in.readFully(payload);
+				int checksum = in.readInt();
+				crc.reset();
+				crc.update(payload);
+				if (checksum != (int) crc.getValue()) {
+					break;
+				}
+				replay(new DataInputStream(new ByteArrayInputStream(payload)));
+				journalRecords++;
+				valid += 8 + length;
+			}
+		} catch (EOFException ignore) {
+			//The last save was interrupted
+		} finally {
+			in.close();
+		}
+		if (valid < 0) {
+			journalStale = !journal.delete() && journal.exists();
+		} else if (valid < journal.length()) {
+			System.out.println("[Spout] Discarding " + (journal.length() - valid) + " bytes of incomplete changes from " + journal.getPath());
+			RandomAccessFile raf = new RandomAccessFile(journal, "rw");
+			try {
+				raf.setLength(valid);
+			} finally {
+				raf.close();
+			}
+		}
+	}
+
+	private void replay(DataInputStream in) throws IOException {
+		byte op = in.readByte();
+		switch (op) {
+			case SET:
+				String key = in.readUTF();
+				memory.set(key, readValue(in));
+				break;
+			case REMOVE:
+				memory.remove(in.readUTF());
+				break;
+			case CLEAR:
+				memory.clear();
+				break;
+			default:
+				throw new IOException("Unknown journal record " + op);
+		}
+	}
+
+	private boolean importLegacy() throws IOException {
+		FlatFileStore<T> old = new FlatFileStore<T>(legacy, clazz);
+		if (!old.load()) {
+			return false;
+		}
+		for (Entry<String, T> entry : old.getEntrySet()) {
+			memory.set(entry.getKey(), entry.getValue());
+		}
+		writeSnapshot();
+		System.out.println("[Spout] Imported " + getSize() + " entries from " + legacy.getPath() + " into " + file.getPath());
+		return true;
+	}
+
+	private File getTempFile() {
+		return new File(file.getPath() + ".tmp");
+	}
+
+	private void writeValue(DataOutputStream out, T value) throws IOException {
+		if (clazz == Integer.class) {
+			out.writeInt((Integer) value);
+		} else {
+			out.writeUTF((String) value);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private T readValue(DataInputStream in) throws IOException {
+		if (clazz == Integer.class) {
+			return (T) (Object) in.readInt();
+		} else {
+			return (T) (Object) in.readUTF();
+		}
+	}
+}
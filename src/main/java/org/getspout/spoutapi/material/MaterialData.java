@@ -26,8 +26,6 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 
-import gnu.trove.map.hash.TIntObjectHashMap;
-
 import org.getspout.spoutapi.SpoutManager;
 import org.getspout.spoutapi.material.block.Air;
 import org.getspout.spoutapi.material.block.DoubleSlabs;
@@ -54,10 +52,13 @@ public class MaterialData {
 	private final static Object[] idLookup = new Object[3200];
 	private final static List<CustomBlock> customBlocks = new LinkedList<CustomBlock>();
 	private final static List<CustomItem> customItems = new LinkedList<CustomItem>();
-	private final static TIntObjectHashMap<CustomItem> customItemLookup = new TIntObjectHashMap<CustomItem>(250);
-	private final static TIntObjectHashMap<CustomBlock> customBlockLookup = new TIntObjectHashMap<CustomBlock>(250);
 	private final static HashMap<String, Material> nameLookup = new HashMap<String, Material>(1000);
 	private final static int FLINT_ID = 318;
+	private final static int MAX_CUSTOM_ID = 65535;
+	/**
+	 * Read only copy of the id and custom id lookups, replaced whenever a material is registered
+	 */
+	private static volatile Lookup lookup = Lookup.EMPTY;
 	public static final Block air = new Air("Air");
 	public static final Block stone = new Solid("Stone", 1);
 	public static final Block grass = new Grass("Grass");
@@ -503,16 +504,15 @@ public class MaterialData {
 		reset();
 	}
 
-	public static void reset() {
+	public static synchronized void reset() {
 		//reset all values
 		for (int i = 0; i < idLookup.length; i++) {
 			idLookup[i] = null;
 		}
 		nameLookup.clear();
 		customBlocks.clear();
-		customBlockLookup.clear();
 		customItems.clear();
-		customItemLookup.clear();
+		lookup = Lookup.EMPTY;
 
 		Field[] fields = MaterialData.class.getFields();
 		for (Field f : fields) {
@@ -535,7 +535,7 @@ public class MaterialData {
 		}
 	}
 
-	private static void insertItem(int id, int data, Material mat) {
+	private static synchronized void insertItem(int id, int data, Material mat) {
 		if (id < idLookup.length && id > -1) {
 			nameLookup.put(mat.getNotchianName().toLowerCase(), mat);
 			if (idLookup[mat.getRawId()] == null) {
@@ -558,6 +558,7 @@ public class MaterialData {
 			} else {
 				System.out.println("WARNING! Unknown lookup contents, " + idLookup[mat.getRawId()]);
 			}
+			lookup = lookup.withId(id, idLookup[id]);
 		} else {
 			System.out.println("WARNING! Material " + mat.getNotchianName() + " Could Not Fit " + id + ", " + data + " into the lookup array!");
 		}
@@ -576,9 +577,7 @@ public class MaterialData {
 	 * @param item to add
 	 */
 	public static void addCustomItem(CustomItem item) {
-		customItemLookup.put(item.getCustomId(), item);
-		customItems.add(item);
-		nameLookup.put(item.getNotchianName().toLowerCase(), item);
+		insertCustomItem(item);
 		SpoutManager.getMaterialManager().onCustomMaterialRegistered(item);
 	}
 
@@ -587,10 +586,32 @@ public class MaterialData {
 	 * @param block to add
 	 */
 	public static void addCustomBlock(CustomBlock block) {
-		customBlockLookup.put(block.getCustomId(), block);
+		insertCustomBlock(block);
+		SpoutManager.getMaterialManager().onCustomMaterialRegistered(block);
+	}
+
+	private static synchronized void insertCustomItem(CustomItem item) {
+		customItems.add(item);
+		nameLookup.put(item.getNotchianName().toLowerCase(), item);
+		if (isCustomId(item.getCustomId(), item)) {
+			lookup = lookup.withCustomItem(item);
+		}
+	}
+
+	private static synchronized void insertCustomBlock(CustomBlock block) {
 		customBlocks.add(block);
 		nameLookup.put(block.getNotchianName().toLowerCase(), block);
-		SpoutManager.getMaterialManager().onCustomMaterialRegistered(block);
+		if (isCustomId(block.getCustomId(), block)) {
+			lookup = lookup.withCustomBlock(block);
+		}
+	}
+
+	private static boolean isCustomId(int customId, Material mat) {
+		if (customId < 0 || customId > MAX_CUSTOM_ID) {
+			System.out.println("WARNING! Material " + mat.getNotchianName() + " Could Not Fit custom id " + customId + " into the lookup array!");
+			return false;
+		}
+		return true;
 	}
 
 	/**
@@ -610,23 +631,18 @@ public class MaterialData {
 	 * @return material or null if none found
 	 */
 	public static Material getMaterial(int id, short data) {
-		Object o = idLookup[id];
+		Lookup current = lookup;
+		Material[] materials = current.materials[id];
 		if (id == FLINT_ID && data >= 1024) {
-			o = getCustomBlock(data);
-			if (o == null) {
-				o = getCustomItem(data);
-			}
-			return (Material) o;
+			return current.getCustom(data);
 		}
-		if (o == null || o instanceof Material) {
-			return (Material) o;
+		if (materials == null) {
+			return null;
 		}
-		Material[] materials = (Material[]) o;
-		Material m = materials[0];
 		if (data < materials.length && data > -1) {
 			return materials[data];
 		}
-		return m;
+		return materials[0];
 	}
 
 	/**
@@ -641,24 +657,27 @@ public class MaterialData {
 	 * @return material found, created, or null
 	 */
 	public static Material getOrCreateMaterial(int id, short data) {
-		Object o = idLookup[id];
-		Material[] materials;
 		Material mat;
-		if (idLookup[id] == null) {
-			return null;
-		}
-		if(o instanceof Material) {
-			mat = (Material) o;
-			materials = new Material[Math.max(mat.getRawData(), data) * 2 + 1];
-			materials[mat.getRawData()] = mat;
-		} else {
-			materials = (Material[]) o;
-			if (data > materials.length) {
-				materials = adjust(materials, data * 2 + 1);
+		synchronized (MaterialData.class) {
+			Object o = idLookup[id];
+			Material[] materials;
+			if (idLookup[id] == null) {
+				return null;
+			}
+			if(o instanceof Material) {
+				mat = (Material) o;
+				materials = new Material[Math.max(mat.getRawData(), data) * 2 + 1];
+				materials[mat.getRawData()] = mat;
+			} else {
+				materials = (Material[]) o;
+				if (data > materials.length) {
+					materials = adjust(materials, data * 2 + 1);
+				}
+				mat = materials[data];
 			}
-			mat = materials[data];
+			idLookup[id] = materials;
+			lookup = lookup.withId(id, materials);
 		}
-		idLookup[id] = materials;
 
 		if (mat != null) {
 			if (mat.getRawId() == id && mat.getRawData() == data) {
@@ -706,7 +725,7 @@ public class MaterialData {
 	 * Gets an array of all currently registered custom blocks
 	 * @return all registered custom blocks
 	 */
-	public static CustomBlock[] getCustomBlocks() {
+	public static synchronized CustomBlock[] getCustomBlocks() {
 		CustomBlock[] blocks = new CustomBlock[customBlocks.size()];
 		for (int i = 0; i < blocks.length; i++) {
 			blocks[i] = customBlocks.get(i);
@@ -718,7 +737,7 @@ public class MaterialData {
 	 * Gets an array of all currently registered custom items
 	 * @return all registered custom items
 	 */
-	public static CustomItem[] getCustomItems() {
+	public static synchronized CustomItem[] getCustomItems() {
 		CustomItem[] items = new CustomItem[customItems.size()];
 		for (int i = 0; i < items.length; i++) {
 			items[i] = customItems.get(i);
@@ -732,7 +751,11 @@ public class MaterialData {
 	 * @return
 	 */
 	public static CustomBlock getCustomBlock(int customId) {
-		return customBlockLookup.get(customId);
+		CustomBlock[] blocks = lookup.customBlocks;
+		if (customId < 0 || customId >= blocks.length) {
+			return null;
+		}
+		return blocks[customId];
 	}
 
 	/**
@@ -741,7 +764,11 @@ public class MaterialData {
 	 * @return custom item
 	 */
 	public static CustomItem getCustomItem(int customId) {
-		return customItemLookup.get(customId);
+		CustomItem[] items = lookup.customItems;
+		if (customId < 0 || customId >= items.length) {
+			return null;
+		}
+		return items[customId];
 	}
 
 	/**
@@ -771,7 +798,7 @@ public class MaterialData {
 	 * Returns a list of all the current materials in the game, notchian, custom, or otherwise
 	 * @return a list of all materials
 	 */
-	public static List<Material> getMaterials() {
+	public static synchronized List<Material> getMaterials() {
 		LinkedList<Material> materials = new LinkedList<Material>();
 		for (int i = 0; i < idLookup.length; i++) {
 			if (idLookup[i] instanceof Material) {
@@ -797,4 +824,68 @@ public class MaterialData {
 	public static Material getMaterial(String notchianName) {
 		return nameLookup.get(notchianName.toLowerCase());
 	}
+
+	/**
+	 * Immutable snapshot of the material lookups.
+	 * <p/>
+	 * Every id maps to an array indexed by data value, a material without subtypes being an array of one,
+	 * and custom blocks and items are stored in arrays indexed by custom id.
+	 * Registration builds a new snapshot from copies of the changed arrays, so lookups never lock and never see a partial update.
+	 */
+	private static final class Lookup {
+		private static final Lookup EMPTY = new Lookup(new Material[idLookup.length][], new CustomBlock[0], new CustomItem[0]);
+		private final Material[][] materials;
+		private final CustomBlock[] customBlocks;
+		private final CustomItem[] customItems;
+
+		private Lookup(Material[][] materials, CustomBlock[] customBlocks, CustomItem[] customItems) {
+			this.materials = materials;
+			this.customBlocks = customBlocks;
+			this.customItems = customItems;
+		}
+
+		private Material getCustom(int customId) {
+			if (customId < customBlocks.length && customBlocks[customId] != null) {
+				return customBlocks[customId];
+			}
+			if (customId < customItems.length) {
+				return customItems[customId];
+			}
+			return null;
+		}
+
+		/**
+		 * Creates a copy of this lookup, with the id mapped to the contents of the id lookup
+		 * @param id to replace
+		 * @param o material, or array of materials by data value, at the id
+		 * @return new lookup
+		 */
+		private Lookup withId(int id, Object o) {
+			Material[][] copy = materials.clone();
+			if (o instanceof Material) {
+				copy[id] = new Material[] {(Material) o};
+			} else if (o instanceof Material[]) {
+				copy[id] = ((Material[]) o).clone();
+			} else {
+				copy[id] = null;
+			}
+			return new Lookup(copy, customBlocks, customItems);
+		}
+
+		private Lookup withCustomBlock(CustomBlock block) {
+			int customId = block.getCustomId();
+			CustomBlock[] copy = new CustomBlock[Math.max(customBlocks.length, customId + 1)];
+			System.arraycopy(customBlocks, 0, copy, 0, customBlocks.length);
+			copy[customId] = block;
+			return new Lookup(materials, copy, customItems);
+		}
+
+		private Lookup withCustomItem(CustomItem item) {
+			int customId = item.getCustomId();
+			CustomItem[] copy = new CustomItem[Math.max(customItems.length, customId + 1)];
+			System.arraycopy(customItems, 0, copy, 0, customItems.length);
+			copy[customId] = item;
+			return new Lookup(materials, customBlocks, copy);
+		}
+	}
 }
@@ -52,9 +52,8 @@ public class PacketAddonData implements CompressiblePacket {
 		} catch (Exception e) {
 
 		}
-		ByteBuffer buffer = stream.getRawBuffer();
-		data = new byte[buffer.capacity() - buffer.remaining()];
-		System.arraycopy(buffer.array(), 0, data, 0, data.length);
+		data = stream.toByteArray();
+		stream.release();
 		needsCompression = data.length > 512;
 	}
 
@@ -95,8 +95,8 @@ public class PacketCustomBlockChunkOverride implements CompressiblePacket {
 			}
 			Chunk c = player.getWorld().getChunkAt(chunkX, chunkZ);
 			if (c instanceof SpoutChunk) {
-				SpoutChunk chunk = (SpoutChunk)c;
-				player.sendPacket(new PacketCustomBlockChunkOverride(chunk.getCustomBlockIds(), chunk.getCustomBlockData(), chunkX, chunkZ));
+				//Copies, so the chunk can keep its ids in paletted sections
+				player.sendPacket(new PacketCustomBlockChunkOverride(SpoutManager.getChunkDataManager().copyCustomBlockIds(c.getWorld(), chunkX, chunkZ), SpoutManager.getChunkDataManager().copyCustomBlockData(c.getWorld(), chunkX, chunkZ), chunkX, chunkZ));
 			}
 		}
 	}
@@ -19,6 +19,10 @@
  */
 package org.getspout.spoutapi.packet;
 
+import java.util.Collection;
+
+import org.bukkit.entity.Player;
+
 import org.getspout.spoutapi.packet.listener.PacketListener;
 import org.getspout.spoutapi.packet.standard.MCPacket;
 
@@ -69,4 +73,14 @@ public interface PacketManager {
 	 * @return true if listener was removed
 	 */
 	public void clearAllListeners();
+
+	/**
+	 * Sends a packet to all of the given players.
+	 * <p/>
+	 * The packet is compressed and serialized only once, and the same data is sent to every player.
+	 * The packet must not be modified after it has been passed to this method.
+	 * @param packet to send
+	 * @param players to send the packet to
+	 */
+	public void sendPacket(SpoutPacket packet, Collection<? extends Player> players);
 }
@@ -73,15 +73,12 @@ public class PacketWidget implements SpoutPacket {
 		output.writeUUID(screen);
 		output.writeUUID(widget.getId());
 
-		SpoutOutputStream data = new SpoutOutputStream();
-		widget.writeData(data);
-		ByteBuffer buffer = data.getRawBuffer();
-		byte[] widgetData = new byte[buffer.capacity() - buffer.remaining()];
-		System.arraycopy(buffer.array(), 0, widgetData, 0, widgetData.length);
-
-		output.writeInt(widgetData.length);
+		//Write the widget straight into the packet, and fill in the length afterwards
+		int lengthPosition = output.reserveInt();
 		output.writeShort((short) widget.getVersion());
-		output.write(widgetData);
+		int start = output.getPosition();
+		widget.writeData(output);
+		output.setInt(lengthPosition, output.getPosition() - start);
 	}
 
 	@Override